@@ -26,6 +26,8 @@ import org.apache.maven.plugin.MojoFailureException;
 import org.codehaus.plexus.util.DirectoryScanner;
 import org.codehaus.plexus.util.StringUtils;
 import org.scala_tools.maven.executions.JavaMainCaller;
+import org.scala_tools.maven.executions.OutputListener;
+import org.scala_tools.maven.incremental.PathTable;
 
 /**
  * Helper class use to call a java Main in an external process.
@@ -83,6 +85,8 @@ public class JavaCommand implements JavaMainCaller {
     private String javaExec_;
     private String mainClassName_;
     private boolean logOnly_ = true;
+    private List<OutputListener> outputListeners_ = new ArrayList<OutputListener>();
+    private File workingDirectory_;
 
     public JavaCommand(AbstractMojo requester, String mainClassName, String classpath, String[] jvmArgs, String[] args) throws Exception {
         requester_ = requester;
@@ -176,6 +180,26 @@ public class JavaCommand implements JavaMainCaller {
         logOnly_ = v;
     }
 
+    /**
+     * Only notified of the lines of the output when logOnly is true.
+     *
+     * @see org.scala_tools.maven.executions.JavaMainCaller#addOutputListener(OutputListener)
+     */
+    public void addOutputListener(OutputListener listener) {
+        outputListeners_.add(listener);
+    }
+
+    public void setWorkingDirectory(File dir) {
+        workingDirectory_ = dir;
+    }
+
+    public void addSources(PathTable paths, List<Integer> ids) {
+        // the arguments are passed on the command line
+        for (int id : ids) {
+            args_.add(paths.getPath(id));
+        }
+    }
+
     private String[] buildCommand() {
         ArrayList<String> back = new ArrayList<String>(2 + jvmArgs_.size() + args_.size());
         back.add(javaExec_);
@@ -206,20 +230,23 @@ public class JavaCommand implements JavaMainCaller {
             requester_.getLog().debug("cmd: " + " " + StringUtils.join(cmd, " "));
         }
         ProcessBuilder pb = new ProcessBuilder(cmd);
-        //pb.directory("myDir");
+        pb.directory(workingDirectory_);
         if (!logOnly_) {
             pb = pb.redirectErrorStream(true);
         }
         Process p = pb.start();
         if (logOnly_) {
-            new StreamLogger(p.getErrorStream(), requester_.getLog(), true).start();
-            new StreamLogger(p.getInputStream(), requester_.getLog(), false).start();
+            new StreamLogger(p.getErrorStream(), requester_.getLog(), true, outputListeners_).start();
+            new StreamLogger(p.getInputStream(), requester_.getLog(), false, outputListeners_).start();
         } else {
             new StreamPiper(p.getInputStream(), System.out).start();
 //            new ConsolePiper(p).start();
             new StreamPiper(System.in, p.getOutputStream()).start();
         }
         int retVal = p.waitFor();
+        for (OutputListener listener : outputListeners_) {
+            listener.exited(retVal);
+        }
         if (throwFailure && (retVal != 0)) {
             throw new MojoFailureException("command line returned non-zero value:" + retVal);
         }
@@ -236,6 +263,7 @@ public class JavaCommand implements JavaMainCaller {
             requester_.getLog().debug("cmd: " + " " + StringUtils.join(cmd, " "));
         }
         ProcessBuilder pb = new ProcessBuilder(cmd);
+        pb.directory(workingDirectory_);
         pb.start();
     }
 
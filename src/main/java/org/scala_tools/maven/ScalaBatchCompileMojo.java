@@ -0,0 +1,433 @@
+/*
+ * Copyright 2007 scala-tools.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+package org.scala_tools.maven;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.metadata.ArtifactMetadataSource;
+import org.apache.maven.artifact.resolver.ArtifactResolutionResult;
+import org.apache.maven.artifact.resolver.filter.ScopeArtifactFilter;
+import org.apache.maven.artifact.versioning.VersionRange;
+import org.apache.maven.model.Dependency;
+import org.apache.maven.model.Plugin;
+import org.apache.maven.model.PluginExecution;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.util.FileUtils;
+import org.scala_tools.maven.executions.JavaMainCaller;
+import org.scala_tools.maven.incremental.ApiFingerprints;
+import org.scala_tools.maven.incremental.ClasspathFingerprints;
+import org.scala_tools.maven.incremental.DependencyGraph;
+import org.scala_tools.maven.incremental.ParallelFileOperations;
+import org.scala_tools.maven.incremental.SourceIndex;
+import org.scala_tools.maven.incremental.StagedOutput;
+
+/**
+ * Compiles the main sources of the small modules of the reactor together : the adjacent modules (in the reactor order)
+ * with few sources (some of them changed), the same versions of dependencies and the same configuration of the plugin as
+ * this execution are compiled by a single scalac, and the classfiles are moved
+ * into the output directory of the module of their source. The state of the incremental compilation of the modules is
+ * updated, so the compile goal of the modules has nothing to compile. Call it before the lifecycle, like
+ * <code>mvn scala:batchCompile install</code>.
+ *
+ * @goal batchCompile
+ * @aggregator
+ */
+public class ScalaBatchCompileMojo extends ScalaCompilerSupport {
+    private static final String PLUGIN_GROUPID = "org.scala-tools";
+    private static final String PLUGIN_ARTIFACTID = "maven-scala-plugin";
+
+    /**
+     * The projects of the reactor.
+     *
+     * @parameter expression="${reactorProjects}"
+     * @required
+     * @readonly
+     */
+    protected List<MavenProject> reactorProjects;
+
+    /**
+     * The maximum number of source files of a module to compile it in a batch.
+     *
+     * @parameter expression="${maven.scala.batch.maxSources}" default-value="20"
+     */
+    protected int batchMaxSources;
+
+    /**
+     * The maximum number of modules compiled by a single scalac.
+     *
+     * @parameter expression="${maven.scala.batch.maxModules}" default-value="10"
+     */
+    protected int batchMaxModules;
+
+    /**
+     * Used to resolve the dependencies of the modules.
+     *
+     * @component
+     * @required
+     * @readonly
+     */
+    protected ArtifactMetadataSource metadataSource;
+
+    /**
+     * A module of the reactor to compile in a batch.
+     */
+    private static class Module {
+        MavenProject project;
+        File outputDir;
+        SourceIndex index;
+        /** path ids of the sources */
+        List<Integer> sources;
+        /** true if the sources didn't change since the last compilation of the module */
+        boolean upToDate;
+        /** groupId:artifactId of the modules of the reactor it depends on */
+        Set<String> reactorDependencies = new HashSet<String>();
+        /** version of the other dependencies, by groupId:artifactId */
+        Map<String, String> versions = new HashMap<String, String>();
+        /** the jars of the other dependencies */
+        Set<String> classpath = new LinkedHashSet<String>();
+    }
+
+    @Override
+    protected void doExecute() throws Exception {
+        Map<String, MavenProject> reactor = new HashMap<String, MavenProject>();
+        for (MavenProject p : reactorProjects) {
+            reactor.put(p.getGroupId() + ":" + p.getArtifactId(), p);
+        }
+        // the batches are compiled with the configuration of this execution (args, compilerPlugins, jvmArgs,...)
+        String configuration = getCompileConfiguration(project.getBuildPlugins());
+        if ((configuration == null) && (project.getPluginManagement() != null)) {
+            configuration = getCompileConfiguration(project.getPluginManagement().getPlugins());
+        }
+        List<List<Module>> batches = new ArrayList<List<Module>>();
+        List<Module> current = new ArrayList<Module>();
+        // the modules of the batches, and the modules up to date : their output directory is ready for the batches
+        Set<String> batched = new HashSet<String>();
+        Set<String> upToDate = new HashSet<String>();
+        for (MavenProject p : reactorProjects) {
+            String id = p.getGroupId() + ":" + p.getArtifactId();
+            Module m = loadModule(p, reactor, configuration);
+            if ((m != null) && m.upToDate) {
+                // unless a module it depends on is compiled now, the compile goal of the module has nothing to do
+                if (upToDate.containsAll(m.reactorDependencies)) {
+                    upToDate.add(id);
+                    continue;
+                }
+                m = null;
+            }
+            if ((m != null) && ((current.size() >= batchMaxModules) || !isCompatible(current, m))) {
+                current = flush(current, batches, batched);
+            }
+            // a module depending on a module compiled by its own compile goal (later) can't be compiled now
+            if ((m == null) || !isReady(m.reactorDependencies, batched, upToDate)) {
+                current = flush(current, batches, batched);
+                continue;
+            }
+            current.add(m);
+            batched.add(id);
+        }
+        flush(current, batches, batched);
+
+        Map<String, File> outputDirs = new HashMap<String, File>();
+        for (MavenProject p : reactorProjects) {
+            outputDirs.put(p.getGroupId() + ":" + p.getArtifactId(), normalize(new File(p.getBuild().getOutputDirectory())));
+        }
+        int nbModules = 0;
+        for (List<Module> batch : batches) {
+            compileBatch(batch, outputDirs);
+            nbModules += batch.size();
+        }
+        if (nbModules == 0) {
+            getLog().info("No modules to compile in batch");
+        }
+    }
+
+    /**
+     * Ends the current batch. A module alone is left to its compile goal, so it's removed from the batched modules
+     * (the next modules depending on it can't be compiled now).
+     */
+    private List<Module> flush(List<Module> current, List<List<Module>> batches, Set<String> batched) {
+        if (current.isEmpty()) {
+            return current;
+        }
+        if (current.size() == 1) {
+            MavenProject p = current.get(0).project;
+            batched.remove(p.getGroupId() + ":" + p.getArtifactId());
+        } else {
+            batches.add(current);
+        }
+        return new ArrayList<Module>();
+    }
+
+    private static boolean isReady(Set<String> dependencies, Set<String> batched, Set<String> upToDate) {
+        for (String id : dependencies) {
+            if (!batched.contains(id) && !upToDate.contains(id)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the module, or null if it should be compiled by its own compile goal (no scala sources, too many
+     *         sources, other version of scala, other configuration of the plugin)
+     */
+    @SuppressWarnings("unchecked")
+    private Module loadModule(MavenProject p, Map<String, MavenProject> reactor, String configuration) throws Exception {
+        if ("pom".equals(p.getPackaging())) {
+            return null;
+        }
+        String own = getCompileConfiguration(p.getBuildPlugins());
+        if ((own == null) || !own.equals(configuration)) {
+            getLog().info(String.format("%s configures the plugin differently, not compiled in batch", p.getArtifactId()));
+            return null;
+        }
+        Module back = new Module();
+        back.project = p;
+        back.outputDir = normalize(new File(p.getBuild().getOutputDirectory()));
+        List<String> sourceRoots = new ArrayList<String>(p.getCompileSourceRoots());
+        String scalaSourceDir = normalize(new File(p.getBuild().getSourceDirectory(), "../scala")).getAbsolutePath();
+        if (!sourceRoots.contains(scalaSourceDir)) {
+            sourceRoots.add(scalaSourceDir);
+        }
+        List<Integer> sources = getSourceFiles(sourceRoots, false);
+        if (sources == null) {
+            return null;
+        }
+        back.index = SourceIndex.load(new File(back.outputDir + ".index"), SOURCE_PATHS);
+        boolean stale = false;
+        for (int id : sources) {
+            // every source is checked, so the index records the current state of all of them
+            stale = back.index.isStale(id) || stale;
+        }
+        String[] previous = back.outputDir.list();
+        if (!stale && !back.index.hasRemovedSources() && (previous != null) && (previous.length > 0)) {
+            back.upToDate = true;
+            addDependencies(p, reactor, back, new LinkedHashSet<Artifact>(), true, new HashSet<String>());
+            return back;
+        }
+        // the batch compiles every source of its modules
+        back.sources = sources;
+        if (back.sources.size() > batchMaxSources) {
+            return null;
+        }
+        boolean hasScala = false;
+        for (int id : back.sources) {
+            hasScala = hasScala || SOURCE_PATHS.getName(id).endsWith(".scala");
+        }
+        if (!hasScala) {
+            return null;
+        }
+
+        // the dependencies of the module and of the modules of the reactor it depends on, the latters being replaced by their output directory
+        Set<Artifact> external = new LinkedHashSet<Artifact>();
+        addDependencies(p, reactor, back, external, true, new HashSet<String>());
+        if (!external.isEmpty()) {
+            ArtifactResolutionResult result = resolver.resolveTransitively(external, p.getArtifact(), p.getManagedVersionMap(), localRepo, remoteRepos, metadataSource, new ScopeArtifactFilter(Artifact.SCOPE_COMPILE));
+            for (Artifact a : (Set<Artifact>) result.getArtifacts()) {
+                back.versions.put(a.getGroupId() + ":" + a.getArtifactId(), a.getVersion());
+                back.classpath.add(a.getFile().getAbsolutePath());
+            }
+        }
+        String libraryVersion = back.versions.get(SCALA_GROUPID + ":" + SCALA_LIBRARY_ARTIFACTID);
+        if ((libraryVersion != null) && !libraryVersion.equals(scalaVersion)) {
+            getLog().info(String.format("%s uses scala %s, not compiled in batch", p.getArtifactId(), libraryVersion));
+            return null;
+        }
+        return back;
+    }
+
+    /**
+     * @return the configuration of the plugin for its compile goal : the configuration of the plugin and of its
+     *         executions running compile, or null if the plugin is not in the list
+     */
+    @SuppressWarnings("unchecked")
+    private static String getCompileConfiguration(List plugins) {
+        for (Plugin plugin : (List<Plugin>) plugins) {
+            if (PLUGIN_GROUPID.equals(plugin.getGroupId()) && PLUGIN_ARTIFACTID.equals(plugin.getArtifactId())) {
+                StringBuilder back = new StringBuilder(String.valueOf(plugin.getConfiguration()));
+                for (PluginExecution e : (List<PluginExecution>) plugin.getExecutions()) {
+                    if (e.getGoals().contains("compile")) {
+                        back.append('\n').append(e.getConfiguration());
+                    }
+                }
+                return back.toString();
+            }
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void addDependencies(MavenProject p, Map<String, MavenProject> reactor, Module module, Set<Artifact> external, boolean direct, Set<String> visited) throws Exception {
+        for (Dependency d : (List<Dependency>) p.getDependencies()) {
+            String scope = (d.getScope() == null) ? Artifact.SCOPE_COMPILE : d.getScope();
+            boolean onClasspath = Artifact.SCOPE_COMPILE.equals(scope) || Artifact.SCOPE_SYSTEM.equals(scope) || (direct && Artifact.SCOPE_PROVIDED.equals(scope));
+            if (!onClasspath || (d.isOptional() && !direct)) {
+                continue;
+            }
+            String id = d.getGroupId() + ":" + d.getArtifactId();
+            MavenProject dependency = reactor.get(id);
+            if ((dependency != null) && dependency.getVersion().equals(d.getVersion())) {
+                module.reactorDependencies.add(id);
+                if (visited.add(id)) {
+                    addDependencies(dependency, reactor, module, external, false, visited);
+                }
+                continue;
+            }
+            Artifact a = factory.createDependencyArtifact(d.getGroupId(), d.getArtifactId(), VersionRange.createFromVersionSpec(d.getVersion()), d.getType(), d.getClassifier(), scope, d.isOptional());
+            if (Artifact.SCOPE_SYSTEM.equals(scope)) {
+                a.setFile(new File(d.getSystemPath()));
+            }
+            external.add(a);
+        }
+    }
+
+    /**
+     * @return true if the dependencies of the module have the same versions as the ones of the modules of the batch
+     */
+    private boolean isCompatible(List<Module> batch, Module module) {
+        for (Module m : batch) {
+            for (Map.Entry<String, String> e : module.versions.entrySet()) {
+                String version = m.versions.get(e.getKey());
+                if ((version != null) && !version.equals(e.getValue())) {
+                    getLog().debug(String.format("%s and %s depend on different versions of %s", m.project.getArtifactId(), module.project.getArtifactId(), e.getKey()));
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compiles the sources of the modules with a single scalac into a temporary directory, then moves the classfiles
+     * into the staging directory of the output of the module of their source, commits the output of each module, and
+     * records the compilation into the state of each module (as if the module was compiled by the compile goal).
+     */
+    private void compileBatch(List<Module> batch, Map<String, File> outputDirs) throws Exception {
+        Set<String> inBatch = new HashSet<String>();
+        List<Integer> files = new ArrayList<Integer>();
+        Map<Integer, Module> moduleOfSource = new HashMap<Integer, Module>();
+        StringBuilder names = new StringBuilder();
+        for (Module m : batch) {
+            inBatch.add(m.project.getGroupId() + ":" + m.project.getArtifactId());
+            files.addAll(m.sources);
+            for (int id : m.sources) {
+                moduleOfSource.put(id, m);
+            }
+            names.append((names.length() == 0) ? "" : ", ").append(m.project.getArtifactId());
+        }
+        Set<String> classpath = new LinkedHashSet<String>();
+        for (Module m : batch) {
+            for (String id : m.reactorDependencies) {
+                if (!inBatch.contains(id)) {
+                    classpath.add(outputDirs.get(id).getAbsolutePath());
+                }
+            }
+            classpath.addAll(m.classpath);
+        }
+
+        File batchDir = new File(project.getBuild().getDirectory(), "scala-batch");
+        FileUtils.deleteDirectory(batchDir);
+        batchDir.mkdirs();
+        getLog().info(String.format("Compiling %d source files of %s", files.size(), names));
+        long now = System.currentTimeMillis();
+        JavaMainCaller jcmd = getCompileCommand(files, batchDir, new ArrayList<String>(classpath));
+        jcmd.run(displayCmd, true);
+
+        List<File> classFiles = new ArrayList<File>();
+        DependencyGraph.findClassFiles(batchDir, 0, classFiles);
+        Map<File, Integer> sources = DependencyGraph.findSources(SOURCE_PATHS, files, classFiles);
+        // the previous classfiles of every module are replaced by the ones of the batch
+        Map<Module, StagedOutput> staged = new HashMap<Module, StagedOutput>();
+        for (Module m : batch) {
+            StagedOutput output = new StagedOutput(m.outputDir);
+            output.recover();
+            List<File> previous = new ArrayList<File>();
+            DependencyGraph.findClassFiles(m.outputDir, 0, previous);
+            output.begin(previous);
+            staged.put(m, output);
+        }
+        List<File> targets = new ArrayList<File>(classFiles.size());
+        int prefix = batchDir.getAbsolutePath().length() + 1;
+        try {
+            for (File f : classFiles) {
+                Integer source = sources.get(f);
+                if (source == null) {
+                    throw new MojoFailureException("no source found for " + f + " (compiled without debug info ?), compile the modules separately");
+                }
+                File target = new File(staged.get(moduleOfSource.get(source)).getStagingDir(), f.getAbsolutePath().substring(prefix));
+                target.getParentFile().mkdirs();
+                targets.add(target);
+            }
+            ParallelFileOperations.move(classFiles, targets);
+        } catch (Exception exc) {
+            for (StagedOutput output : staged.values()) {
+                output.rollback();
+            }
+            throw exc;
+        }
+        FileUtils.deleteDirectory(batchDir);
+
+        for (Module m : batch) {
+            StagedOutput output = staged.get(m);
+            DependencyGraph graph = DependencyGraph.load(new File(m.outputDir + ".deps"), SOURCE_PATHS);
+            graph.clear();
+            graph.recordCompilation(m.sources, Collections.<Integer>emptySet(), output.getStagingDir(), 0);
+            output.commit();
+            graph.save();
+            ApiFingerprints.publish(m.outputDir);
+            m.index.save();
+        }
+        // once every output is committed, as the modules of the batch are in the classpath of the others
+        for (Module m : batch) {
+            List<String> moduleClasspath = new ArrayList<String>();
+            for (String id : m.reactorDependencies) {
+                moduleClasspath.add(outputDirs.get(id).getAbsolutePath());
+            }
+            moduleClasspath.addAll(m.classpath);
+            ClasspathFingerprints fingerprints = new ClasspathFingerprints(new File(m.outputDir + ".classpath"));
+            fingerprints.update(moduleClasspath, m.outputDir);
+            fingerprints.save();
+        }
+        getLog().info(String.format("Compiled %d modules in %d ms", batch.size(), System.currentTimeMillis() - now));
+    }
+
+    @Override
+    protected File getOutputDir() throws Exception {
+        return new File(project.getBuild().getOutputDirectory());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    protected List<String> getClasspathElements() throws Exception {
+        return project.getCompileClasspathElements();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    protected List<String> getSourceDirectories() throws Exception {
+        return project.getCompileSourceRoots();
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2007 scala-tools.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+package org.scala_tools.maven;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.maven.model.Dependency;
+import org.codehaus.plexus.util.FileUtils;
+import org.scala_tools.maven.executions.JavaMainCaller;
+
+/**
+ * Checks that the main and test scala sources compile, without generating the classfiles : scalac stops after the
+ * typer phase (the errors are reported, nothing is written). The main and test sources are checked together by a
+ * single scalac (the resident compiler or the daemon when configured).
+ *
+ * @goal check
+ * @requiresDependencyResolution test
+ */
+public class ScalaCheckMojo extends ScalaCompilerSupport {
+
+    /**
+     * The output directory of the main classes (removed from the classpath).
+     *
+     * @parameter expression="${project.build.outputDirectory}"
+     */
+    protected File mainOutputDir;
+
+    /**
+     * The main directory containing scala source for compilation
+     *
+     * @parameter expression="${project.build.sourceDirectory}/../scala"
+     */
+    protected File mainSourceDir;
+
+    /**
+     * The output directory of the test classes (removed from the classpath).
+     *
+     * @parameter expression="${project.build.testOutputDirectory}"
+     */
+    protected File testOutputDir;
+
+    /**
+     * The directory containing test source for compilation
+     *
+     * @parameter expression="${project.build.testSourceDirectory}/../scala"
+     */
+    protected File testSourceDir;
+
+    @Override
+    protected void doExecute() throws Exception {
+        // the output directory should exist, but stays empty
+        File checkDir = getOutputDir();
+        List<Integer> files = getSourceFiles(getSourceDirectories(), false);
+        if (files == null) {
+            getLog().warn("No source files found.");
+            return;
+        }
+        checkDir.mkdirs();
+        try {
+            getLog().info(String.format("Checking %d source files", files.size()));
+            long start = System.currentTimeMillis();
+            JavaMainCaller jcmd = getCompileCommand(files, checkDir, getClasspathElements(), getStopOption());
+            jcmd.run(displayCmd, true);
+            getLog().info(String.format("Checked in %d ms", System.currentTimeMillis() - start));
+        } finally {
+            FileUtils.deleteDirectory(checkDir);
+        }
+    }
+
+    /**
+     * @return the option stopping scalac after the typer phase : before 2.9, -Ystop:&lt;phase&gt; stops before the
+     *         phase, so it names the phase following typer (superaccessors)
+     */
+    private String getStopOption() {
+        if (new VersionNumber(scalaVersion).compareTo(new VersionNumber("2.9.0")) >= 0) {
+            return "-Ystop-after:typer";
+        }
+        return "-Ystop:superaccessors";
+    }
+
+    @Override
+    protected File getOutputDir() throws Exception {
+        return new File(project.getBuild().getDirectory(), "scala-check");
+    }
+
+    /**
+     * @return the test classpath, without the output directories : the classes of a previous compilation are not
+     *         used, the sources are checked against each other
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    protected List<String> getClasspathElements() throws Exception {
+        List<String> back = new ArrayList<String>();
+        File main = normalize(mainOutputDir);
+        File test = normalize(testOutputDir);
+        for (String path : (List<String>) project.getTestClasspathElements()) {
+            File f = normalize(new File(path));
+            if (!f.equals(main) && !f.equals(test)) {
+                back.add(path);
+            }
+        }
+        return back;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    protected List<Dependency> getDependencies() {
+        return project.getTestDependencies();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    protected List<String> getSourceDirectories() throws Exception {
+        Set<String> back = new LinkedHashSet<String>(project.getCompileSourceRoots());
+        back.add(mainSourceDir.getCanonicalPath());
+        back.addAll(project.getTestCompileSourceRoots());
+        back.add(testSourceDir.getCanonicalPath());
+        return new ArrayList<String>(back);
+    }
+}
@@ -16,9 +16,20 @@
  package org.scala_tools.maven;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
 
 import org.apache.maven.model.Dependency;
+import org.apache.maven.project.MavenProjectHelper;
+import org.codehaus.plexus.util.IOUtil;
 
 /**
  * Compiles a directory of Scala source. Corresponds roughly to the compile goal
@@ -44,6 +55,15 @@ public class ScalaCompileMojo extends ScalaCompilerSupport {
      */
     protected File sourceDir;
 
+    /**
+     * Used to attach the jars of the classes compiled for crossScalaVersions.
+     *
+     * @component
+     * @required
+     * @readonly
+     */
+    protected MavenProjectHelper projectHelper;
+
     @SuppressWarnings("unchecked")
     protected List<String> getSourceDirectories() throws Exception {
     	List<String> sources = project.getCompileSourceRoots();
@@ -71,4 +91,49 @@ public class ScalaCompileMojo extends ScalaCompilerSupport {
     protected File getOutputDir() throws Exception {
         return outputDir.getAbsoluteFile();
     }
+
+    /**
+     * Attaches a jar of the classes compiled for the version, and of the resources of the project (the other files of
+     * outputDir), with the classifier scala_&lt;version&gt;. The jar is built during the compile phase : the resources
+     * processed after this phase are missing.
+     */
+    @Override
+    protected void crossCompiled(String version, File crossOutputDir) throws Exception {
+        String classifier = "scala_" + version;
+        File jar = new File(project.getBuild().getDirectory(), project.getBuild().getFinalName() + "-" + classifier + ".jar");
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().putValue("Scala-Version", version);
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(jar), manifest);
+        try {
+            addToJar(out, crossOutputDir, "", true);
+            addToJar(out, normalize(getOutputDir()), "", false);
+        } finally {
+            out.close();
+        }
+        projectHelper.attachArtifact(project, "jar", classifier, jar);
+        getLog().info(String.format("Attached %s for scala %s", jar.getName(), version));
+    }
+
+    private void addToJar(JarOutputStream out, File dir, String prefix, boolean classes) throws IOException {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            String name = prefix + child.getName();
+            if (child.isDirectory()) {
+                addToJar(out, child, name + "/", classes);
+            } else if ((classes == name.endsWith(".class")) && !JarFile.MANIFEST_NAME.equals(name)) {
+                out.putNextEntry(new JarEntry(name));
+                InputStream in = new FileInputStream(child);
+                try {
+                    IOUtil.copy(in, out);
+                } finally {
+                    IOUtil.close(in);
+                }
+                out.closeEntry();
+            }
+        }
+    }
 }
@@ -19,13 +19,55 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.plugin.MojoFailureException;
 import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.StringUtils;
+import org.scala_tools.maven.cache.BuildCache;
+import org.scala_tools.maven.cache.BuildCacheKey;
+import org.scala_tools.maven.cache.HttpBuildCache;
+import org.scala_tools.maven.cache.LocalBuildCache;
+import org.scala_tools.maven.cache.TieredBuildCache;
+import org.scala_tools.maven.executions.InProcessJavac;
 import org.scala_tools.maven.executions.JavaCommand;
 import org.scala_tools.maven.executions.JavaMainCaller;
+import org.scala_tools.maven.executions.OutOfMemoryDetector;
+import org.scala_tools.maven.executions.OutputListener;
+import org.scala_tools.maven.executions.ResidentScalaCommand;
+import org.scala_tools.maven.executions.ToolClassLoaderCache;
+import org.scala_tools.maven.incremental.ApiFingerprints;
+import org.scala_tools.maven.incremental.ClassFile;
+import org.scala_tools.maven.incremental.ClasspathFingerprints;
+import org.scala_tools.maven.incremental.CompileCosts;
+import org.scala_tools.maven.incremental.CompileMemory;
+import org.scala_tools.maven.incremental.CompilePlanner;
+import org.scala_tools.maven.incremental.DependencyGraph;
+import org.scala_tools.maven.incremental.Diagnostics;
+import org.scala_tools.maven.incremental.ImportScanner;
+import org.scala_tools.maven.incremental.ParallelFileOperations;
+import org.scala_tools.maven.incremental.PathTable;
+import org.scala_tools.maven.incremental.ScalaBuildManager;
+import org.scala_tools.maven.incremental.SourceIndex;
+import org.scala_tools.maven.incremental.StagedOutput;
 
 /**
  * Abstract parent of all Scala Mojo
@@ -44,6 +86,167 @@ public abstract class ScalaCompilerSupport extends ScalaMojoSupport {
      */
     protected boolean sendJavaToScalac = true;
     
+    /**
+     * Number of scalac processes allowed to run concurrently. Each process compiles a part of the sources
+     * that doesn't depend on the parts compiled at the same time, based on the dependencies recorded
+     * by the previous compilation. Used only if fork is true.
+     *
+     * @parameter expression="${maven.scala.compileThreads}" default-value="1"
+     */
+    protected int compileThreads = 1;
+
+    /**
+     * Maximum heap (in MB) of a scalac process. When the sources to compile are estimated to need more, they are
+     * split into shards compiled one after the other (dependencies first), each one with the classes of the previous
+     * shards in its classpath. The forked scalac processes run with -Xmx set to this value. 0 to compile the sources
+     * in a single scalac. Takes precedence over compileThreads.
+     *
+     * @parameter expression="${maven.scala.shardMemory}" default-value="0"
+     */
+    protected int shardMemory = 0;
+
+    /**
+     * When a forked scalac runs out of memory (OutOfMemoryError, or process killed by the system), compile again
+     * once : with twice the heap (up to maxCompileMemory), else in smaller shards. The settings that worked are stored
+     * in ~/.m2/scala-compile-memory and reused by the next builds of the module.
+     *
+     * @parameter expression="${maven.scala.retryOnOutOfMemory}" default-value="true"
+     */
+    protected boolean retryOnOutOfMemory = true;
+
+    /**
+     * Maximum heap (in MB) given to scalac when compiling again after an OutOfMemoryError.
+     *
+     * @parameter expression="${maven.scala.maxCompileMemory}" default-value="4096"
+     */
+    protected int maxCompileMemory = 4096;
+
+    /**
+     * Compiles with a compiler JVM started by the plugin and kept running between builds, to save the startup and
+     * the warm-up of the compiler. The daemon stops itself after daemonIdleTimeout seconds without request.
+     *
+     * @parameter expression="${maven.scala.daemon}" default-value="false"
+     */
+    protected boolean useDaemon = false;
+
+    /**
+     * Duration (in seconds) after which an unused compile daemon stops.
+     *
+     * @parameter expression="${maven.scala.daemon.idleTimeout}" default-value="3600"
+     */
+    protected int daemonIdleTimeout = 3600;
+
+    /**
+     * Compiles with scalac in resident mode (-Xresident), started once per set of options (classpath and output
+     * directory included) and reused by the next compilations of the build, including the cc loop.
+     * Ignored if useDaemon is true, or if a path to compile contains whitespace.
+     *
+     * @parameter expression="${maven.scala.resident}" default-value="false"
+     */
+    protected boolean useResident = false;
+
+    /**
+     * Compiles with the build manager of scalac (2.8.0 and later) : it tracks the dependencies between symbols,
+     * and recompiles only the sources affected by a change. The build manager is kept for the build (and the cc
+     * loop), and its state is saved next to the output directory. Ignored with older versions of scala.
+     *
+     * @parameter expression="${maven.scala.incremental}" default-value="false"
+     */
+    protected boolean incremental = false;
+
+    /**
+     * Compiles the java sources (sent to scalac, that only parses them) with the java compiler of the JDK
+     * (javax.tools), in the maven JVM : the java sources that don't depend on the scala sources to compile are compiled
+     * while scalac runs, the others once scalac wrote their classes. The maven-compiler-plugin then finds the classes
+     * up to date. Requires sendJavaToScalac, ignored if maven runs with a JRE.
+     *
+     * @parameter expression="${maven.scala.compileJava}" default-value="false"
+     */
+    protected boolean compileJava = false;
+
+    /**
+     * Options of javac, used if compileJava is true (eg: -source, -target, -encoding).
+     *
+     * @parameter
+     */
+    protected String[] javacArgs;
+
+    /**
+     * Reuses the classfiles of a previous compilation of the same inputs (sources, classpath, args, compiler plugins
+     * and version of scala), stored in a build cache shared by the projects and the builds of the machine. On a hit,
+     * the classfiles are copied into the output directory, and scalac is not run. Ignored by the cc goal.
+     *
+     * @parameter expression="${maven.scala.buildCache}" default-value="false"
+     */
+    protected boolean buildCache = false;
+
+    /**
+     * Directory of the local build cache (default: scala-build-cache, next to the local repository, in ~/.m2).
+     *
+     * @parameter expression="${maven.scala.buildCache.dir}"
+     */
+    protected File buildCacheDir;
+
+    /**
+     * Maximum size (in MB) of the classfiles stored in the local build cache, the least recently used entries
+     * are removed beyond.
+     *
+     * @parameter expression="${maven.scala.buildCache.maxSize}" default-value="1024"
+     */
+    protected int buildCacheMaxSize = 1024;
+
+    /**
+     * URL of a build cache shared over HTTP (by the developers and the CI of a team), used behind the local build
+     * cache : the entries are read with a GET, and written with a PUT, of <code>&lt;url&gt;/&lt;key&gt;.zip</code>.
+     *
+     * @parameter expression="${maven.scala.buildCache.url}"
+     */
+    protected String buildCacheUrl;
+
+    /**
+     * Upload the classfiles compiled locally to the shared build cache (false to only read it, ex: on the
+     * developers' machines when the CI populates the cache).
+     *
+     * @parameter expression="${maven.scala.buildCache.upload}" default-value="true"
+     */
+    protected boolean buildCacheUpload = true;
+
+    /**
+     * Timeout (in ms) of the connections to the shared build cache.
+     *
+     * @parameter expression="${maven.scala.buildCache.timeout}" default-value="5000"
+     */
+    protected int buildCacheTimeout = 5000;
+
+    /**
+     * Other versions of scala to compile the sources with (ex: 2.7.7,2.8.1), in addition to scalaVersion. Each version
+     * is compiled by its own forked scalac, at the same time as the compilation for scalaVersion, into
+     * &lt;outputDir&gt;-&lt;version&gt;, with the scala-library of the version. The artifacts of scala, and the
+     * dependencies and compilerPlugins suffixed by _&lt;scalaVersion&gt; (ex: specs_2.8.0), are replaced by their
+     * artifacts for the version (the build fails if they can't be resolved), the other dependencies are used as is.
+     * The compile goal attaches a jar of the classes of each version, with the classifier scala_&lt;version&gt;,
+     * during the compile phase (the jar is built even if the build stops before the package phase). Ignored by the
+     * cc goal.
+     *
+     * @parameter expression="${maven.scala.crossScalaVersions}"
+     */
+    protected String[] crossScalaVersions;
+
+    /** max duration (in milliseconds) the goal waits for its uploads to the build cache */
+    private static final long UPLOADS_TIMEOUT = 5L * 60 * 1000;
+
+    /** estimated heap (in bytes) used by scalac besides the sources to compile (compiler, classpath) */
+    private static final long SHARD_BASE_MEMORY = 256L * 1024 * 1024;
+
+    /** estimated heap (in bytes) used by scalac per byte of source to compile */
+    private static final int SHARD_MEMORY_PER_SOURCE_BYTE = 80;
+
+    /** paths of the sources found by the executions of the build (main, test, cc loop), shared by their scans */
+    protected static final PathTable SOURCE_PATHS = new PathTable();
+
+    /** the sources (path, date and size) of the last failed compilation of each output directory, in the cc loop */
+    private final Map<File, String> failedInLoop = new HashMap<File, String>();
+
     /**
      * A list of inclusion filters for the compiler.
      * ex :
@@ -89,17 +292,158 @@ public abstract class ScalaCompilerSupport extends ScalaMojoSupport {
                 getLog().debug(directory);
             }
         }
-        int nbFiles = compile(getSourceDirectories(), outputDir, getClasspathElements(), false);
-        switch (nbFiles) {
-            case -1:
-                getLog().warn("No source files found.");
-                break;
-            case 0:
-                getLog().info("Nothing to compile - all classes are up to date");;
-                break;
-            default:
-                break;
+        ExecutorService crossExecutor = null;
+        Map<String, Future<Object>> crossCompilations = Collections.emptyMap();
+        if ((crossScalaVersions != null) && (crossScalaVersions.length > 0)) {
+            crossExecutor = Executors.newCachedThreadPool();
+            crossCompilations = startCrossCompilations(crossExecutor, getSourceDirectories(), outputDir, getClasspathElements());
+        }
+        try {
+            int nbFiles = compile(getSourceDirectories(), outputDir, getClasspathElements(), false);
+            switch (nbFiles) {
+                case -1:
+                    getLog().warn("No source files found.");
+                    break;
+                case 0:
+                    getLog().info("Nothing to compile - all classes are up to date");;
+                    break;
+                default:
+                    break;
+            }
+            for (Map.Entry<String, Future<Object>> e : crossCompilations.entrySet()) {
+                try {
+                    if (e.getValue() != null) {
+                        e.getValue().get();
+                    }
+                } catch (ExecutionException exc) {
+                    throw new MojoFailureException("compilation for scala " + e.getKey() + " failed : " + exc.getCause().getMessage());
+                }
+                crossCompiled(e.getKey(), getCrossOutputDir(outputDir, e.getKey()));
+            }
+            if (buildCache && StringUtils.isNotEmpty(buildCacheUrl)) {
+                // the failures are reported by the goal which uploaded
+                HttpBuildCache.awaitUploads(UPLOADS_TIMEOUT, getLog());
+            }
+        } finally {
+            if (crossExecutor != null) {
+                // stops the compilations still running (the forked scalac are destroyed)
+                crossExecutor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Called when the classes for a version of crossScalaVersions are compiled (or up to date).
+     */
+    protected void crossCompiled(String version, File crossOutputDir) throws Exception {
+    }
+
+    /**
+     * @return the output directory of the classes compiled for another version of scala
+     */
+    protected File getCrossOutputDir(File outputDir, String version) {
+        return new File(outputDir.getParentFile(), outputDir.getName() + "-" + version);
+    }
+
+    /**
+     * Starts the compilation of the sources for each version of crossScalaVersions (other than scalaVersion), with a
+     * forked scalac, into &lt;outputDir&gt;-&lt;version&gt;. Every source of a version is compiled again when a source,
+     * or the classpath, changed (the dependencies between sources are only recorded for scalaVersion). The java sources
+     * are compiled by javac if compileJava is true.
+     *
+     * @return the running compilations by version (null if the classes are up to date)
+     */
+    private Map<String, Future<Object>> startCrossCompilations(ExecutorService executor, List<String> sourceRootDirs, File outputDir, List<String> classpathElements) throws Exception {
+        Map<String, Future<Object>> back = new LinkedHashMap<String, Future<Object>>();
+        for (String version : crossScalaVersions) {
+            version = version.trim();
+            if ((version.length() == 0) || version.equals(scalaVersion) || back.containsKey(version)) {
+                continue;
+            }
+            final File crossDir = getCrossOutputDir(outputDir, version);
+            final List<String> classpath = getCrossClasspath(classpathElements, version);
+            final SourceIndex index = SourceIndex.load(new File(crossDir + ".index"), SOURCE_PATHS);
+            final ClasspathFingerprints fingerprints = ClasspathFingerprints.load(new File(crossDir + ".classpath"));
+            if (!crossDir.exists() || (crossDir.list().length == 0)) {
+                index.clear();
+                fingerprints.clear();
+            }
+            List<Integer> files = getFilesToCompile(sourceRootDirs, false, index);
+            if (files == null) {
+                continue;
+            }
+            boolean changedClasspath = !fingerprints.update(classpath, crossDir).isEmpty();
+            if (files.isEmpty() && !index.hasRemovedSources() && !changedClasspath) {
+                getLog().info(String.format("Nothing to compile for scala %s - all classes are up to date", version));
+                back.put(version, null);
+                continue;
+            }
+            final List<Integer> all = new ArrayList<Integer>(index.getScanned());
+            final List<File> javaFiles = new ArrayList<File>();
+            for (int id : all) {
+                if (compileJava && isJavaFile(id)) {
+                    javaFiles.add(SOURCE_PATHS.getFile(id));
+                }
+            }
+            FileUtils.deleteDirectory(crossDir);
+            crossDir.mkdirs();
+            // commands are created in the current thread (artifact resolution is not thread safe)
+            final JavaMainCaller jcmd = getForkedScalaCommand(version);
+            addCompileArgs(jcmd, all, crossDir, classpath);
+            jcmd.setLogOnly(true);
+            getLog().info(String.format("Compiling %d source files to %s for scala %s", all.size(), crossDir.getAbsolutePath(), version));
+            back.put(version, executor.submit(new Callable<Object>() {
+                public Object call() throws Exception {
+                    jcmd.run(displayCmd, true);
+                    if (!javaFiles.isEmpty() && !new InProcessJavac(ScalaCompilerSupport.this, javacArgs).compile(javaFiles, classpath, crossDir, false)) {
+                        throw new MojoFailureException("javac reported errors");
+                    }
+                    index.save();
+                    fingerprints.save();
+                    return null;
+                }
+            }));
+        }
+        return back;
+    }
+
+    /**
+     * @return the classpath for another version of scala : the dependencies built for scalaVersion replaced by their
+     *         artifacts for the version (the artifacts of scala, and the artifacts suffixed by _&lt;scalaVersion&gt;,
+     *         see {@link #createCrossArtifact}), and the output directories compiled for the version (ex:
+     *         target/classes-2.8.1 for the tests) instead of the ones of scalaVersion. The other dependencies are
+     *         used as is : a scala library without the suffix must be binary compatible with the version.
+     */
+    private List<String> getCrossClasspath(List<String> classpathElements, String version) throws Exception {
+        Map<String, Artifact> artifacts = new HashMap<String, Artifact>();
+        Set<Artifact> projectArtifacts = project.getArtifacts();
+        for (Artifact artifact : projectArtifacts) {
+            if (artifact.getFile() != null) {
+                artifacts.put(artifact.getFile().getCanonicalPath(), artifact);
+            }
+        }
+        Set<String> back = new LinkedHashSet<String>();
+        addToClasspath(SCALA_GROUPID, SCALA_LIBRARY_ARTIFACTID, version, back, null);
+        for (String path : classpathElements) {
+            File f = new File(path);
+            if (f.isFile() && f.getName().startsWith(SCALA_LIBRARY_ARTIFACTID + "-")) {
+                continue;
+            }
+            Artifact artifact = f.isFile() ? artifacts.get(f.getCanonicalPath()) : null;
+            Artifact cross = (artifact == null) ? null : createCrossArtifact(artifact.getGroupId(), artifact.getArtifactId(), artifact.getVersion(), artifact.getType(), artifact.getClassifier(), version);
+            if (cross != null) {
+                try {
+                    addToClasspath(cross, back, null);
+                } catch (Exception exc) {
+                    throw new MojoFailureException(artifact.getId() + " is built for scala " + scalaVersion + ", "
+                        + cross.getId() + " (for scala " + version + ") can't be resolved : " + exc.getMessage());
+                }
+                continue;
+            }
+            File crossDir = getCrossOutputDir(f, version);
+            back.add(crossDir.isDirectory() ? crossDir.getAbsolutePath() : path);
         }
+        return new ArrayList<String>(back);
     }
 
     protected File normalize(File f) {
@@ -117,11 +461,35 @@ public abstract class ScalaCompilerSupport extends ScalaMojoSupport {
         return compile(Arrays.asList(sourceDir.getAbsolutePath()), outputDir, classpathElements, compileInLoop);
     }
 
-    protected List<File> getFilesToCompile(List<String> sourceRootDirs, boolean compilingInLoop, long lastCompileTime) {
+    /**
+     * @return the path ids (in {@link #SOURCE_PATHS}) of the sources changed since the last compilation, null if there
+     *         is no source
+     */
+    protected List<Integer> getFilesToCompile(List<String> sourceRootDirs, boolean compilingInLoop, SourceIndex index) throws Exception {
+       List<Integer> sources = getSourceFiles(sourceRootDirs, compilingInLoop);
+       if (sources == null) {
+           return null;
+       }
+
+       // filter uptodate (content changed since the last compilation)
+       List<Integer> files = new ArrayList<Integer>();
+       for (int id : sources) {
+           if (index.isStale(id)) {
+               files.add(id);
+           }
+       }
+       return files;
+   }
+
+    /**
+     * @return the path ids (in {@link #SOURCE_PATHS}) of every source (matching the includes and the excludes), without
+     *         reading them, null if there is no source
+     */
+    protected List<Integer> getSourceFiles(List<String> sourceRootDirs, boolean compilingInLoop) throws Exception {
     	//TODO - Rather than mutate, pass to the function!
        if(includes.isEmpty()) {
     	   includes.add("**/*.scala");
-    	   if(sendJavaToScalac && !compilingInLoop && isJavaSupportedByCompiler() ) {
+    	   if(sendJavaToScalac && (!compilingInLoop || compileJava) && isJavaSupportedByCompiler() ) {
     		   includes.add("**/*.java");
     	   }
        }
@@ -144,56 +512,1016 @@ public abstract class ScalaCompilerSupport extends ScalaMojoSupport {
        
        
        
-	   List<String> scalaSourceFiles = findSourceWithFilters(sourceRootDirs);
-       if (scalaSourceFiles.size() == 0) {
+	   int[] scalaSourceFiles = findSourceWithFilters(sourceRootDirs);
+       if (scalaSourceFiles.length == 0) {
            return null;
        }
-
-       // filter uptodate
-       ArrayList<File> files = new ArrayList<File>(scalaSourceFiles.size());
-       for (String x : scalaSourceFiles) {
-           File f = new File(x);
-           if (f.lastModified() >= lastCompileTime) {
-               files.add(f);
-           }
+       List<Integer> back = new ArrayList<Integer>(scalaSourceFiles.length);
+       for (int id : scalaSourceFiles) {
+           back.add(id);
        }
-       return files;	   
+       return back;
    }
     
    protected int compile(List<String> sourceRootDirs, File outputDir, List<String> classpathElements, boolean compileInLoop) throws Exception, InterruptedException {
-       final File lastCompileAtFile = new File(outputDir + ".timestamp");
-       long lastCompileAt = -1;
-       if (lastCompileAtFile.exists() && outputDir.exists() && (outputDir.list().length > 0)) {
-           lastCompileAt = lastCompileAtFile.lastModified();
+       SourceIndex index = SourceIndex.load(new File(outputDir + ".index"), SOURCE_PATHS);
+       DependencyGraph graph = DependencyGraph.load(new File(outputDir + ".deps"), SOURCE_PATHS);
+       ClasspathFingerprints fingerprints = ClasspathFingerprints.load(new File(outputDir + ".classpath"));
+       Diagnostics diagnostics = Diagnostics.load(new File(outputDir + ".diagnostics"));
+       // the sources of an interrupted compilation are still newer than the index, so they will be compiled again
+       if (new StagedOutput(outputDir).recover()) {
+           getLog().info("Rolled back the output of an interrupted compilation");
+       }
+       if (!outputDir.exists() || (outputDir.list().length == 0)) {
+           index.clear();
+           graph.clear();
+           fingerprints.clear();
        }
 
-	   List<File> files = getFilesToCompile(sourceRootDirs, compileInLoop, lastCompileAt);
+	   List<Integer> files = getFilesToCompile(sourceRootDirs, compileInLoop, index);
 	   
        if (files == null) {
            return -1;
        }
+       String failedKey = null;
+       if (compileInLoop) {
+           // the compilation failed, and the sources didn't change since : wait for a fix
+           StringBuilder key = new StringBuilder();
+           for (int id : files) {
+               File f = SOURCE_PATHS.getFile(id);
+               key.append(f.getPath()).append(':').append(f.lastModified()).append(':').append(f.length()).append('\n');
+           }
+           failedKey = key.toString();
+           if (failedKey.equals(failedInLoop.get(outputDir))) {
+               return 0;
+           }
+       }
+
+       // sources referencing classes of the classpath changed since the last compilation should be recompiled
+       Set<String> changedClasses = fingerprints.update(classpathElements, outputDir);
+       if (!changedClasses.isEmpty()) {
+           Set<Integer> referencing = graph.getSourcesReferencing(changedClasses);
+           referencing.retainAll(index.getScanned());
+           referencing.removeAll(files);
+           if (!referencing.isEmpty()) {
+               getLog().info(String.format("%d source files reference %d changed classes of the classpath", referencing.size(), changedClasses.size()));
+               files.addAll(referencing);
+           }
+       }
+
+       Set<Integer> removed = graph.getRemovedSources(index.getScanned());
+
+       // only java sources changed : compile them with javac, then the sources using classes whose API changed
+       int nbJavaCompiled = 0;
+       Set<Integer> compiledWithJavac = new HashSet<Integer>();
+       while (isJavaOnly(files, removed, graph)) {
+           List<Integer> dependents = compileJavaOnly(files, removed, index, graph, outputDir, classpathElements, compileInLoop);
+           nbJavaCompiled += files.size();
+           compiledWithJavac.addAll(files);
+           files = new ArrayList<Integer>(dependents);
+           files.removeAll(compiledWithJavac);
+           removed = new HashSet<Integer>();
+       }
+       if ((nbJavaCompiled > 0) && files.isEmpty()) {
+           graph.save();
+           ApiFingerprints.publish(outputDir);
+           index.save();
+           fingerprints.save();
+           replayDiagnostics(diagnostics, index, compiledWithJavac, null, compileInLoop);
+           return nbJavaCompiled;
+       }
+
+       // the same inputs could have been compiled before
+       String cacheKey = null;
+       if (buildCache && !compileInLoop && !(files.isEmpty() && removed.isEmpty())) {
+           cacheKey = getBuildCacheKey(index, fingerprints, outputDir);
+           if (restoreFromBuildCache(cacheKey, index, graph, removed, outputDir)) {
+               ApiFingerprints.publish(outputDir);
+               index.save();
+               fingerprints.save();
+               replayDiagnostics(diagnostics, index, files, null, compileInLoop);
+               return files.size() + nbJavaCompiled;
+           }
+       }
+
+       // sources depending on changed or removed sources should be recompiled too
+       if (incremental) {
+           Integer nbCompiled = compileWithBuildManager(files, removed, index, graph, fingerprints, outputDir, classpathElements, failedKey, compileInLoop);
+           if (nbCompiled != null) {
+               storeInBuildCache(cacheKey, index, graph, outputDir);
+               replayDiagnostics(diagnostics, index, files, null, compileInLoop);
+               return nbCompiled + nbJavaCompiled;
+           }
+       }
+       Set<Integer> changed = new HashSet<Integer>(removed);
+       changed.addAll(files);
+       Set<Integer> invalidated = graph.getInvalidatedSources(changed);
+       invalidated.retainAll(index.getScanned());
+       invalidated.removeAll(changed);
+       if (!invalidated.isEmpty()) {
+           getLog().info(String.format("%d source files depend on changed source files", invalidated.size()));
+           files.addAll(invalidated);
+       }
+
+       if (files.size() == 0) {
+           // keep the index in sync with the date of unchanged (touched) sources
+           if (!removed.isEmpty()) {
+               ParallelFileOperations.delete(graph.getProductFiles(removed, outputDir));
+               graph.recordCompilation(files, removed, outputDir, Long.MAX_VALUE);
+               graph.save();
+           }
+           if (!removed.isEmpty() || !ApiFingerprints.getFile(outputDir).exists()) {
+               ApiFingerprints.publish(outputDir);
+           }
+           index.save();
+           fingerprints.save();
+           replayDiagnostics(diagnostics, index, files, null, compileInLoop);
+           return 0;
+       }
+
+       // move the classfiles of removed sources and of sources to recompile aside, so the output matches a clean
+       // build, and compile into a staging directory, committed into outputDir when the compilation succeeds
+       Set<Integer> toClean = new HashSet<Integer>(removed);
+       toClean.addAll(files);
+       StagedOutput staged = new StagedOutput(outputDir);
+       staged.begin(graph.getProductFiles(toClean, outputDir));
+       List<String> classpath = new ArrayList<String>(classpathElements);
+       if (!classpath.contains(outputDir.getAbsolutePath())) {
+           classpath.add(0, outputDir.getAbsolutePath());
+       }
 
        if (!compileInLoop) {
            getLog().info(String.format("Compiling %d source files to %s", files.size(), outputDir.getAbsolutePath()));
        }
        long now = System.currentTimeMillis();
-       JavaMainCaller jcmd = getScalaCommand();
+       CompileCosts costs = CompileCosts.load(new File(outputDir + ".costs"));
+       CompileMemory memory = CompileMemory.load(getCompileMemoryFile(outputDir));
+       Diagnostics.Collector collector = new Diagnostics.Collector(project.getBasedir());
+       if (compileInLoop) {
+           for (int id : files) {
+               getLog().info(String.format("%tR compiling %s", now, SOURCE_PATHS.getName(id)));
+           }
+       }
+       boolean succeeded;
+       try {
+           succeeded = compileScalaAndJava(files, graph, costs, staged, classpath, sourceRootDirs, memory, collector, compileInLoop);
+           if (succeeded) {
+               graph.recordCompilation(files, removed, staged.getStagingDir(), 0);
+           }
+       } catch (Exception exc) {
+           staged.rollback();
+           throw exc;
+       }
+       if (!succeeded) {
+           // errors in the cc loop : keep the output and the state of the last successful compilation, so the
+           // sources (and their dependents) are compiled again once fixed
+           staged.rollback();
+           failedInLoop.put(outputDir, failedKey);
+           return files.size() + nbJavaCompiled;
+       }
+       failedInLoop.remove(outputDir);
+       int nbUnchanged = staged.commit();
+       if (getLog().isDebugEnabled()) {
+           getLog().debug(String.format("%d classfiles unchanged by the compilation", nbUnchanged));
+       }
+       costs.retainAll(toPaths(index.getScanned()));
+       costs.save();
+       graph.save();
+       ApiFingerprints.publish(outputDir);
+       storeInBuildCache(cacheKey, index, graph, outputDir);
+       index.save();
+       fingerprints.save();
+       replayDiagnostics(diagnostics, index, files, collector, compileInLoop);
+       return files.size() + nbJavaCompiled;
+   }
+
+   /**
+    * Records the messages reported by scalac for the compiled sources, and logs the messages reported by the previous
+    * compilations of the other sources (not in the cc loop, where they were already displayed).
+    *
+    * @param collector the messages of the compilation, null if the sources were not compiled by scalac
+    */
+   private void replayDiagnostics(Diagnostics diagnostics, SourceIndex index, Collection<Integer> compiled, Diagnostics.Collector collector, boolean compileInLoop) throws IOException {
+       List<String> scanned = toPaths(index.getScanned());
+       diagnostics.record(toFiles(compiled), collector);
+       diagnostics.retainAll(scanned);
+       if (!compileInLoop) {
+           Set<String> skipped = new HashSet<String>(toPaths(compiled));
+           List<String> lines = new ArrayList<String>();
+           int nbSources = 0;
+           for (String path : new TreeSet<String>(scanned)) {
+               List<String> messages = diagnostics.getMessages(path);
+               if (!skipped.contains(path) && !messages.isEmpty()) {
+                   lines.addAll(messages);
+                   nbSources++;
+               }
+           }
+           if (!lines.isEmpty()) {
+               getLog().warn(String.format("%d messages of %d unchanged source files (reported by previous compilations) :", Diagnostics.count(lines), nbSources));
+               for (String line : lines) {
+                   getLog().warn(line);
+               }
+           }
+       }
+       diagnostics.save();
+   }
+
+   /**
+    * @return the build cache to use, if buildCache is true
+    */
+   protected BuildCache getBuildCache() throws Exception {
+       File dir = buildCacheDir;
+       if (dir == null) {
+           dir = new File(new File(localRepo.getBasedir()).getParentFile(), "scala-build-cache");
+       }
+       BuildCache back = new LocalBuildCache(dir, buildCacheMaxSize * 1024L * 1024L);
+       if (StringUtils.isNotEmpty(buildCacheUrl)) {
+           back = new TieredBuildCache(back, new HttpBuildCache(buildCacheUrl, buildCacheTimeout, buildCacheUpload, getLog()));
+       }
+       return back;
+   }
+
+   /**
+    * @return the key of the compilation in the build cache : a digest of the content of the sources (and of their
+    *         path in the project), of the classpath, of the options, of the compiler plugins and of the version of scala
+    */
+   private String getBuildCacheKey(SourceIndex index, ClasspathFingerprints fingerprints, File outputDir) throws Exception {
+       BuildCacheKey key = new BuildCacheKey();
+       key.add("scalaVersion", scalaVersion);
+       key.add("args", (args == null) ? "" : Arrays.asList(args).toString());
+       List<String> plugins = new ArrayList<String>();
+       for (String plugin : getCompilerPluginInfo().plugin_jars) {
+           plugins.add(new File(plugin).getName());
+       }
+       Collections.sort(plugins);
+       key.add("plugins", plugins.toString());
+       key.add("compileJava", String.valueOf(compileJava));
+       if (compileJava) {
+           key.add("javacArgs", (javacArgs == null) ? "" : Arrays.asList(javacArgs).toString());
+       }
+       key.add("outputDir", getProjectRelativePath(outputDir.getAbsolutePath()));
+       key.add("classpath", fingerprints.getDigest());
+       List<String> sources = toPaths(index.getScanned());
+       Collections.sort(sources);
+       for (String source : sources) {
+           key.addSource(getProjectRelativePath(source), new File(source));
+       }
+       return key.toString();
+   }
+
+   private String getProjectRelativePath(String path) {
+       String basedir = project.getBasedir().getAbsolutePath() + File.separator;
+       if (path.startsWith(basedir)) {
+           path = path.substring(basedir.length());
+       }
+       return path.replace(File.separatorChar, '/');
+   }
+
+   /**
+    * Replaces the classfiles of the sources by the ones of the entry of the build cache, and records them.
+    * The entry is restored into a staging directory, committed into outputDir : the classfiles identical to the
+    * restored ones keep their date.
+    *
+    * @return true if the entry was found
+    */
+   private boolean restoreFromBuildCache(String cacheKey, SourceIndex index, DependencyGraph graph, Set<Integer> removed, File outputDir) throws Exception {
+       Set<Integer> toClean = new HashSet<Integer>(removed);
+       toClean.addAll(index.getScanned());
+       StagedOutput staged = new StagedOutput(outputDir);
+       staged.begin(graph.getProductFiles(toClean, outputDir));
+       List<File> restored;
+       try {
+           restored = getBuildCache().restore(cacheKey, staged.getStagingDir());
+           if (restored != null) {
+               graph.recordCompilation(index.getScanned(), removed, staged.getStagingDir(), 0);
+           }
+       } catch (IOException exc) {
+           staged.rollback();
+           getLog().warn("can't restore the classfiles from the build cache (" + exc.getMessage() + ")");
+           return false;
+       } catch (Exception exc) {
+           staged.rollback();
+           throw exc;
+       }
+       if (restored == null) {
+           staged.rollback();
+           return false;
+       }
+       staged.commit();
+       graph.save();
+       getLog().info(String.format("Restored %d classfiles from the build cache (%s)", restored.size(), cacheKey));
+       return true;
+   }
+
+   private void storeInBuildCache(String cacheKey, SourceIndex index, DependencyGraph graph, File outputDir) {
+       if (cacheKey == null) {
+           return;
+       }
+       try {
+           getBuildCache().store(cacheKey, outputDir, graph.getProductFiles(index.getScanned(), outputDir));
+       } catch (Exception exc) {
+           getLog().warn("can't store the classfiles into the build cache (" + exc.getMessage() + ")");
+       }
+   }
+
+   /**
+    * @return true if the files to compile are java files (and the removed files too), and their previous classes
+    *         are known, so they could be compiled with javac only
+    */
+   boolean isJavaOnly(List<Integer> files, Set<Integer> removed, DependencyGraph graph) {
+       if (!compileJava || files.isEmpty()) {
+           return false;
+       }
+       for (int id : files) {
+           if (!isJavaFile(id)) {
+               return false;
+           }
+       }
+       for (int id : removed) {
+           if (!isJavaFile(id)) {
+               return false;
+           }
+       }
+       return graph.containsAll(files) && InProcessJavac.isAvailable();
+   }
+
+   /**
+    * Compiles java files with javac, without scalac, and records their classes in the graph.
+    *
+    * @return the sources referencing the classes whose API changed (or were removed), to compile next
+    */
+   List<Integer> compileJavaOnly(List<Integer> files, Set<Integer> removed, SourceIndex index, DependencyGraph graph, File outputDir, List<String> classpathElements, boolean compileInLoop) throws Exception {
+       Set<Integer> sources = new HashSet<Integer>(files);
+       Set<Integer> toClean = new HashSet<Integer>(sources);
+       toClean.addAll(removed);
+       Map<String, Long> before = getApiHashes(graph, toClean, outputDir);
+       ParallelFileOperations.delete(graph.getProductFiles(toClean, outputDir));
+
+       long now = System.currentTimeMillis();
+       if (compileInLoop) {
+           for (int id : files) {
+               getLog().info(String.format("%tR compiling %s", now, SOURCE_PATHS.getName(id)));
+           }
+       } else {
+           getLog().info(String.format("Compiling %d java source files with javac to %s", files.size(), outputDir.getAbsolutePath()));
+       }
+       if (!new InProcessJavac(this, javacArgs).compile(toFiles(files), classpathElements, outputDir, false)) {
+           if (!compileInLoop) {
+               throw new MojoFailureException("javac reported errors");
+           }
+           graph.recordCompilation(files, removed, outputDir, now - (now % 1000));
+           return new ArrayList<Integer>();
+       }
+       // some filesystems only store the date of files with a precision of one second
+       graph.recordCompilation(files, removed, outputDir, now - (now % 1000));
+       Map<String, Long> after = getApiHashes(graph, sources, outputDir);
+
+       Set<String> changedClasses = new HashSet<String>();
+       for (Map.Entry<String, Long> e : before.entrySet()) {
+           if (!e.getValue().equals(after.get(e.getKey()))) {
+               changedClasses.add(e.getKey());
+           }
+       }
+       for (String className : after.keySet()) {
+           if (!before.containsKey(className)) {
+               changedClasses.add(className);
+           }
+       }
+       List<Integer> back = new ArrayList<Integer>();
+       if (changedClasses.isEmpty()) {
+           return back;
+       }
+       Set<Integer> referencing = getSourcesReferencing(changedClasses, graph, outputDir);
+       referencing.retainAll(index.getScanned());
+       referencing.removeAll(sources);
+       if (!referencing.isEmpty()) {
+           getLog().info(String.format("%d source files reference java classes whose API changed", referencing.size()));
+           back.addAll(referencing);
+       }
+       return back;
+   }
+
+   /**
+    * @return the hashes of the API of the classes (in outputDir) produced by the sources, by class name
+    */
+   private static Map<String, Long> getApiHashes(DependencyGraph graph, Collection<Integer> sources, File outputDir) throws IOException {
+       Map<String, Long> back = new HashMap<String, Long>();
+       for (int source : sources) {
+           for (String className : graph.getProducts(source)) {
+               File f = new File(outputDir, className.replace('/', File.separatorChar) + ".class");
+               if (f.exists()) {
+                   back.put(className, ApiFingerprints.hash(ClassFile.read(f)));
+               }
+           }
+       }
+       return back;
+   }
+
+   /**
+    * @return the sources referencing the classes, or their subclasses (that inherit the changes), added to classNames
+    */
+   private static Set<Integer> getSourcesReferencing(Set<String> classNames, DependencyGraph graph, File outputDir) throws IOException {
+       Set<Integer> back = new HashSet<Integer>();
+       Set<String> toVisit = new HashSet<String>(classNames);
+       while (!toVisit.isEmpty()) {
+           Set<Integer> sources = graph.getSourcesReferencing(toVisit);
+           sources.removeAll(back);
+           back.addAll(sources);
+           toVisit = new HashSet<String>();
+           for (int source : sources) {
+               for (String className : graph.getProducts(source)) {
+                   File f = new File(outputDir, className.replace('/', File.separatorChar) + ".class");
+                   if (classNames.contains(className) || !f.exists()) {
+                       continue;
+                   }
+                   ClassFile cf = ClassFile.read(f);
+                   boolean subclass = classNames.contains(cf.superName);
+                   for (String i : cf.interfaces) {
+                       subclass = subclass || classNames.contains(i);
+                   }
+                   if (subclass) {
+                       classNames.add(className);
+                       toVisit.add(className);
+                   }
+               }
+           }
+       }
+       return back;
+   }
+
+   /**
+    * Compiles the changed sources, and the sources affected by the changes, with the build manager of scalac.
+    *
+    * @param failedKey the sources to compile in the cc loop, recorded if the compilation fails
+    * @return the number of recompiled files, or null if the build manager can't be used
+    */
+   private Integer compileWithBuildManager(List<Integer> files, Set<Integer> removed, SourceIndex index, DependencyGraph graph, ClasspathFingerprints fingerprints, File outputDir, List<String> classpathElements, String failedKey, boolean compileInLoop) throws Exception {
+       if (new VersionNumber(scalaVersion).compareTo(new VersionNumber("2.8.0")) < 0) {
+           if (!compileInLoop) {
+               getLog().info("incremental mode requires scala 2.8.0 or later");
+           }
+           return null;
+       }
+       if (files.isEmpty() && removed.isEmpty()) {
+           index.save();
+           fingerprints.save();
+           return 0;
+       }
+       List<String> options = new ArrayList<String>();
+       if (args != null) {
+           options.addAll(Arrays.asList(args));
+       }
+       for (String plugin : getCompilerPluginInfo().plugin_jars) {
+           options.add("-Xplugin:" + plugin);
+       }
+       // the manager writes into the staging directory, and reads the classes of the other sources from outputDir
+       List<String> classpath = new ArrayList<String>(classpathElements);
+       if (!classpath.contains(outputDir.getAbsolutePath())) {
+           classpath.add(0, outputDir.getAbsolutePath());
+       }
+       StagedOutput staged = new StagedOutput(outputDir);
+       options.add("-classpath");
+       options.add(JavaCommand.toMultiPath(classpath));
+       options.add("-d");
+       options.add(staged.getStagingDir().getAbsolutePath());
+       Set<Integer> toClean = new HashSet<Integer>(removed);
+       toClean.addAll(files);
+       staged.begin(graph.getProductFiles(toClean, outputDir));
+
+       long now = System.currentTimeMillis();
+       boolean succeeded;
+       Set<Integer> recompiled;
+       ClassLoader cl = acquireCompilerClassLoader();
+       try {
+           ScalaBuildManager manager = ScalaBuildManager.get(cl, options, new File(outputDir + ".scala-deps"));
+           succeeded = manager.update(toFiles(files), toFiles(removed), toFiles(index.getScanned()));
+           recompiled = DependencyGraph.findCompiledSources(SOURCE_PATHS, index.getScanned(), staged.getStagingDir(), 0);
+           if (succeeded) {
+               // the manager also recompiled sources depending on the changed ones : their classfiles are replaced
+               staged.setAside(graph.getProductFiles(recompiled, outputDir));
+               graph.recordCompilation(recompiled, removed, staged.getStagingDir(), 0);
+           }
+       } catch (ClassNotFoundException exc) {
+           staged.rollback();
+           getLog().warn("the build manager of scala " + scalaVersion + " is not supported (" + exc.getMessage() + ")");
+           return null;
+       } catch (NoSuchMethodException exc) {
+           staged.rollback();
+           getLog().warn("the build manager of scala " + scalaVersion + " is not supported (" + exc.getMessage() + ")");
+           return null;
+       } catch (Exception exc) {
+           staged.rollback();
+           throw exc;
+       } finally {
+           ToolClassLoaderCache.release(cl);
+       }
+       getLog().info(String.format("Recompiled %d source files to %s", recompiled.size(), outputDir.getAbsolutePath()));
+       for (int id : recompiled) {
+           getLog().info(String.format("%tR recompiled %s", now, SOURCE_PATHS.getName(id)));
+       }
+       if (!succeeded) {
+           // keep the output of the last successful compilation
+           staged.rollback();
+           if (!compileInLoop) {
+               throw new MojoFailureException("compilation failed");
+           }
+           failedInLoop.put(outputDir, failedKey);
+           return recompiled.size();
+       }
+       failedInLoop.remove(outputDir);
+       staged.commit();
+       graph.save();
+       ApiFingerprints.publish(outputDir);
+       index.save();
+       fingerprints.save();
+       return recompiled.size();
+   }
+
+   /**
+    * @param files the path ids (in {@link #SOURCE_PATHS}) of the sources to compile
+    */
+   protected JavaMainCaller getCompileCommand(List<Integer> files, File outputDir, List<String> classpathElements, String... options) throws Exception {
+       if (useResident && !useDaemon) {
+           ResidentScalaCommand jcmd = getResidentScalaCommand();
+           addCompileArgs(jcmd, files, outputDir, classpathElements, options);
+           if (jcmd.canRun()) {
+               return jcmd;
+           }
+           getLog().info("path with whitespace, can't use the resident compiler");
+       }
+       JavaMainCaller jcmd = useDaemon ? getDaemonScalaCommand(daemonIdleTimeout) : getScalaCommand();
+       addCompileArgs(jcmd, files, outputDir, classpathElements, options);
+       return jcmd;
+   }
+
+   /**
+    * Adds the options and the files to compile, the files last (the resident compiler reads the files to compile
+    * from the end of the arguments).
+    */
+   private void addCompileArgs(JavaMainCaller jcmd, List<Integer> files, File outputDir, List<String> classpathElements, String... options) {
        jcmd.addArgs("-classpath", JavaCommand.toMultiPath(classpathElements));
        jcmd.addArgs("-d", outputDir.getAbsolutePath());
+       jcmd.addArgs(options);
        //jcmd.addArgs("-sourcepath", sourceDir.getAbsolutePath());
-       for (File f : files) {
-           jcmd.addArgs(f.getAbsolutePath());
-           if (compileInLoop) {
-               getLog().info(String.format("%tR compiling %s", now, f.getName()));
+       // the sources are written relative to the project in the arg files, the shorter the faster to read
+       jcmd.setWorkingDirectory(project.getBasedir());
+       jcmd.addSources(SOURCE_PATHS, files);
+   }
+
+   /**
+    * Compiles the files with scalac, and the java files with javac if compileJava is true. The java files that don't
+    * depend (according to the dependencies recorded by the previous compilation) on the scala files are compiled at
+    * the same time as scalac runs, the other ones after.
+    *
+    * @param staged the output, the compilers write into its staging directory
+    * @return false if scalac or javac reported errors in the cc loop (else they are thrown)
+    */
+   private boolean compileScalaAndJava(List<Integer> files, DependencyGraph graph, CompileCosts costs, StagedOutput staged, final List<String> classpathElements, List<String> sourceRootDirs, CompileMemory memory, Diagnostics.Collector collector, boolean compileInLoop) throws Exception {
+       final File outputDir = staged.getStagingDir();
+       List<Integer> javaFiles = new ArrayList<Integer>();
+       if (compileJava) {
+           for (int id : files) {
+               if (isJavaFile(id)) {
+                   javaFiles.add(id);
+               }
+           }
+           if (!javaFiles.isEmpty() && !InProcessJavac.isAvailable()) {
+               getLog().warn("no java compiler available (maven runs with a JRE ?), java sources are not compiled");
+               javaFiles.clear();
            }
        }
-       jcmd.run(displayCmd, !compileInLoop);
-       if (lastCompileAtFile.exists()) {
-           lastCompileAtFile.setLastModified(now);
-       } else {
-           FileUtils.fileWrite(lastCompileAtFile.getAbsolutePath(), ".");
+       final InProcessJavac javac = javaFiles.isEmpty() ? null : new InProcessJavac(this, javacArgs);
+       final List<Integer> javaFirst = getIndependentJavaFiles(javaFiles, files, graph);
+       final List<Integer> javaLater = new ArrayList<Integer>(javaFiles);
+       javaLater.removeAll(javaFirst);
+       ExecutorService javacExecutor = null;
+       Future<Boolean> early = null;
+       if (!javaFirst.isEmpty()) {
+           getLog().info(String.format("Compiling %d java source files with javac, while scalac runs", javaFirst.size()));
+           javacExecutor = Executors.newSingleThreadExecutor();
+           early = javacExecutor.submit(new Callable<Boolean>() {
+               public Boolean call() throws Exception {
+                   return javac.compile(toFiles(javaFirst), classpathElements, outputDir, true);
+               }
+           });
+       }
+       final Future<Boolean> running = early;
+       Callable<Void> beforeRetry = new Callable<Void>() {
+           public Void call() throws Exception {
+               // javac writes into the staging directory too : its classes are dropped, compile them after scalac
+               if (running != null) {
+                   try {
+                       running.get();
+                   } catch (ExecutionException exc) {
+                       getLog().debug(exc.getCause());
+                   }
+                   javaLater.addAll(javaFirst);
+               }
+               return null;
+           }
+       };
+       boolean compiled;
+       try {
+           compiled = compileScala(files, graph, costs, staged, classpathElements, sourceRootDirs, memory, collector, beforeRetry, compileInLoop);
+       } finally {
+           if (javacExecutor != null) {
+               javacExecutor.shutdown();
+           }
+       }
+       if ((early != null) && !javaLater.containsAll(javaFirst)) {
+           boolean succeeded;
+           try {
+               succeeded = early.get();
+           } catch (ExecutionException exc) {
+               getLog().debug(exc.getCause());
+               succeeded = false;
+           }
+           if (!succeeded) {
+               // the dependencies of the java files changed, they need classes written by scalac
+               getLog().info("javac failed before the end of scalac, retry");
+               javaLater.addAll(javaFirst);
+           }
+       }
+       if (!compiled) {
+           return false;
+       }
+       if (!javaLater.isEmpty()) {
+           getLog().info(String.format("Compiling %d java source files with javac", javaLater.size()));
+           if (!javac.compile(toFiles(javaLater), classpathElements, outputDir, false)) {
+               if (!compileInLoop) {
+                   throw new MojoFailureException("javac reported errors");
+               }
+               return false;
+           }
+       }
+       return true;
+   }
+
+   /**
+    * Compiles the files with scalac. When a forked scalac runs out of memory, compiles again once with twice the heap
+    * (up to maxCompileMemory), or in shards when the heap can't grow or the system killed the process, and remembers
+    * the settings that worked for the next builds. The partial output of the failed scalac is dropped before the retry.
+    *
+    * @param beforeRetry called before the staging directory is cleared for the retry
+    * @return false if scalac reported errors in the cc loop (else they are thrown)
+    */
+   private boolean compileScala(List<Integer> files, DependencyGraph graph, CompileCosts costs, StagedOutput staged, List<String> classpathElements, List<String> sourceRootDirs, CompileMemory memory, Diagnostics.Collector collector, Callable<Void> beforeRetry, boolean compileInLoop) throws Exception {
+       File outputDir = staged.getStagingDir();
+       int heap = memory.getHeap();
+       long shardBudget = memory.getShardBudget();
+       if (shardMemory > 0) {
+           heap = Math.max(heap, shardMemory);
+           long configured = getShardBudget(shardMemory);
+           shardBudget = (shardBudget > 0) ? Math.min(shardBudget, configured) : configured;
        }
-       return files.size();
+       OutOfMemoryDetector oom = new OutOfMemoryDetector();
+       try {
+           return runScalac(files, graph, costs, outputDir, classpathElements, sourceRootDirs, heap, shardBudget, oom, collector, compileInLoop);
+       } catch (Exception exc) {
+           if (!retryOnOutOfMemory || !fork || compileInLoop || !oom.isDetected()) {
+               throw exc;
+           }
+           int current = (heap > 0) ? heap : getDefaultHeap();
+           if (!oom.isKilled() && ((current * 2) <= maxCompileMemory)) {
+               heap = current * 2;
+               getLog().warn(String.format("scalac ran out of memory, compile again with -Xmx%dm", heap));
+           } else {
+               // killed by the system : the heap was bigger than the memory available
+               heap = Math.min(oom.isKilled() ? (current / 2) : current, maxCompileMemory);
+               long total = 0;
+               for (int id : files) {
+                   total += SOURCE_PATHS.getFile(id).length();
+               }
+               shardBudget = Math.max(1, ((shardBudget > 0) ? Math.min(shardBudget, total) : total) / 2);
+               getLog().warn(String.format("scalac ran out of memory, compile again in shards of %d KB of sources with -Xmx%dm", shardBudget / 1024, heap));
+           }
+           beforeRetry.call();
+           staged.clearStagingDir();
+           collector.clear();
+           if (!runScalac(files, graph, costs, outputDir, classpathElements, sourceRootDirs, heap, shardBudget, new OutOfMemoryDetector(), collector, compileInLoop)) {
+               return false;
+           }
+           memory.set(heap, shardBudget);
+           memory.save();
+           getLog().info(String.format("memory settings of the compilation saved in %s", memory.getFile()));
+           return true;
+       }
+   }
+
+   /**
+    * Compiles the files with scalac : in shards if the sources are bigger than the shard budget, else in parallel if
+    * compileThreads &gt; 1, else with a single scalac.
+    *
+    * @param heap the maximum heap (in MB) of the forked scalac, 0 for the default one
+    * @param shardBudget the maximum size (in bytes) of the sources of a shard, 0 to not compile in shards
+    * @param oom notified of the output of the compilers, with the collector
+    * @return false if scalac reported errors in the cc loop (else they are thrown)
+    */
+   private boolean runScalac(List<Integer> files, DependencyGraph graph, CompileCosts costs, File outputDir, List<String> classpathElements, List<String> sourceRootDirs, int heap, long shardBudget, OutOfMemoryDetector oom, Diagnostics.Collector collector, boolean compileInLoop) throws Exception {
+       OutputListener listener = both(oom, collector);
+       boolean compiled = false;
+       if ((shardBudget > 0) && !compileInLoop) {
+           compiled = compileInShards(files, graph, costs, outputDir, classpathElements, sourceRootDirs, heap, shardBudget, oom, collector);
+       } else if ((compileThreads > 1) && fork && !useDaemon && !useResident && !compileInLoop) {
+           compiled = compileInParallel(files, graph, costs, outputDir, classpathElements, heap, listener);
+           if (!compiled) {
+               // the single scalac reports again the messages of the parts compiled (or failed) in parallel, and
+               // decides alone whether a retry with more memory is needed
+               collector.clear();
+               oom.reset();
+           }
+       }
+       if (!compiled) {
+           JavaMainCaller jcmd = getCompileCommand(files, outputDir, classpathElements);
+           addHeap(jcmd, heap);
+           jcmd.addOutputListener(listener);
+           long start = System.currentTimeMillis();
+           try {
+               jcmd.run(displayCmd, true);
+           } catch (MojoFailureException exc) {
+               if (!compileInLoop) {
+                   throw exc;
+               }
+               return false;
+           }
+           costs.record(toFiles(files), System.currentTimeMillis() - start);
+       }
+       return true;
+   }
+
+   /** @return a listener notifying both listeners */
+   private static OutputListener both(final OutputListener first, final OutputListener second) {
+       return new OutputListener() {
+           public void lineWritten(String line) {
+               first.lineWritten(line);
+               second.lineWritten(line);
+           }
+
+           public void exited(int exitValue) {
+               first.exited(exitValue);
+               second.exited(exitValue);
+           }
+       };
+   }
+
+   private void addHeap(JavaMainCaller jcmd, int heap) {
+       // the last -Xmx of the command line wins
+       if (fork && (heap > 0)) {
+           jcmd.addJvmArgs("-Xmx" + heap + "m");
+       }
+   }
+
+   /**
+    * @return the maximum size (in bytes) of the sources compiled by a scalac with the given heap (in MB)
+    */
+   private static long getShardBudget(int heap) {
+       long memory = heap * 1024L * 1024L;
+       return Math.max(memory / 4, memory - SHARD_BASE_MEMORY) / SHARD_MEMORY_PER_SOURCE_BYTE;
+   }
+
+   /**
+    * @return the heap (in MB) of a forked scalac without learned settings : the -Xmx of jvmArgs, else the default
+    *         heap of a JVM on this machine (the one of maven, as an estimation)
+    */
+   private int getDefaultHeap() {
+       int back = (int) (Runtime.getRuntime().maxMemory() / (1024 * 1024));
+       if (jvmArgs != null) {
+           for (String arg : jvmArgs) {
+               if ((arg != null) && arg.startsWith("-Xmx")) {
+                   back = parseMemory(arg.substring(4), back);
+               }
+           }
+       }
+       return back;
+   }
+
+   /**
+    * @return the size (in MB) of a jvm memory option (ex: 512m, 2g, 1048576k)
+    */
+   static int parseMemory(String value, int defaultValue) {
+       try {
+           char unit = Character.toLowerCase(value.charAt(value.length() - 1));
+           if (Character.isDigit(unit)) {
+               return (int) (Long.parseLong(value) / (1024 * 1024));
+           }
+           long n = Long.parseLong(value.substring(0, value.length() - 1));
+           switch (unit) {
+               case 'k':
+                   return (int) (n / 1024);
+               case 'm':
+                   return (int) n;
+               case 'g':
+                   return (int) (n * 1024);
+               default:
+                   return defaultValue;
+           }
+       } catch (RuntimeException exc) {
+           return defaultValue;
+       }
+   }
+
+   /**
+    * @return the file of the memory settings learned for the output directory of the module, in ~/.m2 (to survive to
+    *         mvn clean)
+    */
+   private File getCompileMemoryFile(File outputDir) {
+       File dir = new File(new File(localRepo.getBasedir()).getParentFile(), "scala-compile-memory");
+       return new File(dir, project.getGroupId() + "." + project.getArtifactId() + "." + outputDir.getName());
+   }
+
+   /**
+    * @return the java files that could be compiled without the classes of the scala files to compile : when no scala
+    *         file is compiled, or when the previous compilation recorded that they don't depend on them
+    */
+   private List<Integer> getIndependentJavaFiles(List<Integer> javaFiles, List<Integer> files, DependencyGraph graph) {
+       List<Integer> back = new ArrayList<Integer>();
+       if (javaFiles.isEmpty()) {
+           return back;
+       }
+       List<Integer> scalaFiles = new ArrayList<Integer>();
+       for (int id : files) {
+           if (!isJavaFile(id)) {
+               scalaFiles.add(id);
+           }
+       }
+       if (scalaFiles.isEmpty()) {
+           back.addAll(javaFiles);
+           return back;
+       }
+       Set<Integer> dependents = graph.getInvalidatedSources(scalaFiles);
+       for (int id : javaFiles) {
+           if (graph.containsAll(Collections.singletonList(id)) && !dependents.contains(id)) {
+               back.add(id);
+           }
+       }
+       return back;
+   }
+
+   /**
+    * Compiles the files with several scalac processes, each one compiling a part of the files independent of the
+    * others (according to the dependencies recorded by the previous compilation).
+    *
+    * @return false if the files can't be split (so nothing was compiled), or if the compilation of a part failed
+    *         (the split could be invalid if the dependencies between the files changed)
+    */
+   private boolean compileInParallel(List<Integer> files, DependencyGraph graph, CompileCosts costs, File outputDir, List<String> classpathElements, int heap, OutputListener listener) throws Exception {
+       long[] estimations = new long[files.size()];
+       for (int i = 0; i < files.size(); i++) {
+           estimations[i] = costs.estimate(SOURCE_PATHS.getFile(files.get(i)));
+       }
+       if (!graph.containsAll(files)) {
+           getLog().debug("dependencies of new source files are unknown, compile in a single process");
+           return false;
+       }
+       List<List<int[]>> stages = new CompilePlanner(graph.getSourceDependencies(files), estimations).plan(compileThreads);
+       if ((stages.size() == 1) && (stages.get(0).size() == 1)) {
+           return false;
+       }
+       // output of the previous stages is needed by the next ones
+       List<String> classpath = new ArrayList<String>(classpathElements);
+       if (!classpath.contains(outputDir.getAbsolutePath())) {
+           classpath.add(0, outputDir.getAbsolutePath());
+       }
+       ExecutorService executor = Executors.newFixedThreadPool(compileThreads);
+       try {
+           for (int s = 0; s < stages.size(); s++) {
+               List<int[]> partitions = stages.get(s);
+               getLog().info(String.format("compilation stage %d/%d : %d parallel scalac", s + 1, stages.size(), partitions.size()));
+               CompletionService<Object> completion = new ExecutorCompletionService<Object>(executor);
+               List<Future<Object>> running = new ArrayList<Future<Object>>();
+               for (int[] partition : partitions) {
+                   final List<Integer> part = new ArrayList<Integer>(partition.length);
+                   for (int i : partition) {
+                       part.add(files.get(i));
+                   }
+                   // commands are created in the current thread (artifact resolution is not thread safe)
+                   final JavaMainCaller jcmd = getCompileCommand(part, outputDir, classpath);
+                   jcmd.setLogOnly(true);
+                   addHeap(jcmd, heap);
+                   jcmd.addOutputListener(listener);
+                   final CompileCosts partCosts = costs;
+                   running.add(completion.submit(new Callable<Object>() {
+                       public Object call() throws Exception {
+                           long start = System.currentTimeMillis();
+                           jcmd.run(displayCmd, true);
+                           long duration = System.currentTimeMillis() - start;
+                           synchronized (partCosts) {
+                               partCosts.record(toFiles(part), duration);
+                           }
+                           return null;
+                       }
+                   }));
+               }
+               for (int i = 0; i < running.size(); i++) {
+                   try {
+                       completion.take().get();
+                   } catch (ExecutionException exc) {
+                       // stop the siblings as soon as one part fails
+                       for (Future<Object> f : running) {
+                           f.cancel(true);
+                       }
+                       getLog().warn("parallel compilation failed (" + exc.getCause().getMessage() + "), retry with a single scalac");
+                       return false;
+                   }
+               }
+           }
+       } finally {
+           executor.shutdownNow();
+       }
+       return true;
+   }
+
+   /**
+    * Compiles the files with scalac processes run one after the other, each one compiling a shard of the files (up to
+    * budget bytes of sources), with the classes of the previous shards in its classpath. The shards are ordered by the
+    * dependencies recorded by the previous compilation. When some dependencies are unknown (first compilation, new
+    * files), they are estimated from the packages and the imports of the sources, and a shard failing on a dependency
+    * missed by the estimation is compiled again with the sources of the next shards in the sourcepath.
+    *
+    * @return false if the files fit in a single shard (so nothing was compiled)
+    */
+   private boolean compileInShards(List<Integer> files, DependencyGraph graph, CompileCosts costs, File outputDir, List<String> classpathElements, List<String> sourceRootDirs, int heap, long budget, OutOfMemoryDetector oom, Diagnostics.Collector collector) throws Exception {
+       // without recorded dependencies, files of the same package are kept together
+       List<Integer> sorted = new ArrayList<Integer>(files);
+       sortByPath(sorted);
+       long[] sizes = new long[sorted.size()];
+       long total = 0;
+       for (int i = 0; i < sorted.size(); i++) {
+           sizes[i] = SOURCE_PATHS.getFile(sorted.get(i)).length();
+           total += sizes[i];
+       }
+       if (total <= budget) {
+           return false;
+       }
+       boolean known = graph.containsAll(sorted);
+       int[][] deps = known ? graph.getSourceDependencies(sorted) : ImportScanner.estimateDependencies(toFiles(sorted));
+       List<int[]> shards = new CompilePlanner(deps, sizes).shard(budget);
+       if (shards.size() < 2) {
+           return false;
+       }
+       // output of the previous shards is needed by the next ones
+       List<String> classpath = new ArrayList<String>(classpathElements);
+       if (!classpath.contains(outputDir.getAbsolutePath())) {
+           classpath.add(0, outputDir.getAbsolutePath());
+       }
+       for (int s = 0; s < shards.size(); s++) {
+           List<Integer> shard = new ArrayList<Integer>(shards.get(s).length);
+           for (int i : shards.get(s)) {
+               shard.add(sorted.get(i));
+           }
+           getLog().info(String.format("compiling shard %d/%d : %d source files", s + 1, shards.size(), shard.size()));
+           JavaMainCaller jcmd = getCompileCommand(shard, outputDir, classpath);
+           addHeap(jcmd, heap);
+           jcmd.addOutputListener(both(oom, collector));
+           long start = System.currentTimeMillis();
+           try {
+               jcmd.run(displayCmd, true);
+           } catch (MojoFailureException exc) {
+               if (known || oom.isDetected()) {
+                   throw exc;
+               }
+               getLog().warn(String.format("shard %d/%d failed, maybe on a dependency missed before the first compilation : compile it again with the sources in the sourcepath (the memory used is not bounded by the shard)", s + 1, shards.size()));
+               collector.clear(toFiles(shard));
+               jcmd = getCompileCommand(shard, outputDir, classpath);
+               jcmd.addArgs("-sourcepath", JavaCommand.toMultiPath(normalizeSourceRoots(sourceRootDirs)));
+               addHeap(jcmd, heap);
+               jcmd.addOutputListener(both(oom, collector));
+               jcmd.run(displayCmd, true);
+           }
+           costs.record(toFiles(shard), System.currentTimeMillis() - start);
+       }
+       return true;
+   }
+
+   /** @return the files of the path ids (in {@link #SOURCE_PATHS}) */
+   protected static List<File> toFiles(Collection<Integer> ids) {
+       List<File> back = new ArrayList<File>(ids.size());
+       for (int id : ids) {
+           back.add(SOURCE_PATHS.getFile(id));
+       }
+       return back;
+   }
+
+   /** @return the absolute paths of the path ids (in {@link #SOURCE_PATHS}) */
+   protected static List<String> toPaths(Collection<Integer> ids) {
+       List<String> back = new ArrayList<String>(ids.size());
+       for (int id : ids) {
+           back.add(SOURCE_PATHS.getPath(id));
+       }
+       return back;
+   }
+
+   /** Sorts the path ids (in {@link #SOURCE_PATHS}) by path. */
+   protected static void sortByPath(List<Integer> ids) {
+       Collections.sort(ids, new Comparator<Integer>() {
+           public int compare(Integer a, Integer b) {
+               return SOURCE_PATHS.getPath(a).compareTo(SOURCE_PATHS.getPath(b));
+           }
+       });
+   }
+
+   private static boolean isJavaFile(int id) {
+       return SOURCE_PATHS.getName(id).endsWith(".java");
    }
 
    /**
@@ -214,20 +1542,29 @@ public abstract class ScalaCompilerSupport extends ScalaMojoSupport {
    }
    
    /**
-    * Finds all source files in a set of directories with a given extension.
+    * Finds the source files matching the includes and excludes in a set of directories.
+    *
+    * @return the ids of the files in {@link #SOURCE_PATHS} (only the directories are canonicalized)
     */
-   private List<String> findSourceWithFilters(List<String> sourceRootDirs) {
-       List<String> sourceFiles = new ArrayList<String>();
-       //TODO - Since we're making files anyway, perhaps we should just test for existence here...
-       for(String rootSourceDir : normalizeSourceRoots(sourceRootDirs)) {
-           File dir = normalize(new File(rootSourceDir));
-           String[] tmpFiles = JavaCommand.findFiles(dir, includes.toArray(new String[includes.size()]), excludes.toArray(new String[excludes.size()]));
-           for(String tmpLocalFile : tmpFiles) {
-               File tmpAbsFile = normalize(new File(dir, tmpLocalFile));
-               sourceFiles.add(tmpAbsFile.getAbsolutePath());
+   private int[] findSourceWithFilters(List<String> sourceRootDirs) {
+       List<String> roots = normalizeSourceRoots(sourceRootDirs);
+       List<String[]> found = new ArrayList<String[]>(roots.size());
+       int size = 0;
+       for(String rootSourceDir : roots) {
+           String[] tmpFiles = JavaCommand.findFiles(new File(rootSourceDir), includes.toArray(new String[includes.size()]), excludes.toArray(new String[excludes.size()]));
+           found.add(tmpFiles);
+           size += tmpFiles.length;
+       }
+       // the ids are collected once, in an array of the total size
+       int[] back = new int[size];
+       int k = 0;
+       for (int r = 0; r < roots.size(); r++) {
+           int dirId = SOURCE_PATHS.intern(new File(roots.get(r)));
+           for (String path : found.get(r)) {
+               back[k++] = SOURCE_PATHS.intern(dirId, path);
            }
        }
-       return sourceFiles;
+       return back;
    }
 
 
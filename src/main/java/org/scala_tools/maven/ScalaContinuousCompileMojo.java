@@ -16,6 +16,7 @@
 package org.scala_tools.maven;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.List;
 
 import org.codehaus.plexus.util.FileUtils;
@@ -117,6 +118,9 @@ public class ScalaContinuousCompileMojo extends ScalaCompilerSupport {
         }
         testSourceDir = normalize(testSourceDir);
 
+        if (useResident) {
+            useFsc = false;
+        }
         if (useFsc) {
             getLog().info("use fsc for compilation");
             scalaClassName = "scala.tools.nsc.CompileClient";
@@ -133,11 +137,17 @@ public class ScalaContinuousCompileMojo extends ScalaCompilerSupport {
         getLog().info("wait for files to compile...");
         do {
             int nbFile = 0;
-            if (mainSourceDir.exists()) {
-                nbFile = compile(mainSourceDir, mainOutputDir, project.getCompileClasspathElements(), true);
-            }
-            if (testSourceDir.exists()) {
-                nbFile += compile(testSourceDir, testOutputDir, project.getTestClasspathElements(), true);
+            if (compileJava) {
+                // java sources are compiled (with javac) too
+                nbFile = compile(getSourceRoots(mainSourceDir, project.getCompileSourceRoots()), mainOutputDir, project.getCompileClasspathElements(), true);
+                nbFile += compile(getSourceRoots(testSourceDir, project.getTestCompileSourceRoots()), testOutputDir, project.getTestClasspathElements(), true);
+            } else {
+                if (mainSourceDir.exists()) {
+                    nbFile = compile(mainSourceDir, mainOutputDir, project.getCompileClasspathElements(), true);
+                }
+                if (testSourceDir.exists()) {
+                    nbFile += compile(testSourceDir, testOutputDir, project.getTestClasspathElements(), true);
+                }
             }
             if (!once) {
                 if (nbFile > 0) {
@@ -150,6 +160,14 @@ public class ScalaContinuousCompileMojo extends ScalaCompilerSupport {
         } while (!once);
     }
 
+    private List<String> getSourceRoots(File scalaSourceDir, List<String> compileSourceRoots) {
+        List<String> back = new ArrayList<String>(compileSourceRoots);
+        if (!back.contains(scalaSourceDir.getAbsolutePath())) {
+            back.add(scalaSourceDir.getAbsolutePath());
+        }
+        return back;
+    }
+
     private void startNewCompileServer() throws Exception {
         File serverTagFile = new File(mainOutputDir + ".server");
         if (serverTagFile.exists()) {
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2007 scala-tools.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+package org.scala_tools.maven;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.scala_tools.maven.incremental.CompileCosts;
+import org.scala_tools.maven.incremental.CycleAnalysis;
+import org.scala_tools.maven.incremental.DependencyGraph;
+
+/**
+ * Reports the cycles between the main and test sources, read from the classfiles of a previous compilation : the
+ * biggest cycles, the dependencies whose removal would split them the most, and the gain for the incremental
+ * compilation (sources recompiled by a change) and for the parallel compilation (maximum speedup) without these
+ * dependencies.
+ *
+ * @goal cycles
+ * @requiresDependencyResolution test
+ */
+public class ScalaCyclesMojo extends ScalaCompilerSupport {
+
+    /**
+     * The output directory of the main classes.
+     *
+     * @parameter expression="${project.build.outputDirectory}"
+     */
+    protected File mainOutputDir;
+
+    /**
+     * The main directory containing scala source for compilation
+     *
+     * @parameter expression="${project.build.sourceDirectory}/../scala"
+     */
+    protected File mainSourceDir;
+
+    /**
+     * The output directory of the test classes.
+     *
+     * @parameter expression="${project.build.testOutputDirectory}"
+     */
+    protected File testOutputDir;
+
+    /**
+     * The directory containing test source for compilation
+     *
+     * @parameter expression="${project.build.testSourceDirectory}/../scala"
+     */
+    protected File testSourceDir;
+
+    /**
+     * The number of cycles reported.
+     *
+     * @parameter expression="${maven.scala.cycles.max}" default-value="5"
+     */
+    protected int maxCycles;
+
+    /**
+     * The number of dependencies reported by cycle.
+     *
+     * @parameter expression="${maven.scala.cycles.splits}" default-value="3"
+     */
+    protected int maxSplits;
+
+    @SuppressWarnings("unchecked")
+    @Override
+    protected void doExecute() throws Exception {
+        List<String> mainRoots = new ArrayList<String>(project.getCompileSourceRoots());
+        mainRoots.add(mainSourceDir.getCanonicalPath());
+        List<String> testRoots = new ArrayList<String>(project.getTestCompileSourceRoots());
+        testRoots.add(testSourceDir.getCanonicalPath());
+        report("main", mainRoots, normalize(mainOutputDir));
+        report("test", testRoots, normalize(testOutputDir));
+    }
+
+    private void report(String name, List<String> sourceRootDirs, File outputDir) throws Exception {
+        // the graph of the report is not saved
+        List<Integer> files = getSourceFiles(sourceRootDirs, false);
+        if ((files == null) || !outputDir.isDirectory()) {
+            getLog().info(String.format("%s : no compiled sources", name));
+            return;
+        }
+        sortByPath(files);
+        DependencyGraph graph = new DependencyGraph(null, SOURCE_PATHS);
+        graph.recordCompilation(files, Collections.<Integer>emptySet(), outputDir, 0);
+        List<String> paths = toPaths(files);
+        long[] costs = new long[files.size()];
+        CompileCosts recorded = CompileCosts.load(new File(outputDir + ".costs"));
+        for (int i = 0; i < files.size(); i++) {
+            costs[i] = recorded.estimate(SOURCE_PATHS.getFile(files.get(i)));
+        }
+        int[][] deps = graph.getSourceDependencies(files);
+        CycleAnalysis analysis = new CycleAnalysis(deps);
+        List<int[]> cycles = analysis.getCycles();
+        int nbInCycles = 0;
+        for (int[] cycle : cycles) {
+            nbInCycles += cycle.length;
+        }
+        getLog().info(String.format("%s : %d sources, %d cycles of %d sources", name, files.size(), cycles.size(), nbInCycles));
+
+        List<CycleAnalysis.Split> best = new ArrayList<CycleAnalysis.Split>();
+        for (int[] cycle : cycles.subList(0, Math.min(maxCycles, cycles.size()))) {
+            long cost = 0;
+            for (int i : cycle) {
+                cost += costs[i];
+            }
+            getLog().info(String.format("cycle of %d sources (compiled in about %d ms) :", cycle.length, cost));
+            List<CycleAnalysis.Split> splits = analysis.getSplits(cycle, maxSplits);
+            for (CycleAnalysis.Split split : splits) {
+                getLog().info(String.format("  without %s -> %s, the biggest cycle left has %d sources", relativize(paths.get(split.from)), relativize(paths.get(split.to)), split.biggestLeft));
+            }
+            if (!splits.isEmpty()) {
+                best.add(splits.get(0));
+            }
+        }
+        if (best.isEmpty()) {
+            getLog().info(String.format("sources recompiled by a change : %.1f on average", CycleAnalysis.getMeanInvalidation(deps)));
+            getLog().info(String.format("maximum speedup of a parallel compilation : %.1f", CycleAnalysis.getMaxSpeedup(deps, costs)));
+        } else {
+            int[][] split = CycleAnalysis.without(deps, best);
+            getLog().info(String.format("sources recompiled by a change : %.1f on average, %.1f without the first dependency of each cycle above", CycleAnalysis.getMeanInvalidation(deps), CycleAnalysis.getMeanInvalidation(split)));
+            getLog().info(String.format("maximum speedup of a parallel compilation : %.1f, %.1f without the first dependency of each cycle above", CycleAnalysis.getMaxSpeedup(deps, costs), CycleAnalysis.getMaxSpeedup(split, costs)));
+        }
+    }
+
+    private String relativize(String path) {
+        String base = project.getBasedir().getAbsolutePath() + File.separator;
+        return path.startsWith(base) ? path.substring(base.length()) : path;
+    }
+
+    @Override
+    protected File getOutputDir() throws Exception {
+        return mainOutputDir.getAbsoluteFile();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    protected List<String> getClasspathElements() throws Exception {
+        return project.getTestClasspathElements();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    protected List<String> getSourceDirectories() throws Exception {
+        return project.getCompileSourceRoots();
+    }
+}
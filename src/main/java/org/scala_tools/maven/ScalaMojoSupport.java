@@ -15,10 +15,13 @@
  */
 package org.scala_tools.maven;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.TreeSet;
 
 import org.apache.maven.artifact.Artifact;
 import org.apache.maven.artifact.ArtifactUtils;
@@ -51,10 +54,13 @@ import org.apache.maven.shared.dependency.tree.traversal.FilteringDependencyNode
 import org.codehaus.plexus.util.StringUtils;
 import org.scala_tools.maven.dependency.CheckScalaVersionVisitor;
 import org.scala_tools.maven.dependency.ScalaDistroArtifactFilter;
+import org.scala_tools.maven.executions.DaemonJavaMainCaller;
 import org.scala_tools.maven.executions.JavaCommand;
 import org.scala_tools.maven.executions.JavaMainCaller;
 import org.scala_tools.maven.executions.ReflectionJavaMainCaller;
+import org.scala_tools.maven.executions.ResidentScalaCommand;
 import org.scala_tools.maven.executions.ScalaCommandWIthArgsInFile;
+import org.scala_tools.maven.executions.ToolClassLoaderCache;
 
 abstract class ScalaMojoSupport extends AbstractMojo {
 
@@ -451,6 +457,36 @@ abstract class ScalaMojoSupport extends AbstractMojo {
         return cmd;
     }
 
+    /**
+     * Creates the command to run scalac in a compile daemon (started if needed).
+     *
+     * @param idleTimeout duration (in seconds) after which the daemon without request stops
+     */
+    protected JavaMainCaller getDaemonScalaCommand(int idleTimeout) throws Exception {
+        ScalaPluginInfo plugin_info = getCompilerPluginInfo();
+        File daemonDir = new File(new File(localRepo.getBasedir()).getParentFile(), "scala-daemons");
+        JavaMainCaller cmd = new DaemonJavaMainCaller(this, scalaClassName, getToolClasspath(plugin_info), daemonDir, idleTimeout, null, null);
+        cmd.addJvmArgs("-Xbootclasspath/a:"+ getBootClasspath());
+        cmd.addArgs(args);
+        plugin_info.addToCall(cmd);
+        cmd.addJvmArgs(jvmArgs);
+        return cmd;
+    }
+
+    /**
+     * Creates the command to run scalac in a resident compiler process (reused by the next commands with the
+     * same options during the build).
+     */
+    protected ResidentScalaCommand getResidentScalaCommand() throws Exception {
+        ScalaPluginInfo plugin_info = getCompilerPluginInfo();
+        ResidentScalaCommand cmd = new ResidentScalaCommand(this, scalaClassName, getToolClasspath(plugin_info), null, null);
+        cmd.addJvmArgs("-Xbootclasspath/a:"+ getBootClasspath());
+        cmd.addArgs(args);
+        plugin_info.addToCall(cmd);
+        cmd.addJvmArgs(jvmArgs);
+        return cmd;
+    }
+
     protected JavaMainCaller getEmptyScalaCommand(String mainClass)
             throws Exception
     {
@@ -462,24 +498,62 @@ abstract class ScalaMojoSupport extends AbstractMojo {
         JavaMainCaller cmd;
         String java_classpath = getToolClasspath(plugin_info);
         if(fork) {
-           if( new VersionNumber(scalaVersion).compareTo(new VersionNumber("2.8.0")) >= 0) {
-               //TODO - Version 2.8.0 and above support passing arguments in a file via the @ argument.
-               getLog().info("use scala command with args in file");
-               cmd = new ScalaCommandWIthArgsInFile(this, mainClass, java_classpath, null, null);
-           } else {
-               getLog().info("use java command with args in file forced : " + forceUseArgFile);
-               cmd = new JavaCommand(this, mainClass, java_classpath, null, null, forceUseArgFile);
-           }
+           cmd = getForkedCommand(mainClass, java_classpath, scalaVersion);
         } else  {
-            cmd = new ReflectionJavaMainCaller(this, mainClass, java_classpath, null, null);
+            // the compiler loaded in-process is reused by the next executions with the same version and classpath
+            cmd = new ReflectionJavaMainCaller(this, mainClass, java_classpath, getToolCacheKey(java_classpath, plugin_info), null, null);
         }
         cmd.addJvmArgs("-Xbootclasspath/a:"+ getBootClasspath());
         return cmd;
     }
 
+    private JavaMainCaller getForkedCommand(String mainClass, String java_classpath, String version) throws Exception {
+        if( new VersionNumber(version).compareTo(new VersionNumber("2.8.0")) >= 0) {
+            //TODO - Version 2.8.0 and above support passing arguments in a file via the @ argument.
+            getLog().info("use scala command with args in file");
+            return new ScalaCommandWIthArgsInFile(this, mainClass, java_classpath, null, null);
+        }
+        getLog().info("use java command with args in file forced : " + forceUseArgFile);
+        return new JavaCommand(this, mainClass, java_classpath, null, null, forceUseArgFile);
+    }
+
+    /**
+     * Creates the command to run scalac of the given version (instead of scalaVersion) in a forked JVM.
+     */
+    protected JavaMainCaller getForkedScalaCommand(String version) throws Exception {
+        ScalaPluginInfo plugin_info = getCompilerPluginInfo(version);
+        JavaMainCaller cmd = getForkedCommand(scalaClassName, getToolClasspath(plugin_info, version), version);
+        cmd.addJvmArgs("-Xbootclasspath/a:"+ getBootClasspath(version));
+        cmd.addArgs(args);
+        plugin_info.addToCall(cmd);
+        cmd.addJvmArgs(jvmArgs);
+        return cmd;
+    }
+
+    /**
+     * @return the classloader of the compiler, shared during the build with the in-process commands, to release
+     *         (with {@link ToolClassLoaderCache#release(ClassLoader)}) after use
+     */
+    protected ClassLoader acquireCompilerClassLoader() throws Exception {
+        ScalaPluginInfo plugin_info = getCompilerPluginInfo();
+        String java_classpath = getToolClasspath(plugin_info);
+        return ToolClassLoaderCache.acquire(getToolCacheKey(java_classpath, plugin_info), java_classpath);
+    }
+
+    private String getToolCacheKey(String java_classpath, ScalaPluginInfo plugin_info) {
+        return scalaVersion + "|" + new TreeSet<String>(Arrays.asList(java_classpath.split(File.pathSeparator))) + "|" + new TreeSet<String>(plugin_info.plugin_jars);
+    }
+
     private String getToolClasspath(ScalaPluginInfo plugin_info) throws Exception {
+        return getToolClasspath(plugin_info, scalaVersion);
+    }
+
+    /**
+     * @return the classpath to run the compiler of the given version of scala
+     */
+    protected String getToolClasspath(ScalaPluginInfo plugin_info, String version) throws Exception {
         Set<String> classpath = new HashSet<String>();
-        addToClasspath(SCALA_GROUPID, "scala-compiler", scalaVersion, classpath);
+        addToClasspath(SCALA_GROUPID, "scala-compiler", version, classpath);
 //        addToClasspath(SCALA_GROUPID, "scala-decoder", scalaVersion, classpath);
 //        addToClasspath(SCALA_GROUPID, "scala-dbc", scalaVersion, classpath);
         if (dependencies != null) {
@@ -492,11 +566,33 @@ abstract class ScalaMojoSupport extends AbstractMojo {
     }
 
     private String getBootClasspath() throws Exception {
+        return getBootClasspath(scalaVersion);
+    }
+
+    private String getBootClasspath(String version) throws Exception {
         Set<String> classpath = new HashSet<String>();
-        addToClasspath(SCALA_GROUPID, SCALA_LIBRARY_ARTIFACTID, scalaVersion, classpath);
+        addToClasspath(SCALA_GROUPID, SCALA_LIBRARY_ARTIFACTID, version, classpath);
         return JavaCommand.toMultiPath(classpath.toArray(new String[classpath.size()]));
     }
 
+    /**
+     * @return the artifact built for the given version of scala in place of an artifact built for scalaVersion : the
+     *         artifact of the version for the artifacts of scala (groupId org.scala-lang*, with scalaVersion as
+     *         version), the artifact suffixed by _&lt;version&gt; for the artifacts suffixed by _&lt;scalaVersion&gt;
+     *         (ex: specs_2.8.0), or null if the artifact doesn't follow these conventions (not resolved)
+     */
+    protected Artifact createCrossArtifact(String groupId, String artifactId, String version, String type, String classifier, String crossVersion) {
+        if (groupId.startsWith(SCALA_GROUPID) && version.equals(scalaVersion)) {
+            return factory.createArtifactWithClassifier(groupId, artifactId, crossVersion, type, classifier);
+        }
+        String suffix = "_" + scalaVersion;
+        if (artifactId.endsWith(suffix)) {
+            String crossArtifactId = artifactId.substring(0, artifactId.length() - suffix.length()) + "_" + crossVersion;
+            return factory.createArtifactWithClassifier(groupId, crossArtifactId, version, type, classifier);
+        }
+        return null;
+    }
+
     /**
      * @return
      *           This returns whether or not the scala version can support having java sent into the compiler
@@ -506,19 +602,37 @@ abstract class ScalaMojoSupport extends AbstractMojo {
 	}
 
     /** Retrieves path information of scala compiler plugins. */
-    private ScalaPluginInfo getCompilerPluginInfo() throws Exception {
+    protected ScalaPluginInfo getCompilerPluginInfo() throws Exception {
+        return getCompilerPluginInfo(scalaVersion);
+    }
+
+    /**
+     * Retrieves path information of scala compiler plugins for the given version of scala : the plugins (built for
+     * scalaVersion) are replaced by their artifacts for the version (see {@link #createCrossArtifact}).
+     */
+    protected ScalaPluginInfo getCompilerPluginInfo(String version) throws Exception {
         if (compilerPlugins != null) {
             Set<String> ignoreClasspath = new HashSet<String>();
-            addToClasspath(SCALA_GROUPID, "scala-compiler", scalaVersion,
+            addToClasspath(SCALA_GROUPID, "scala-compiler", version,
                     ignoreClasspath);
             addToClasspath(SCALA_GROUPID, SCALA_LIBRARY_ARTIFACTID,
-                    scalaVersion, ignoreClasspath);
+                    version, ignoreClasspath);
             Set<String> plugin_jars = new HashSet<String>();
             Set<String> dependency_jars = new HashSet<String>();
             for (BasicArtifact artifact : compilerPlugins) {
-                // TODO - Ensure proper scala version for plugins
-                addToClasspath(artifact.groupId, artifact.artifactId,
-                        artifact.version, plugin_jars, dependency_jars);
+                if (version.equals(scalaVersion)) {
+                    // TODO - Ensure proper scala version for plugins
+                    addToClasspath(artifact.groupId, artifact.artifactId,
+                            artifact.version, plugin_jars, dependency_jars);
+                    continue;
+                }
+                Artifact cross = createCrossArtifact(artifact.groupId, artifact.artifactId, artifact.version, "jar", null, version);
+                if (cross == null) {
+                    throw new MojoFailureException("the compiler plugin " + artifact.groupId + ":" + artifact.artifactId + ":" + artifact.version
+                        + " is built for scala " + scalaVersion + ", its artifact for scala " + version + " is unknown (expected "
+                        + artifact.artifactId + " suffixed by _" + scalaVersion + ")");
+                }
+                addToClasspath(cross, plugin_jars, dependency_jars);
             }
             return new ScalaPluginInfo(plugin_jars, dependency_jars, ignoreClasspath);
         } else {
@@ -20,10 +20,13 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.List;
 
 import org.apache.maven.plugin.logging.Log;
 import org.codehaus.plexus.util.IOUtil;
 import org.codehaus.plexus.util.StringUtils;
+import org.scala_tools.maven.executions.OutputListener;
 
 public class StreamLogger extends Thread {
 	private static final String LS = System.getProperty("line.separator");
@@ -33,11 +36,20 @@ public class StreamLogger extends Thread {
     private Log log_;
     private boolean isErr_;
     private PrintWriter out_;
+    private List<OutputListener> listeners_;
 
     public StreamLogger(InputStream in, Log log, boolean isErr) {
+        this(in, log, isErr, Collections.<OutputListener>emptyList());
+    }
+
+    /**
+     * @param listeners notified of each line logged
+     */
+    public StreamLogger(InputStream in, Log log, boolean isErr, List<OutputListener> listeners) {
         in_ = in;
         log_ = log;
         isErr_ = isErr;
+        listeners_ = listeners;
     }
 
     @Override
@@ -48,6 +60,9 @@ public class StreamLogger extends Thread {
             String line = null;
             StringBuilder sb = null;
             while ((line = reader.readLine()) != null) {
+                for (OutputListener listener : listeners_) {
+                    listener.lineWritten(line);
+                }
                 if (isErr_) {
                 	if (!emacsMode) {
                         log_.warn(line);
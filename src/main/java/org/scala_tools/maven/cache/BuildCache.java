@@ -0,0 +1,25 @@
+package org.scala_tools.maven.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A cache of the classfiles produced by compilations, by {@link BuildCacheKey} (a digest of the inputs of the
+ * compilation).
+ */
+public interface BuildCache {
+    /**
+     * Copies the classfiles of the entry into outputDir, if the entry exists.
+     *
+     * @return the restored classfiles (in outputDir), or null if the entry doesn't exist
+     */
+    List<File> restore(String key, File outputDir) throws IOException;
+
+    /**
+     * Stores the classfiles as the entry of the key (if the entry doesn't already exist).
+     *
+     * @param classFiles the classfiles of outputDir to store
+     */
+    void store(String key, File outputDir, List<File> classFiles) throws IOException;
+}
@@ -0,0 +1,84 @@
+package org.scala_tools.maven.cache;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.codehaus.plexus.util.IOUtil;
+import org.scala_tools.maven.incremental.SourceIndex;
+
+/**
+ * Key of an entry of a {@link BuildCache} : a digest (hexadecimal MD5) of the inputs of a compilation, independent of
+ * the location of the project (so the entries could be shared between workspaces and machines).
+ */
+public class BuildCacheKey {
+    private final MessageDigest md_;
+    private String key_;
+
+    public BuildCacheKey() {
+        try {
+            md_ = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException exc) {
+            throw new IllegalStateException("MD5 not available", exc);
+        }
+    }
+
+    /** Adds a named value (an option, a version, a digest). */
+    public BuildCacheKey add(String name, String value) {
+        update(name);
+        md_.update((byte) '=');
+        update(String.valueOf(value));
+        md_.update((byte) '\n');
+        return this;
+    }
+
+    /**
+     * Adds the path and the content of a source, with normalized line endings ('\r' are ignored), so checkouts
+     * on windows and unix share the entries.
+     *
+     * @param relativePath the path of the source, relative to the project, with '/' as separator
+     */
+    public BuildCacheKey addSource(String relativePath, File source) throws IOException {
+        update(relativePath);
+        md_.update((byte) '\n');
+        InputStream in = new FileInputStream(source);
+        try {
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                int start = 0;
+                for (int i = 0; i < n; i++) {
+                    if (buffer[i] == '\r') {
+                        md_.update(buffer, start, i - start);
+                        start = i + 1;
+                    }
+                }
+                md_.update(buffer, start, n - start);
+            }
+        } finally {
+            IOUtil.close(in);
+        }
+        md_.update((byte) 0);
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        if (key_ == null) {
+            key_ = SourceIndex.toHex(md_.digest());
+        }
+        return key_;
+    }
+
+    private void update(String s) {
+        try {
+            md_.update(s.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException exc) {
+            throw new IllegalStateException(exc);
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package org.scala_tools.maven.cache;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Minimal HTTP server for {@link HttpBuildCache} : stores the entries PUT as <code>&lt;any path&gt;/&lt;key&gt;.zip</code>
+ * into a directory, and serves them with GET. Entries are immutable (the first PUT of a key wins). Used by the tests,
+ * and could host a shared cache :
+ * <pre>
+ * java -cp maven-scala-plugin.jar:plexus-utils.jar org.scala_tools.maven.cache.BuildCacheServer 8080 /var/cache/scala
+ * </pre>
+ * Other requests are answered with an error status : 404 for another path, 405 for another method, 400 for a
+ * malformed request or length, 411 for a PUT without length. The server has no authentication, it should only be
+ * reachable by the builds.
+ */
+public class BuildCacheServer {
+    private static final Pattern PATH = Pattern.compile("(?:/[^/]+)*/([0-9a-f]{32})\\.zip");
+    private static final int MAX_THREADS = 16;
+    /** timeout (ms) of the reads from a client */
+    private static final int SO_TIMEOUT = 30000;
+    /** max length of the request line and of a header */
+    private static final int MAX_LINE = 8192;
+    private static final int MAX_HEADERS = 100;
+
+    private final File dir_;
+    private final ServerSocket server_;
+    private final ExecutorService executor_ = Executors.newFixedThreadPool(MAX_THREADS);
+
+    /**
+     * @param port the port to listen to (0 for any free port)
+     * @param dir the directory of the entries
+     */
+    public BuildCacheServer(int port, File dir) throws IOException {
+        dir_ = dir;
+        dir_.mkdirs();
+        server_ = new ServerSocket();
+        server_.setReuseAddress(true);
+        server_.bind(new InetSocketAddress(port));
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.err.println("usage: BuildCacheServer <port> <directory>");
+            System.exit(1);
+        }
+        BuildCacheServer server = new BuildCacheServer(Integer.parseInt(args[0]), new File(args[1]));
+        server.start();
+        System.out.println(String.format("build cache listening on port %d, entries in %s", server.getPort(), server.dir_.getAbsolutePath()));
+    }
+
+    public int getPort() {
+        return server_.getLocalPort();
+    }
+
+    /** Accepts the connections in a background thread. */
+    public void start() {
+        Thread acceptor = new Thread("build-cache-server") {
+            @Override
+            public void run() {
+                while (!server_.isClosed()) {
+                    try {
+                        final Socket socket = server_.accept();
+                        executor_.submit(new Runnable() {
+                            public void run() {
+                                handle(socket);
+                            }
+                        });
+                    } catch (IOException exc) {
+                        // closed
+                    }
+                }
+            }
+        };
+        acceptor.start();
+    }
+
+    public void stop() throws IOException {
+        server_.close();
+        executor_.shutdownNow();
+    }
+
+    private void handle(Socket socket) {
+        try {
+            socket.setSoTimeout(SO_TIMEOUT);
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            String[] request;
+            Map<String, String> headers = new HashMap<String, String>();
+            try {
+                request = readLine(in).split(" ");
+                for (String line = readLine(in); line.length() > 0; line = readLine(in)) {
+                    int colon = line.indexOf(':');
+                    if (colon > 0) {
+                        headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+                    }
+                    if (headers.size() > MAX_HEADERS) {
+                        throw new BadRequestException();
+                    }
+                }
+            } catch (BadRequestException exc) {
+                respond(out, "400 Bad Request");
+                return;
+            }
+            Matcher m = (request.length != 3) ? null : PATH.matcher(request[1]);
+            if ((request.length != 3) || !request[2].startsWith("HTTP/")) {
+                respond(out, "400 Bad Request");
+            } else if (!m.matches()) {
+                respond(out, "404 Not Found");
+            } else if ("GET".equals(request[0])) {
+                get(new File(dir_, m.group(1) + ".zip"), out);
+            } else if ("PUT".equals(request[0])) {
+                put(new File(dir_, m.group(1) + ".zip"), headers.get("content-length"), in, out);
+            } else {
+                respond(out, "405 Method Not Allowed");
+            }
+        } catch (IOException exc) {
+            // broken connection, timeout
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException exc) {
+                // ignore
+            }
+        }
+    }
+
+    private void get(File entry, OutputStream out) throws IOException {
+        if (!entry.isFile()) {
+            respond(out, "404 Not Found");
+            return;
+        }
+        InputStream in = new FileInputStream(entry);
+        try {
+            out.write(("HTTP/1.1 200 OK\r\nContent-Type: application/zip\r\nContent-Length: " + entry.length() + "\r\nConnection: close\r\n\r\n").getBytes("US-ASCII"));
+            IOUtil.copy(in, out, 64 * 1024);
+            out.flush();
+        } finally {
+            IOUtil.close(in);
+        }
+    }
+
+    private void put(File entry, String contentLength, InputStream in, OutputStream out) throws IOException {
+        if (contentLength == null) {
+            respond(out, "411 Length Required");
+            return;
+        }
+        long remaining;
+        try {
+            remaining = Long.parseLong(contentLength);
+        } catch (NumberFormatException exc) {
+            remaining = -1;
+        }
+        if (remaining < 0) {
+            respond(out, "400 Bad Request");
+            return;
+        }
+        File tmp = new File(dir_, entry.getName() + "-" + System.nanoTime() + ".tmp");
+        try {
+            OutputStream file = new FileOutputStream(tmp);
+            try {
+                byte[] buffer = new byte[64 * 1024];
+                while (remaining > 0) {
+                    int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                    if (n < 0) {
+                        throw new IOException("incomplete body");
+                    }
+                    file.write(buffer, 0, n);
+                    remaining -= n;
+                }
+            } finally {
+                IOUtil.close(file);
+            }
+            if (!entry.exists()) {
+                tmp.renameTo(entry);
+            }
+            respond(out, "201 Created");
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    private static void respond(OutputStream out, String status) throws IOException {
+        out.write(("HTTP/1.1 " + status + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n").getBytes("US-ASCII"));
+        out.flush();
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream back = new ByteArrayOutputStream();
+        int c;
+        while (((c = in.read()) != -1) && (c != '\n')) {
+            if (c != '\r') {
+                back.write(c);
+            }
+            if (back.size() > MAX_LINE) {
+                throw new BadRequestException();
+            }
+        }
+        return back.toString("US-ASCII");
+    }
+
+    /** The request can't be parsed (too long lines or too many headers). */
+    private static class BadRequestException extends IOException {
+        private static final long serialVersionUID = 1L;
+    }
+}
@@ -0,0 +1,264 @@
+package org.scala_tools.maven.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Build cache shared over HTTP : an entry is a zip of the classfiles, read with a GET and written with a PUT of
+ * <code>&lt;url&gt;/&lt;key&gt;.zip</code> (see {@link BuildCacheServer} for a minimal server).
+ *
+ * Downloads are written to a temporary file before being extracted, so a broken connection doesn't leave truncated
+ * classfiles. Uploads are done in background (the archive is created before returning), the compile goal waits for
+ * them at its end ({@link #awaitUploads(long, Log)}) and reports the failed ones.
+ */
+public class HttpBuildCache implements BuildCache {
+    private static ExecutorService uploads_;
+    /** messages of the uploads failed since the last {@link #awaitUploads(long, Log)} */
+    private static final List<String> failures_ = new ArrayList<String>();
+
+    private final String url_;
+    private final int timeout_;
+    private final boolean upload_;
+    private final Log log_;
+
+    /**
+     * @param url the base URL of the cache
+     * @param timeout the timeout (ms) to connect, and to wait for data
+     * @param upload false to only read the cache
+     */
+    public HttpBuildCache(String url, int timeout, boolean upload, Log log) {
+        url_ = url.endsWith("/") ? url : (url + "/");
+        timeout_ = timeout;
+        upload_ = upload;
+        log_ = log;
+    }
+
+    public List<File> restore(String key, File outputDir) throws IOException {
+        HttpURLConnection cnx = open(key, "GET");
+        try {
+            int code = cnx.getResponseCode();
+            if (code == HttpURLConnection.HTTP_NOT_FOUND) {
+                return null;
+            }
+            if (code != HttpURLConnection.HTTP_OK) {
+                throw new IOException("GET " + cnx.getURL() + " returned " + code + " " + cnx.getResponseMessage());
+            }
+            File tmp = File.createTempFile("scala-build-cache", ".zip");
+            try {
+                InputStream in = cnx.getInputStream();
+                OutputStream out = null;
+                try {
+                    out = new FileOutputStream(tmp);
+                    IOUtil.copy(in, out, 64 * 1024);
+                } finally {
+                    IOUtil.close(in);
+                    IOUtil.close(out);
+                }
+                return unzip(tmp, outputDir);
+            } finally {
+                tmp.delete();
+            }
+        } finally {
+            cnx.disconnect();
+        }
+    }
+
+    public void store(final String key, File outputDir, List<File> classFiles) throws IOException {
+        if (!upload_) {
+            return;
+        }
+        final File archive = File.createTempFile("scala-build-cache", ".zip");
+        try {
+            zip(outputDir, classFiles, archive);
+        } catch (IOException exc) {
+            archive.delete();
+            throw exc;
+        }
+        getUploads().submit(new Runnable() {
+            public void run() {
+                try {
+                    put(key, archive);
+                } catch (IOException exc) {
+                    synchronized (failures_) {
+                        failures_.add(key + " to " + url_ + " (" + exc.getMessage() + ")");
+                    }
+                } finally {
+                    archive.delete();
+                }
+            }
+        });
+    }
+
+    /**
+     * Waits for the end of the uploads submitted before, and logs the uploads failed since the last call.
+     *
+     * @return false if an upload failed, or if the uploads are not finished after the timeout (ms)
+     */
+    public static boolean awaitUploads(long timeout, Log log) throws InterruptedException {
+        Future<?> marker = null;
+        synchronized (HttpBuildCache.class) {
+            if (uploads_ != null) {
+                marker = uploads_.submit(new Runnable() {
+                    public void run() {
+                    }
+                });
+            }
+        }
+        boolean back = true;
+        if (marker != null) {
+            try {
+                marker.get(timeout, TimeUnit.MILLISECONDS);
+            } catch (Exception exc) {
+                log.warn(String.format("uploads to the build cache still running after %ds, they go on until the end of the build", timeout / 1000));
+                back = false;
+            }
+        }
+        synchronized (failures_) {
+            for (String failure : failures_) {
+                log.warn("can't upload to the build cache " + failure);
+            }
+            back &= failures_.isEmpty();
+            failures_.clear();
+        }
+        return back;
+    }
+
+    private void put(String key, File archive) throws IOException {
+        HttpURLConnection cnx = open(key, "PUT");
+        try {
+            cnx.setDoOutput(true);
+            cnx.setRequestProperty("Content-Type", "application/zip");
+            cnx.setFixedLengthStreamingMode((int) archive.length());
+            InputStream in = new FileInputStream(archive);
+            OutputStream out = null;
+            try {
+                out = cnx.getOutputStream();
+                IOUtil.copy(in, out, 64 * 1024);
+            } finally {
+                IOUtil.close(in);
+                IOUtil.close(out);
+            }
+            int code = cnx.getResponseCode();
+            if ((code / 100) != 2) {
+                throw new IOException("PUT " + cnx.getURL() + " returned " + code + " " + cnx.getResponseMessage());
+            }
+        } finally {
+            cnx.disconnect();
+        }
+    }
+
+    private HttpURLConnection open(String key, String method) throws IOException {
+        HttpURLConnection back = (HttpURLConnection) new URL(url_ + key + ".zip").openConnection();
+        back.setRequestMethod(method);
+        back.setConnectTimeout(timeout_);
+        back.setReadTimeout(timeout_);
+        back.setUseCaches(false);
+        return back;
+    }
+
+    private static synchronized ExecutorService getUploads() {
+        if (uploads_ == null) {
+            uploads_ = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread back = new Thread(r, "scala-build-cache-upload");
+                    back.setDaemon(true);
+                    return back;
+                }
+            });
+            // maven exits at the end of the build, without waiting for the daemon threads
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                @Override
+                public void run() {
+                    synchronized (HttpBuildCache.class) {
+                        uploads_.shutdown();
+                    }
+                    try {
+                        uploads_.awaitTermination(5, TimeUnit.MINUTES);
+                    } catch (InterruptedException exc) {
+                        // stop waiting
+                    }
+                }
+            });
+        }
+        return uploads_;
+    }
+
+    /** Writes the files (relative to dir) into a zip. */
+    static void zip(File dir, List<File> files, File archive) throws IOException {
+        int prefix = dir.getAbsolutePath().length() + 1;
+        ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(archive), 64 * 1024));
+        try {
+            for (File f : files) {
+                out.putNextEntry(new ZipEntry(f.getAbsolutePath().substring(prefix).replace(File.separatorChar, '/')));
+                InputStream in = new FileInputStream(f);
+                try {
+                    IOUtil.copy(in, out, 64 * 1024);
+                } finally {
+                    IOUtil.close(in);
+                }
+                out.closeEntry();
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Extracts the files of a zip into dir.
+     *
+     * @return the extracted files
+     */
+    static List<File> unzip(File archive, File dir) throws IOException {
+        List<File> back = new ArrayList<File>();
+        ZipFile zip = new ZipFile(archive);
+        try {
+            for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements();) {
+                ZipEntry entry = e.nextElement();
+                String name = entry.getName();
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                if (name.startsWith("/") || name.startsWith("../") || (name.indexOf("/../") > -1)) {
+                    throw new IOException("invalid entry in the archive : " + name);
+                }
+                File target = new File(dir, name.replace('/', File.separatorChar));
+                target.getParentFile().mkdirs();
+                InputStream in = new BufferedInputStream(zip.getInputStream(entry));
+                OutputStream out = null;
+                try {
+                    out = new FileOutputStream(target);
+                    IOUtil.copy(in, out, 64 * 1024);
+                } finally {
+                    IOUtil.close(in);
+                    IOUtil.close(out);
+                }
+                back.add(target);
+            }
+        } finally {
+            zip.close();
+        }
+        return back;
+    }
+}
@@ -0,0 +1,204 @@
+package org.scala_tools.maven.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.scala_tools.maven.incremental.DependencyGraph;
+import org.scala_tools.maven.incremental.ParallelFileOperations;
+
+/**
+ * Build cache stored in a local directory (shared by the projects and the maven processes of the machine).
+ *
+ * An entry is a directory <code>&lt;2 first chars of the key&gt;/&lt;key&gt;</code> containing the classfiles
+ * (<code>classes/</code>) and their total size (<code>size</code>). Entries are written in a temporary directory, then
+ * renamed, so they are complete once visible. The date of the directory of an entry is updated when it's used, and
+ * the least recently used entries are removed when the cache is bigger than its maximum size.
+ *
+ * Restores, publications and evictions are serialized by a lock on the file <code>.lock</code>, so several maven
+ * processes could share the cache.
+ *
+ * Classfiles are copied (hardlinks would be shared with the output directory, where compilers overwrite the
+ * classfiles in place).
+ */
+public class LocalBuildCache implements BuildCache {
+    /** temporary directories older than this are from a crashed process (ms) */
+    private static final long TMP_TIMEOUT = 24 * 60 * 60 * 1000L;
+
+    /** file locks are held by the JVM, so the threads of a JVM are serialized first */
+    private static final Object JVM_LOCK = new Object();
+
+    private final File dir_;
+    private final long maxSize_;
+
+    /**
+     * @param maxSize the maximum size of the classfiles of the cache (bytes)
+     */
+    public LocalBuildCache(File dir, long maxSize) {
+        dir_ = dir;
+        maxSize_ = maxSize;
+    }
+
+    public List<File> restore(String key, File outputDir) throws IOException {
+        File entry = getEntryDir(key);
+        if (!entry.isDirectory()) {
+            return null;
+        }
+        synchronized (JVM_LOCK) {
+            FileLock lock = lock();
+            try {
+                File classes = new File(entry, "classes");
+                // could have been evicted since the check
+                if (!classes.isDirectory()) {
+                    return null;
+                }
+                entry.setLastModified(System.currentTimeMillis());
+                List<File> classFiles = new ArrayList<File>();
+                DependencyGraph.findClassFiles(classes, 0, classFiles);
+                List<File> back = new ArrayList<File>(classFiles.size());
+                copyFiles(classes, classFiles, outputDir, back);
+                return back;
+            } catch (IOException exc) {
+                throw exc;
+            } catch (Exception exc) {
+                throw (IOException) new IOException("can't restore the entry " + key).initCause(exc);
+            } finally {
+                unlock(lock);
+            }
+        }
+    }
+
+    public void store(String key, File outputDir, List<File> classFiles) throws IOException {
+        File entry = getEntryDir(key);
+        if (entry.isDirectory()) {
+            entry.setLastModified(System.currentTimeMillis());
+            return;
+        }
+        File tmp = new File(new File(dir_, "tmp"), key + "-" + System.nanoTime());
+        try {
+            long size = copyFiles(outputDir, classFiles, new File(tmp, "classes"), new ArrayList<File>(classFiles.size()));
+            FileUtils.fileWrite(new File(tmp, "size").getAbsolutePath(), String.valueOf(size));
+            synchronized (JVM_LOCK) {
+                FileLock lock = lock();
+                try {
+                    entry.getParentFile().mkdirs();
+                    if (!entry.exists() && tmp.renameTo(entry)) {
+                        entry.setLastModified(System.currentTimeMillis());
+                    }
+                    evict();
+                } finally {
+                    unlock(lock);
+                }
+            }
+        } catch (IOException exc) {
+            throw exc;
+        } catch (Exception exc) {
+            throw (IOException) new IOException("can't store the entry " + key).initCause(exc);
+        } finally {
+            if (tmp.exists()) {
+                FileUtils.deleteDirectory(tmp);
+            }
+        }
+    }
+
+    private File getEntryDir(String key) {
+        return new File(new File(dir_, key.substring(0, 2)), key);
+    }
+
+    /**
+     * Removes the least recently used entries until the size of the cache is below its maximum size, and the
+     * temporary directories of crashed processes. Should be called with the lock.
+     */
+    private void evict() throws IOException {
+        List<File> entries = new ArrayList<File>();
+        long total = 0;
+        File[] prefixes = dir_.listFiles();
+        for (File prefix : (prefixes == null) ? new File[0] : prefixes) {
+            File[] content = prefix.listFiles();
+            if ((content == null) || (prefix.getName().length() != 2)) {
+                continue;
+            }
+            for (File entry : content) {
+                entries.add(entry);
+                total += getSize(entry);
+            }
+        }
+        if (total > maxSize_) {
+            Collections.sort(entries, new Comparator<File>() {
+                public int compare(File a, File b) {
+                    long diff = a.lastModified() - b.lastModified();
+                    return (diff < 0) ? -1 : ((diff > 0) ? 1 : 0);
+                }
+            });
+            for (int i = 0; (i < entries.size()) && (total > maxSize_); i++) {
+                total -= getSize(entries.get(i));
+                FileUtils.deleteDirectory(entries.get(i));
+            }
+        }
+        File[] tmps = new File(dir_, "tmp").listFiles();
+        long now = System.currentTimeMillis();
+        for (File tmp : (tmps == null) ? new File[0] : tmps) {
+            if ((now - tmp.lastModified()) > TMP_TIMEOUT) {
+                FileUtils.deleteDirectory(tmp);
+            }
+        }
+    }
+
+    private static long getSize(File entry) {
+        try {
+            return Long.parseLong(FileUtils.fileRead(new File(entry, "size").getAbsolutePath()).trim());
+        } catch (Exception exc) {
+            // incomplete entry (created by an older version, or damaged), evicted first
+            return Long.MAX_VALUE / 1024;
+        }
+    }
+
+    /**
+     * Copies files of a directory into another one (at the same relative path).
+     *
+     * @param targets filled with the copies
+     * @return the size of the copied files
+     */
+    static long copyFiles(File from, List<File> sources, File to, List<File> targets) throws Exception {
+        Set<File> dirs = new HashSet<File>();
+        int prefix = from.getAbsolutePath().length() + 1;
+        long back = 0;
+        for (File f : sources) {
+            File target = new File(to, f.getAbsolutePath().substring(prefix));
+            if (dirs.add(target.getParentFile())) {
+                target.getParentFile().mkdirs();
+            }
+            targets.add(target);
+            back += f.length();
+        }
+        ParallelFileOperations.copy(sources, targets);
+        return back;
+    }
+
+    private FileLock lock() throws IOException {
+        dir_.mkdirs();
+        RandomAccessFile file = new RandomAccessFile(new File(dir_, ".lock"), "rw");
+        try {
+            return file.getChannel().lock();
+        } catch (IOException exc) {
+            file.close();
+            throw exc;
+        }
+    }
+
+    private static void unlock(FileLock lock) throws IOException {
+        try {
+            lock.release();
+        } finally {
+            lock.channel().close();
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package org.scala_tools.maven.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A local build cache in front of a shared one : entries are read from the local cache first, and the entries read
+ * from the shared cache are stored into the local one.
+ */
+public class TieredBuildCache implements BuildCache {
+    private final BuildCache local_;
+    private final BuildCache shared_;
+
+    public TieredBuildCache(BuildCache local, BuildCache shared) {
+        local_ = local;
+        shared_ = shared;
+    }
+
+    public List<File> restore(String key, File outputDir) throws IOException {
+        List<File> back = local_.restore(key, outputDir);
+        if (back == null) {
+            back = shared_.restore(key, outputDir);
+            if (back != null) {
+                local_.store(key, outputDir, back);
+            }
+        }
+        return back;
+    }
+
+    public void store(String key, File outputDir, List<File> classFiles) throws IOException {
+        local_.store(key, outputDir, classFiles);
+        shared_.store(key, outputDir, classFiles);
+    }
+}
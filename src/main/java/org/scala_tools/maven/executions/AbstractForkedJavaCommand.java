@@ -1,9 +1,16 @@
 package org.scala_tools.maven.executions;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoFailureException;
+import org.codehaus.plexus.util.IOUtil;
 import org.codehaus.plexus.util.StringUtils;
 import org.scala_tools.maven.StreamLogger;
 import org.scala_tools.maven.StreamPiper;
@@ -13,10 +20,16 @@ import org.scala_tools.maven.StreamPiper;
  * @author J. Suereth
  */
 public abstract class AbstractForkedJavaCommand extends AbstractJavaMainCaller {
+   /** maximum wait (in ms) for the end of the output, after the exit of the process */
+   private static final long READER_TIMEOUT = 10000;
+
    /**
     * Location of java executable.
     */
    protected String javaExec;
+
+   /** files created by {@link #buildCommand()} (arg files), deleted when the process ends */
+   protected List<File> tempFiles = new ArrayList<File>();
    
    public AbstractForkedJavaCommand(AbstractMojo requester,
          String mainClassName, String classpath, String[] jvmArgs, String[] args)
@@ -47,25 +60,93 @@ public abstract class AbstractForkedJavaCommand extends AbstractJavaMainCaller {
           requester.getLog().debug("cmd: " + " " + StringUtils.join(cmd, " "));
       }
       ProcessBuilder pb = new ProcessBuilder(cmd);
-      //pb.directory("myDir");
+      pb.directory(workingDirectory);
       if (!logOnly) {
           pb = pb.redirectErrorStream(true);
       }
-      Process p = pb.start();
+      Process p;
+      try {
+          p = pb.start();
+      } catch (IOException exc) {
+          deleteTempFiles();
+          throw exc;
+      }
+      List<Thread> readers = new ArrayList<Thread>();
       if (logOnly) {
-          new StreamLogger(p.getErrorStream(), requester.getLog(), true).start();
-          new StreamLogger(p.getInputStream(), requester.getLog(), false).start();
+          readers.add(new StreamLogger(p.getErrorStream(), requester.getLog(), true, outputListeners));
+          readers.add(new StreamLogger(p.getInputStream(), requester.getLog(), false, outputListeners));
+      } else if (!outputListeners.isEmpty()) {
+          readers.add(new LinePiper(p.getInputStream(), outputListeners));
+          new StreamPiper(System.in, p.getOutputStream()).start();
       } else {
           new StreamPiper(p.getInputStream(), System.out).start();
           new StreamPiper(System.in, p.getOutputStream()).start();
           //new ConsolePiper(p).start();
       }
-      int retVal = p.waitFor();
+      for (Thread reader : readers) {
+          reader.start();
+      }
+      int retVal;
+      try {
+          retVal = p.waitFor();
+          // the listeners should see the last lines before the exit
+          for (Thread reader : readers) {
+              reader.join(READER_TIMEOUT);
+          }
+      } catch (InterruptedException exc) {
+          // the caller is cancelled, don't let the process run alone
+          p.destroy();
+          throw exc;
+      } finally {
+          deleteTempFiles();
+      }
+      for (OutputListener listener : outputListeners) {
+          listener.exited(retVal);
+      }
       if (throwFailure && (retVal != 0)) {
           throw new MojoFailureException("command line returned non-zero value:" + retVal);
       }
    }
 
+   /** Deletes the files created for the process, once it has read them. */
+   protected void deleteTempFiles() {
+      for (File f : tempFiles) {
+         f.delete();
+      }
+      tempFiles.clear();
+   }
+
+   /**
+    * Copies the lines of the output of the process to System.out, and notifies the listeners.
+    */
+   private static class LinePiper extends Thread {
+      private final InputStream in_;
+      private final List<OutputListener> listeners_;
+
+      LinePiper(InputStream in, List<OutputListener> listeners) {
+         in_ = in;
+         listeners_ = listeners;
+      }
+
+      @Override
+      public void run() {
+         BufferedReader reader = new BufferedReader(new InputStreamReader(in_));
+         try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+               System.out.println(line);
+               for (OutputListener listener : listeners_) {
+                  listener.lineWritten(line);
+               }
+            }
+         } catch (IOException exc) {
+            // the process was destroyed
+         } finally {
+            IOUtil.close(reader);
+         }
+      }
+   }
+
    public void spawn(boolean displayCmd) throws Exception {
       String[] cmd = buildCommand();
       if (displayCmd) {
@@ -74,6 +155,12 @@ public abstract class AbstractForkedJavaCommand extends AbstractJavaMainCaller {
           requester.getLog().debug("cmd: " + " " + StringUtils.join(cmd, " "));
       }
       ProcessBuilder pb = new ProcessBuilder(cmd);
+      pb.directory(workingDirectory);
+      // the spawned process may read its files after the return, they are deleted at the exit of the JVM
+      for (File f : tempFiles) {
+         f.deleteOnExit();
+      }
+      tempFiles.clear();
       pb.start();
    }
 }
\ No newline at end of file
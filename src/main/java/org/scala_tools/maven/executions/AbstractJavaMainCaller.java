@@ -6,6 +6,7 @@ import java.util.Arrays;
 import java.util.List;
 
 import org.apache.maven.plugin.AbstractMojo;
+import org.scala_tools.maven.incremental.PathTable;
 /**
  * Abstract helper implementation for JavaMainCaller interface.
  * @author josh
@@ -19,6 +20,11 @@ public abstract class AbstractJavaMainCaller implements JavaMainCaller {
     protected String mainClassName;
     protected List<String> jvmArgs = new ArrayList<String>();
     protected List<String> args = new ArrayList<String>();
+    protected List<OutputListener> outputListeners = new ArrayList<OutputListener>();
+    protected File workingDirectory;
+    /** the table of the sources kept by their ids (see {@link #keepSources(PathTable, List)}) */
+    protected PathTable sourcePaths;
+    protected List<Integer> sources = new ArrayList<Integer>();
 
 
     protected AbstractJavaMainCaller(AbstractMojo requester, String mainClassName, String classpath, String[] jvmArgs, String[] args) throws Exception {
@@ -92,6 +98,26 @@ public abstract class AbstractJavaMainCaller implements JavaMainCaller {
         run(displayCmd, true);
     }
 
+    public void addOutputListener(OutputListener listener) {
+        outputListeners.add(listener);
+    }
+
+    public void setWorkingDirectory(File dir) {
+        workingDirectory = dir;
+    }
+
+    public void addSources(PathTable paths, List<Integer> ids) {
+        for (int id : ids) {
+            addArgs(paths.getPath(id));
+        }
+    }
+
+    /** Keeps the sources by their ids, for the commands writing them into an arg file (after args). */
+    protected void keepSources(PathTable paths, List<Integer> ids) {
+        sourcePaths = paths;
+        sources.addAll(ids);
+    }
+
     public void setLogOnly(boolean v) {
         logOnly = v;
     }
@@ -0,0 +1,297 @@
+package org.scala_tools.maven.executions;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Long running compiler JVM, started and called by {@link DaemonJavaMainCaller}.
+ *
+ * The daemon listens on a loopback port, written (with a random token) in the port file.
+ * A connection carries one request, every line encoded in UTF-8 :
+ * <pre>
+ * request  : token, then "COMPILE n" followed by n lines of arguments, or "PING", or "STOP"
+ * response : lines "O text" (standard output), "E text" (error output), then "END exitCode"
+ *            ("PONG" for PING, "BYE" for STOP)
+ * </pre>
+ * Requests are processed one at a time. The daemon compiles a small source at start to warm up the compiler,
+ * and stops after idleTimeout seconds without request. The port file is readable only by its owner (the token
+ * authorizes the requests). When several clients start a daemon at the same time, the last port file written wins :
+ * the other daemons, unreachable, stop as soon as they see their port file replaced.
+ *
+ * Usage : CompileDaemon portFile idleTimeout mainClassName
+ */
+public class CompileDaemon {
+    private static final String WARMUP_SOURCE = "object Warmup {\n"
+        + "  case class Item(name : String, size : Int)\n"
+        + "  def total(items : List[Item]) : Int = items.filter(_.size > 0).map(_.size).foldLeft(0)(_ + _)\n"
+        + "  def names(items : List[Item]) = items.map { case Item(n, _) => n.toUpperCase }.mkString(\",\")\n"
+        + "}\n";
+
+    /** Delay (in milliseconds) between two checks of the port file while idle. */
+    private static final int OWNER_CHECK_INTERVAL = 5000;
+
+    private final File portFile_;
+    private final int idleTimeout_;
+    private final String mainClassName_;
+    private final String token_;
+
+    public static void main(String[] args) throws Exception {
+        CompileDaemon daemon = new CompileDaemon(new File(args[0]), Integer.parseInt(args[1]), args[2]);
+        daemon.serve();
+        // the compiler could leave non daemon threads
+        System.exit(0);
+    }
+
+    public CompileDaemon(File portFile, int idleTimeout, String mainClassName) {
+        portFile_ = portFile;
+        idleTimeout_ = idleTimeout;
+        mainClassName_ = mainClassName;
+        byte[] bytes = new byte[16];
+        new SecureRandom().nextBytes(bytes);
+        StringBuilder token = new StringBuilder();
+        for (byte b : bytes) {
+            token.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        token_ = token.toString();
+    }
+
+    public void serve() throws Exception {
+        // nobody reads the output of the process once started
+        PrintStream log = new PrintStream(new FileOutputStream(portFile_.getPath() + ".log", true), true);
+        System.setOut(log);
+        System.setErr(log);
+        ServerSocket server = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        try {
+            long idleTimeout = idleTimeout_ * 1000L;
+            server.setSoTimeout((int) Math.min(idleTimeout, OWNER_CHECK_INTERVAL));
+            writePortFile(server.getLocalPort());
+            System.out.println(String.format("%tc daemon listening on port %d", System.currentTimeMillis(), server.getLocalPort()));
+            warmUp();
+            long lastRequest = System.currentTimeMillis();
+            boolean running = isOwnPortFile();
+            while (running) {
+                Socket socket;
+                try {
+                    socket = server.accept();
+                } catch (SocketTimeoutException exc) {
+                    if (!isOwnPortFile()) {
+                        System.out.println(String.format("%tc port file replaced by another daemon, stopping", System.currentTimeMillis()));
+                        break;
+                    }
+                    if (System.currentTimeMillis() - lastRequest >= idleTimeout) {
+                        System.out.println(String.format("%tc idle timeout, stopping", System.currentTimeMillis()));
+                        break;
+                    }
+                    continue;
+                }
+                lastRequest = System.currentTimeMillis();
+                try {
+                    running = handle(socket);
+                } catch (Exception exc) {
+                    exc.printStackTrace();
+                } finally {
+                    socket.close();
+                }
+            }
+        } finally {
+            server.close();
+            if (isOwnPortFile()) {
+                portFile_.delete();
+            }
+        }
+    }
+
+    /** @return false if the daemon should stop */
+    private boolean handle(Socket socket) throws Exception {
+        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+        final Writer out = new OutputStreamWriter(socket.getOutputStream(), "UTF-8");
+        try {
+            if (!token_.equals(in.readLine())) {
+                return true;
+            }
+            String request = in.readLine();
+            if ("PING".equals(request)) {
+                out.write("PONG\n");
+            } else if ("STOP".equals(request)) {
+                out.write("BYE\n");
+                return false;
+            } else if ((request != null) && request.startsWith("COMPILE ")) {
+                int nbArgs = Integer.parseInt(request.substring("COMPILE ".length()).trim());
+                List<String> args = new ArrayList<String>(nbArgs);
+                for (int i = 0; i < nbArgs; i++) {
+                    args.add(in.readLine());
+                }
+                int exitCode = compile(args, new PrintStream(new PrefixedLineStream(out, "O ")), new PrintStream(new PrefixedLineStream(out, "E ")));
+                out.write("END " + exitCode + "\n");
+            }
+            return true;
+        } finally {
+            out.flush();
+        }
+    }
+
+    private int compile(List<String> args, PrintStream stdout, PrintStream stderr) {
+        PrintStream previousOut = System.out;
+        PrintStream previousErr = System.err;
+        ClassLoader cl = getClass().getClassLoader();
+        System.setOut(stdout);
+        System.setErr(stderr);
+        // scala.Console keeps its own reference to the streams
+        setConsoleStream(cl, "setOut", stdout);
+        setConsoleStream(cl, "setErr", stderr);
+        try {
+            return MainHelper.runProcess(mainClassName_, args, cl) ? 0 : 1;
+        } catch (Throwable exc) {
+            exc.printStackTrace(stderr);
+            return 2;
+        } finally {
+            stdout.flush();
+            stderr.flush();
+            System.setOut(previousOut);
+            System.setErr(previousErr);
+            setConsoleStream(cl, "setOut", previousOut);
+            setConsoleStream(cl, "setErr", previousErr);
+        }
+    }
+
+    private static void setConsoleStream(ClassLoader cl, String setter, PrintStream stream) {
+        try {
+            cl.loadClass("scala.Console").getMethod(setter, PrintStream.class).invoke(null, stream);
+        } catch (Exception exc) {
+            // not a scala tool
+        }
+    }
+
+    /** Compiles a small source, so the first request doesn't pay the loading and the JIT of the compiler. */
+    private void warmUp() {
+        File dir = new File(portFile_.getPath() + ".warmup");
+        try {
+            dir.mkdirs();
+            File source = new File(dir, "Warmup.scala");
+            FileWriter writer = new FileWriter(source);
+            try {
+                writer.write(WARMUP_SOURCE);
+            } finally {
+                writer.close();
+            }
+            for (int i = 0; i < 2; i++) {
+                // the classpath of the daemon contains the scala library
+                compile(Arrays.asList("-classpath", System.getProperty("java.class.path"), "-d", dir.getAbsolutePath(), source.getAbsolutePath()), System.out, System.err);
+            }
+        } catch (Exception exc) {
+            exc.printStackTrace();
+        } finally {
+            delete(dir);
+        }
+    }
+
+    private static void delete(File f) {
+        File[] children = f.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        f.delete();
+    }
+
+    /**
+     * Writes the port file, with a rename so a client never reads a partial file. The file is restricted to its
+     * owner before the token is written : the directory (in the local repository) can be shared. The temporary file
+     * is unique, daemons started at the same time don't write into the same file.
+     */
+    private void writePortFile(int port) throws IOException {
+        File tmp = File.createTempFile(portFile_.getName(), ".tmp", portFile_.getParentFile());
+        // without permission bits (windows), the file inherits the access rights of the user's directory
+        tmp.setReadable(false, false);
+        tmp.setReadable(true, true);
+        tmp.setWritable(false, false);
+        tmp.setWritable(true, true);
+        PrintWriter writer = new PrintWriter(new FileWriter(tmp));
+        try {
+            writer.println(port);
+            writer.println(token_);
+        } finally {
+            writer.close();
+        }
+        portFile_.delete();
+        if (!tmp.renameTo(portFile_)) {
+            tmp.delete();
+            throw new IOException("can't write " + portFile_);
+        }
+    }
+
+    /** @return true if the port file was not replaced by another daemon */
+    private boolean isOwnPortFile() {
+        try {
+            BufferedReader reader = new BufferedReader(new FileReader(portFile_));
+            try {
+                reader.readLine();
+                return token_.equals(reader.readLine());
+            } finally {
+                reader.close();
+            }
+        } catch (IOException exc) {
+            return false;
+        }
+    }
+
+    /** Sends each line written, with a prefix, to the client. */
+    private static class PrefixedLineStream extends OutputStream {
+        private final Writer out_;
+        private final String prefix_;
+        private final ByteArrayOutputStream line_ = new ByteArrayOutputStream();
+
+        PrefixedLineStream(Writer out, String prefix) {
+            out_ = out;
+            prefix_ = prefix;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (b == '\n') {
+                sendLine();
+            } else if (b != '\r') {
+                line_.write(b);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (line_.size() > 0) {
+                sendLine();
+            }
+            out_.flush();
+        }
+
+        private void sendLine() throws IOException {
+            // the compiler writes with the default encoding
+            String line = line_.toString();
+            line_.reset();
+            synchronized (out_) {
+                out_.write(prefix_);
+                out_.write(line);
+                out_.write('\n');
+            }
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package org.scala_tools.maven.executions;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.IOUtil;
+import org.codehaus.plexus.util.StringUtils;
+
+/**
+ * Runs the main class in a {@link CompileDaemon}, started if no daemon is running for the same jvm arguments
+ * (classpath of the tool included). The port file of a dead daemon is detected (connection refused) and replaced.
+ *
+ * @see CompileDaemon
+ */
+public class DaemonJavaMainCaller extends AbstractForkedJavaCommand {
+    /** max duration (ms) to wait for a new daemon */
+    private static final long STARTUP_TIMEOUT = 60 * 1000;
+
+    private final File daemonDir_;
+    private final int idleTimeout_;
+
+    /**
+     * @param daemonDir directory of the port (and log) files of the daemons
+     * @param idleTimeout duration (in seconds) after which a daemon without request stops
+     */
+    public DaemonJavaMainCaller(AbstractMojo requester, String mainClassName, String classpath, File daemonDir, int idleTimeout, String[] jvmArgs, String[] args) throws Exception {
+        super(requester, mainClassName, classpath, jvmArgs, args);
+        daemonDir_ = daemonDir;
+        idleTimeout_ = idleTimeout;
+        addToClasspath(new File(MainHelper.locateJar(CompileDaemon.class)));
+    }
+
+    @Override
+    protected String[] buildCommand() throws Exception {
+        ArrayList<String> back = new ArrayList<String>(jvmArgs.size() + 5);
+        back.add(javaExec);
+        back.addAll(jvmArgs);
+        back.add(CompileDaemon.class.getName());
+        back.add(getPortFile().getAbsolutePath());
+        back.add(String.valueOf(idleTimeout_));
+        back.add(mainClassName);
+        return back.toArray(new String[back.size()]);
+    }
+
+    @Override
+    public void run(boolean displayCmd, boolean throwFailure) throws Exception {
+        if (displayCmd) {
+            requester.getLog().info("cmd (daemon): " + mainClassName + " " + StringUtils.join(args.iterator(), " "));
+        }
+        File portFile = getPortFile();
+        Socket socket = connect(portFile);
+        if (socket == null) {
+            socket = startDaemon(portFile, displayCmd);
+        }
+        int retVal;
+        try {
+            retVal = compile(socket);
+        } finally {
+            socket.close();
+        }
+        if (throwFailure && (retVal != 0)) {
+            throw new MojoFailureException("compile daemon returned non-zero value:" + retVal);
+        }
+    }
+
+    /** Sends the request to the daemon from another thread, without waiting for its end. */
+    @Override
+    public void spawn(final boolean displayCmd) throws Exception {
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    DaemonJavaMainCaller.this.run(displayCmd, false);
+                } catch (Exception exc) {
+                    requester.getLog().warn("request to the compile daemon failed (" + exc.getMessage() + ")");
+                }
+            }
+        };
+        t.start();
+    }
+
+    /** Sends the request, and logs the output of the compiler like {@link org.scala_tools.maven.StreamLogger}. */
+    private int compile(Socket socket) throws Exception {
+        Writer out = new OutputStreamWriter(socket.getOutputStream(), "UTF-8");
+        out.write(readToken(getPortFile()) + "\n");
+        out.write("COMPILE " + args.size() + "\n");
+        for (String arg : args) {
+            out.write(arg);
+            out.write('\n');
+        }
+        out.flush();
+        Log log = requester.getLog();
+        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.startsWith("O ")) {
+                log.info(line.substring(2));
+                notifyListeners(line.substring(2));
+            } else if (line.startsWith("E ")) {
+                log.warn(line.substring(2));
+                notifyListeners(line.substring(2));
+            } else if (line.startsWith("END ")) {
+                return Integer.parseInt(line.substring(4).trim());
+            }
+        }
+        throw new IOException("compile daemon closed the connection before the end of the compilation");
+    }
+
+    private void notifyListeners(String line) {
+        for (OutputListener listener : outputListeners) {
+            listener.lineWritten(line);
+        }
+    }
+
+    private Socket startDaemon(File portFile, boolean displayCmd) throws Exception {
+        String[] cmd = buildCommand();
+        if (displayCmd) {
+            requester.getLog().info("cmd: " + " " + StringUtils.join(cmd, " "));
+        }
+        requester.getLog().info("starting compile daemon (log : " + portFile.getPath() + ".log)");
+        daemonDir_.mkdirs();
+        portFile.delete();
+        Process p = new ProcessBuilder(cmd).start();
+        // the daemon writes into its log file
+        IOUtil.close(p.getOutputStream());
+        IOUtil.close(p.getInputStream());
+        IOUtil.close(p.getErrorStream());
+        long deadline = System.currentTimeMillis() + STARTUP_TIMEOUT;
+        while (System.currentTimeMillis() < deadline) {
+            Socket back = connect(portFile);
+            if (back != null) {
+                return back;
+            }
+            try {
+                throw new IllegalStateException("compile daemon exited with value " + p.exitValue() + ", see " + portFile.getPath() + ".log");
+            } catch (IllegalThreadStateException exc) {
+                // still running
+            }
+            Thread.sleep(100);
+        }
+        p.destroy();
+        throw new IllegalStateException("compile daemon not started after " + (STARTUP_TIMEOUT / 1000) + "s, see " + portFile.getPath() + ".log");
+    }
+
+    /**
+     * @return a connection to the daemon, or null if no daemon is listening (the port file of a dead daemon, refusing
+     *         the connection, is removed)
+     */
+    private Socket connect(File portFile) throws IOException {
+        String[] content;
+        try {
+            content = readPortFile(portFile);
+        } catch (FileNotFoundException exc) {
+            // no daemon, or it stopped since
+            return null;
+        }
+        Socket back = new Socket();
+        try {
+            back.connect(new InetSocketAddress("127.0.0.1", Integer.parseInt(content[0].trim())), 2000);
+            return back;
+        } catch (ConnectException exc) {
+            back.close();
+            // unless another daemon replaced the port file since it was read
+            if (Arrays.equals(content, readPortFileIfExists(portFile))) {
+                portFile.delete();
+            }
+            return null;
+        } catch (IOException exc) {
+            back.close();
+            throw (IOException) new IOException("can't connect to the compile daemon of " + portFile.getPath() + " (" + exc.getMessage() + ")").initCause(exc);
+        }
+    }
+
+    private static String readToken(File portFile) throws IOException {
+        return readPortFile(portFile)[1].trim();
+    }
+
+    private static String[] readPortFileIfExists(File portFile) throws IOException {
+        try {
+            return readPortFile(portFile);
+        } catch (FileNotFoundException exc) {
+            return null;
+        }
+    }
+
+    private static String[] readPortFile(File portFile) throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader(portFile));
+        try {
+            return new String[] {reader.readLine(), reader.readLine()};
+        } finally {
+            reader.close();
+        }
+    }
+
+    /** one daemon per main class and jvm arguments */
+    private File getPortFile() throws Exception {
+        MessageDigest md = MessageDigest.getInstance("MD5");
+        md.update(mainClassName.getBytes("UTF-8"));
+        for (String arg : jvmArgs) {
+            md.update((byte) 0);
+            md.update(arg.getBytes("UTF-8"));
+        }
+        byte[] digest = md.digest();
+        StringBuilder name = new StringBuilder("daemon-");
+        for (int i = 0; i < 8; i++) {
+            name.append(Character.forDigit((digest[i] >> 4) & 0xF, 16)).append(Character.forDigit(digest[i] & 0xF, 16));
+        }
+        return new File(daemonDir_, name.append(".port").toString());
+    }
+}
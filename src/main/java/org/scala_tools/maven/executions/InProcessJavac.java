@@ -0,0 +1,130 @@
+package org.scala_tools.maven.executions;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticListener;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Compiles java sources with the compiler of the JDK (javax.tools), in the current JVM.
+ *
+ * The file managers are cached by classpath and shared by the compilations of the build (and of the cc loop), so
+ * the jars of the classpath are opened and indexed once. Entries beyond the {@link #MAX_FILE_MANAGERS} most recently
+ * used are closed.
+ */
+public class InProcessJavac {
+    private static final int MAX_FILE_MANAGERS = 4;
+
+    /** file managers by classpath, in access order (eldest first) */
+    private static final Map<String, StandardJavaFileManager> fileManagers_ = new LinkedHashMap<String, StandardJavaFileManager>(16, 0.75f, true);
+
+    private final AbstractMojo requester_;
+    private final List<String> options_;
+
+    /**
+     * @return true if the JVM provides a java compiler (it's a JDK, not a JRE)
+     */
+    public static boolean isAvailable() {
+        return ToolProvider.getSystemJavaCompiler() != null;
+    }
+
+    /**
+     * @param options the options of javac (without classpath and destination)
+     */
+    public InProcessJavac(AbstractMojo requester, String[] options) {
+        requester_ = requester;
+        options_ = (options == null) ? new ArrayList<String>() : Arrays.asList(options);
+    }
+
+    /**
+     * @param quiet if true, the diagnostics are not logged (the caller will retry)
+     * @return false if javac reported errors
+     */
+    public boolean compile(Collection<File> files, List<String> classpathElements, File outputDir, final boolean quiet) throws IOException {
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        List<File> classpath = new ArrayList<File>(classpathElements.size() + 1);
+        if (!classpathElements.contains(outputDir.getAbsolutePath())) {
+            classpath.add(outputDir);
+        }
+        for (String element : classpathElements) {
+            classpath.add(new File(element));
+        }
+        final Log log = requester_.getLog();
+        DiagnosticListener<JavaFileObject> listener = new DiagnosticListener<JavaFileObject>() {
+            public void report(Diagnostic<? extends JavaFileObject> diagnostic) {
+                if (quiet) {
+                    return;
+                }
+                String msg = diagnostic.getMessage(Locale.getDefault());
+                if (diagnostic.getSource() != null) {
+                    msg = diagnostic.getSource().toUri().getPath() + ":" + diagnostic.getLineNumber() + ": " + msg;
+                }
+                switch (diagnostic.getKind()) {
+                    case ERROR:
+                        log.error(msg);
+                        break;
+                    case WARNING:
+                    case MANDATORY_WARNING:
+                        log.warn(msg);
+                        break;
+                    default:
+                        log.info(msg);
+                        break;
+                }
+            }
+        };
+        StandardJavaFileManager fileManager = getFileManager(javac, classpathElements.toString());
+        // a file manager can't be used by several compilations at the same time
+        synchronized (fileManager) {
+            // setting the locations resets the listings of directories cached by the file manager (the output changes)
+            fileManager.setLocation(StandardLocation.CLASS_PATH, classpath);
+            fileManager.setLocation(StandardLocation.SOURCE_PATH, Collections.<File>emptyList());
+            fileManager.setLocation(StandardLocation.CLASS_OUTPUT, Collections.singletonList(outputDir));
+            Iterable<? extends JavaFileObject> units = fileManager.getJavaFileObjectsFromFiles(files);
+            return javac.getTask(null, fileManager, listener, options_, null, units).call();
+        }
+    }
+
+    private static synchronized StandardJavaFileManager getFileManager(JavaCompiler javac, String key) {
+        StandardJavaFileManager back = fileManagers_.get(key);
+        if (back == null) {
+            back = javac.getStandardFileManager(null, null, null);
+            fileManagers_.put(key, back);
+            int toRemove = fileManagers_.size() - MAX_FILE_MANAGERS;
+            for (Iterator<StandardJavaFileManager> it = fileManagers_.values().iterator(); (toRemove > 0) && it.hasNext(); toRemove--) {
+                StandardJavaFileManager eldest = it.next();
+                it.remove();
+                close(eldest);
+            }
+        }
+        return back;
+    }
+
+    private static void close(StandardJavaFileManager fileManager) {
+        synchronized (fileManager) {
+            try {
+                fileManager.close();
+            } catch (IOException exc) {
+                // ignore
+            }
+        }
+    }
+}
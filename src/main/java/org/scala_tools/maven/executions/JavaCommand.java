@@ -25,6 +25,7 @@ import java.util.logging.Logger;
 import org.apache.maven.plugin.AbstractMojo;
 import org.codehaus.plexus.util.DirectoryScanner;
 import org.codehaus.plexus.util.StringUtils;
+import org.scala_tools.maven.incremental.PathTable;
 
 /**
  * Helper class use to call a java Main in an external process.
@@ -87,10 +88,15 @@ public class JavaCommand extends AbstractForkedJavaCommand {
        _forceUseArgFile = forceUseArgFile;
     }
 
+    @Override
+    public void addSources(PathTable paths, List<Integer> ids) {
+        keepSources(paths, ids);
+    }
+
     protected String[] buildCommand() throws Exception {
         ArrayList<String> back = new ArrayList<String>(2 + jvmArgs.size() + args.size());
         back.add(javaExec);
-        if (!_forceUseArgFile && (lengthOf(args, 1) + lengthOf(jvmArgs, 1) < 400)) {
+        if (!_forceUseArgFile && sources.isEmpty() && (lengthOf(args, 1) + lengthOf(jvmArgs, 1) < 400)) {
             back.addAll(jvmArgs);
             back.add(mainClassName);
             back.addAll(args);
@@ -101,7 +107,9 @@ public class JavaCommand extends AbstractForkedJavaCommand {
             back.addAll(jvmArgs);
             back.add(MainWithArgsInFile.class.getName());
             back.add(mainClassName);
-            back.add(MainHelper.createArgFile(args).getCanonicalPath());
+            File argFile = MainHelper.createArgFile(args, workingDirectory, sourcePaths, sources);
+            tempFiles.add(argFile);
+            back.add(argFile.getCanonicalPath());
         }
         return back.toArray(new String[back.size()]);
     }
@@ -1,6 +1,10 @@
 package org.scala_tools.maven.executions;
 
 import java.io.File;
+import java.util.List;
+
+import org.scala_tools.maven.incremental.PathTable;
+
 /**
  * This interface is used to create a call on a main method of a java class.
  * 
@@ -24,6 +28,18 @@ public interface JavaMainCaller {
 	public abstract void addOption(String key, boolean value);
 	/** Sets the process to *only* log errors */
 	public abstract void setLogOnly(boolean v);
+	/** Adds a listener of the output of the process. Note: Only notified by forked processes */
+	public abstract void addOutputListener(OutputListener listener);
+	/**
+	 * Sets the directory the process runs in : the source files under it may be passed relative to it.
+	 * Note: Only used by forked processes
+	 */
+	public abstract void setWorkingDirectory(File dir);
+	/**
+	 * Adds the source files (ids of their path in the table), after the arguments. The arg files write them from their
+	 * ids, relative to the working directory, the other commands add their path to the arguments.
+	 */
+	public abstract void addSources(PathTable paths, List<Integer> ids);
 
 	// TODO: avoid to have several Thread to pipe stream
 	// TODO: add support to inject startup command and shutdown command (on :quit)
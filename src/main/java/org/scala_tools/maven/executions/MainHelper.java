@@ -6,7 +6,7 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.Writer;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.net.URL;
@@ -16,11 +16,15 @@ import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.scala_tools.maven.incremental.PathTable;
+
 /**
  * 
  * @author David Bernard
  */
 public class MainHelper {
+    private static final Pattern WHITESPACE = Pattern.compile("\\s");
+
     //------------------------------ utils / shared function
 
     /**
@@ -28,8 +32,8 @@ public class MainHelper {
      * @param arg
      * @return
      */
-    private static String escapeArgumentForScalacArgumentFile(String arg) {
-        if(arg.matches(".*\\s.*")) {
+    public static String escapeArgumentForScalacArgumentFile(String arg) {
+        if(WHITESPACE.matcher(arg).find()) {
             return '"' + arg + '"';
         }
         return arg;
@@ -54,12 +58,35 @@ public class MainHelper {
      * @throws IOException
      */
     public static File createArgFile(List<String> args) throws IOException {
+       return createArgFile(args, null, null, new ArrayList<Integer>());
+    }
+
+    /**
+     * Creates a file containing all the arguments, as is, then the sources, written from their ids in the table : the
+     * sources under the base directory are written relative to it (the command should run in the base directory), the
+     * other ones absolute. The command deletes the file once the process has read it.
+     * 
+     * @param baseDir null to write the absolute paths of the sources
+     * @param paths the table of the sources (could be null without sources)
+     * @param sources the ids of the sources in the table
+     * @return
+     * @throws IOException
+     */
+    public static File createArgFile(List<String> args, File baseDir, PathTable paths, List<Integer> sources) throws IOException {
        final File argFile = File.createTempFile("scala-maven-", ".args");
-       //argFile.deleteOnExit();
-       final PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(argFile)));
+       int base = ((baseDir == null) || sources.isEmpty()) ? -1 : paths.find(baseDir.getCanonicalPath());
+       StringBuilder path = new StringBuilder();
+       final Writer out = new BufferedWriter(new FileWriter(argFile), 64 * 1024);
        try {
           for(String arg : args) {
-             out.println(escapeArgumentForScalacArgumentFile(arg));
+             out.write(escapeArgumentForScalacArgumentFile(arg));
+             out.write('\n');
+          }
+          for (int id : sources) {
+             path.setLength(0);
+             paths.appendPath(id, base, path);
+             out.write(escapeArgumentForScalacArgumentFile(path.toString()));
+             out.write('\n');
           }
        } finally {
           out.close();
@@ -104,7 +131,43 @@ public class MainHelper {
         
         mainMethod.invoke(null, new Object[] {argArray});
     }
-    
+
+    /**
+     * Runs a tool like scala.tools.nsc.Main without letting it call System.exit at the end of its main :
+     * if the class provides a static process(String[]), it's called instead of main and the errors are read
+     * from its reporter. Else falls back to {@link #runMain(String, List, ClassLoader)}.
+     *
+     * @return false if the tool reported errors
+     */
+    public static boolean runProcess(String mainClassName, List<String> args, ClassLoader cl) throws Exception {
+        Class<?> mainClass = cl.loadClass(mainClassName);
+        Method processMethod;
+        try {
+            processMethod = mainClass.getMethod("process", String[].class);
+        } catch (NoSuchMethodException exc) {
+            processMethod = null;
+        }
+        if (processMethod == null || !Modifier.isStatic(processMethod.getModifiers())) {
+            runMain(mainClassName, args, cl);
+            return true;
+        }
+        String[] argArray = args.toArray(new String[args.size()]);
+        Thread current = Thread.currentThread();
+        ClassLoader previous = current.getContextClassLoader();
+        current.setContextClassLoader(cl);
+        try {
+            processMethod.invoke(null, new Object[] {argArray});
+            Method reporterMethod = mainClass.getMethod("reporter");
+            Object reporter = reporterMethod.invoke(null);
+            return !((Boolean) reporter.getClass().getMethod("hasErrors").invoke(reporter));
+        } catch (NoSuchMethodException exc) {
+            // no reporter to query
+            return true;
+        } finally {
+            current.setContextClassLoader(previous);
+        }
+    }
+
     public static String locateJar(Class<?> c) throws Exception {
         final URL location;
         final String classLocation = c.getName().replace('.', '/') + ".class";
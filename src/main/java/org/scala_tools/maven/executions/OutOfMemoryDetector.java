@@ -0,0 +1,43 @@
+package org.scala_tools.maven.executions;
+
+/**
+ * Detects that a forked JVM ran out of memory : an OutOfMemoryError reported on its output (the heap is too small),
+ * or a process killed by the system or unable to allocate native memory (the heap is too big for the machine).
+ */
+public class OutOfMemoryDetector implements OutputListener {
+    /** exit value of a process killed by SIGKILL (the OOM killer of linux, or the limit of a container) */
+    private static final int KILLED = 128 + 9;
+
+    private volatile boolean heapExhausted_;
+    private volatile boolean killed_;
+
+    public void lineWritten(String line) {
+        if (line.indexOf("java.lang.OutOfMemoryError") > -1) {
+            heapExhausted_ = true;
+        } else if (line.indexOf("insufficient memory for the Java Runtime Environment") > -1) {
+            killed_ = true;
+        }
+    }
+
+    public void exited(int exitValue) {
+        if (exitValue == KILLED) {
+            killed_ = true;
+        }
+    }
+
+    /** @return true if the process ran out of memory */
+    public boolean isDetected() {
+        return heapExhausted_ || killed_;
+    }
+
+    /** Forgets what was detected (for a new process notifying the same detector). */
+    public void reset() {
+        heapExhausted_ = false;
+        killed_ = false;
+    }
+
+    /** @return true if the process needed more memory than the system could give (a bigger heap won't help) */
+    public boolean isKilled() {
+        return killed_;
+    }
+}
@@ -0,0 +1,12 @@
+package org.scala_tools.maven.executions;
+
+/**
+ * Listener of the output of a forked command (ex: to detect some errors of the process).
+ */
+public interface OutputListener {
+    /** Called for each line written by the process, on its standard or error output. */
+    void lineWritten(String line);
+
+    /** Called when the process exited, after its last line. */
+    void exited(int exitValue);
+}
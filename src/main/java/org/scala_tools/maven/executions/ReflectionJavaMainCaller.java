@@ -1,12 +1,7 @@
 package org.scala_tools.maven.executions;
 
-import java.io.File;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.net.URLClassLoader;
-import java.util.ArrayList;
-
 import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoFailureException;
 import org.codehaus.plexus.util.StringUtils;
 /**
  * This class will call a java main method via reflection.
@@ -19,26 +14,41 @@ import org.codehaus.plexus.util.StringUtils;
 public class ReflectionJavaMainCaller extends AbstractJavaMainCaller {
 
 	private ClassLoader cl = null;
+	private String cacheKey = null;
+	private String classpath = null;
 	
 	public ReflectionJavaMainCaller(AbstractMojo requester,
 			String mainClassName, String classpath, String[] jvmArgs,
 			String[] args) throws Exception {
+		this(requester, mainClassName, classpath, null, jvmArgs, args);
+	}
+
+	/**
+	 * @param cacheKey if not null, the classloader (and the tool loaded in it) is shared, via {@link ToolClassLoaderCache},
+	 *        with the other callers using the same key during the build.
+	 */
+	public ReflectionJavaMainCaller(AbstractMojo requester,
+			String mainClassName, String classpath, String cacheKey, String[] jvmArgs,
+			String[] args) throws Exception {
 		super(requester, mainClassName, "", jvmArgs, args);
-		
-		//Pull out classpath and create class loader
-		ArrayList<URL> urls = new ArrayList<URL>();
-		for(String path : classpath.split(File.pathSeparator)) {
-			try {
-				urls.add(new File(path).toURI().toURL());
-			} catch (MalformedURLException e) {
-				//TODO - Do something usefull here...
-				requester.getLog().error(e);
-			}
+		if (cacheKey == null) {
+			cl = ToolClassLoaderCache.newClassLoader(classpath);
+		} else {
+			this.cacheKey = cacheKey;
+			this.classpath = classpath;
 		}
-		cl = new URLClassLoader(urls.toArray(new URL[urls.size()]), (ClassLoader)null);
 	}
 
-	
+	/** @return the classloader of the tool, acquired from the cache if it's shared */
+	private ClassLoader acquire() {
+		return (cacheKey == null) ? cl : ToolClassLoaderCache.acquire(cacheKey, classpath);
+	}
+
+	private void release(ClassLoader loader) {
+		if (cacheKey != null) {
+			ToolClassLoaderCache.release(loader);
+		}
+	}
 
 	public void addJvmArgs(String... args) {
 		//TODO - Ignore classpath		
@@ -46,7 +56,9 @@ public class ReflectionJavaMainCaller extends AbstractJavaMainCaller {
 
 	public void run(boolean displayCmd, boolean throwFailure) throws Exception {
 		try {
-			runInternal(displayCmd);
+			if (!runInternal(displayCmd) && throwFailure) {
+				throw new MojoFailureException(mainClassName + " reported errors");
+			}
 		} catch (Exception e) {
 			if(throwFailure) {
 				throw e;
@@ -58,24 +70,42 @@ public class ReflectionJavaMainCaller extends AbstractJavaMainCaller {
 		Thread t = new Thread() {
 			@Override
 			public void run() {
+				ClassLoader loader = acquire();
 				try {
-					runInternal(displayCmd);
+					// long running (eg: a compile server), so not serialized with the other runs
+					if(displayCmd) {
+						requester.getLog().info("cmd : " + mainClassName + "(" + StringUtils.join(args.toArray(), ",")+")");
+					}
+					MainHelper.runMain(mainClassName, args, loader);
 				} catch (Exception e) {
 					// Ignore
+				} finally {
+					release(loader);
 				}
 			}
 		};
 		t.start();
 	}
 	
-	/** Runs the main method of a java class */
-	private void runInternal(boolean displayCmd) throws Exception {
+	/**
+	 * Runs the main method of a java class.
+	 * Runs are serialized per classloader, as a shared tool (like scalac's Main) keeps its state in static fields.
+	 *
+	 * @return false if the tool reported errors
+	 */
+	private boolean runInternal(boolean displayCmd) throws Exception {
         String[] argArray = args.toArray(new String[args.size()]);
         if(displayCmd) {
             requester.getLog().info("cmd : " + mainClassName + "(" + StringUtils.join(argArray, ",")+")");
         }
-
-        MainHelper.runMain(mainClassName, args, cl);
+        ClassLoader loader = acquire();
+        try {
+            synchronized(loader) {
+                return MainHelper.runProcess(mainClassName, args, loader);
+            }
+        } finally {
+            release(loader);
+        }
 	}
 	
 
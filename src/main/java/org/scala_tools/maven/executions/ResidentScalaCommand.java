@@ -0,0 +1,239 @@
+package org.scala_tools.maven.executions;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.IOUtil;
+import org.codehaus.plexus.util.StringUtils;
+
+/**
+ * Runs scalac in resident mode (-Xresident) in a child process kept alive for the build : the first call starts
+ * the process with the options, next calls with the same options (classpath and output directory included) only
+ * write the files to compile on the standard input of the process, and read the output until the next prompt.
+ * The processes not used for {@link #IDLE_TIMEOUT} ms, or beyond the {@link #MAX_RESIDENTS} most recently used, are
+ * stopped, as a reactor would start one per module (and per main and test output directory).
+ *
+ * Only the trailing .scala and .java arguments are sent as files, the resident compiler ignores other options
+ * sent on its input. The resident compiler splits its input on whitespace, so paths with spaces can't be sent :
+ * {@link #canRun()} should be checked before running.
+ */
+public class ResidentScalaCommand extends AbstractForkedJavaCommand {
+    private static final String PROMPT = "nsc> ";
+    private static final Pattern ERROR_LINE = Pattern.compile("(^|.*:\\d+: )error: .*");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s");
+    private static final long IDLE_TIMEOUT = 5 * 60 * 1000;
+    private static final int MAX_RESIDENTS = 4;
+
+    /** resident compilers by command line, in access order (eldest first) */
+    private static final Map<String, Resident> residents_ = new LinkedHashMap<String, Resident>(16, 0.75f, true);
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                synchronized (residents_) {
+                    for (Resident resident : residents_.values()) {
+                        resident.destroy();
+                    }
+                    residents_.clear();
+                }
+            }
+        });
+    }
+
+    public ResidentScalaCommand(AbstractMojo requester, String mainClassName, String classpath, String[] jvmArgs, String[] args) throws Exception {
+        super(requester, mainClassName, classpath, jvmArgs, args);
+    }
+
+    /** @return false if the files can't be sent to a resident compiler */
+    public boolean canRun() {
+        for (String file : getFiles()) {
+            if (WHITESPACE.matcher(file).find()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    protected String[] buildCommand() throws Exception {
+        List<String> options = args.subList(0, args.size() - getFiles().size());
+        ArrayList<String> back = new ArrayList<String>(jvmArgs.size() + 4);
+        back.add(javaExec);
+        back.addAll(jvmArgs);
+        back.add(MainWithArgsInFile.class.getName());
+        back.add(mainClassName);
+        List<String> residentOptions = new ArrayList<String>(options);
+        residentOptions.add("-Xresident");
+        File argFile = MainHelper.createArgFile(residentOptions);
+        tempFiles.add(argFile);
+        back.add(argFile.getCanonicalPath());
+        return back.toArray(new String[back.size()]);
+    }
+
+    @Override
+    public void run(boolean displayCmd, boolean throwFailure) throws Exception {
+        addToClasspath(new File(MainHelper.locateJar(MainHelper.class)));
+        List<String> options = args.subList(0, args.size() - getFiles().size());
+        String key = StringUtils.join(jvmArgs.iterator(), "\n") + "\n" + mainClassName + "\n" + StringUtils.join(options.iterator(), "\n");
+        Resident resident;
+        synchronized (residents_) {
+            resident = residents_.get(key);
+            if ((resident != null) && !resident.isAlive()) {
+                resident.destroy();
+                resident = null;
+            }
+            if (resident == null) {
+                String[] cmd = buildCommand();
+                if (displayCmd) {
+                    requester.getLog().info("cmd: " + " " + StringUtils.join(cmd, " "));
+                }
+                requester.getLog().info("starting resident compiler");
+                try {
+                    resident = new Resident(new ProcessBuilder(cmd).redirectErrorStream(true).start());
+                    residents_.put(key, resident);
+                    resident.readUntilPrompt(requester.getLog(), new ArrayList<OutputListener>());
+                } finally {
+                    // the options are read at the start
+                    deleteTempFiles();
+                }
+            }
+            resident.users++;
+            evict(System.currentTimeMillis());
+        }
+        if (displayCmd) {
+            requester.getLog().info("cmd (resident): " + StringUtils.join(getFiles().iterator(), " "));
+        }
+        boolean failed;
+        try {
+            failed = resident.compile(getFiles(), requester.getLog(), outputListeners);
+        } finally {
+            synchronized (residents_) {
+                resident.users--;
+                resident.lastUsed = System.currentTimeMillis();
+            }
+        }
+        if (throwFailure && failed) {
+            throw new MojoFailureException("resident compiler reported errors");
+        }
+    }
+
+    /** Sends the files to the resident compiler from another thread, without waiting for the end of the compilation. */
+    @Override
+    public void spawn(final boolean displayCmd) throws Exception {
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    ResidentScalaCommand.this.run(displayCmd, false);
+                } catch (Exception exc) {
+                    requester.getLog().warn("resident compilation failed (" + exc.getMessage() + ")");
+                }
+            }
+        };
+        t.start();
+    }
+
+    /** Stops the resident compilers idle or beyond the most recently used, except the ones compiling. */
+    private static void evict(long now) {
+        int toRemove = residents_.size() - MAX_RESIDENTS;
+        for (Iterator<Resident> it = residents_.values().iterator(); it.hasNext();) {
+            Resident resident = it.next();
+            if ((resident.users == 0) && ((toRemove > 0) || ((now - resident.lastUsed) > IDLE_TIMEOUT))) {
+                it.remove();
+                resident.destroy();
+                toRemove--;
+            }
+        }
+    }
+
+    private List<String> getFiles() {
+        int i = args.size();
+        while ((i > 0) && (args.get(i - 1).endsWith(".scala") || args.get(i - 1).endsWith(".java"))) {
+            i--;
+        }
+        return args.subList(i, args.size());
+    }
+
+    private static class Resident {
+        private final Process process_;
+        private final Writer in_;
+        private final Reader out_;
+        /** guarded by residents_ */
+        int users;
+        long lastUsed = System.currentTimeMillis();
+
+        Resident(Process process) {
+            process_ = process;
+            in_ = new OutputStreamWriter(process.getOutputStream());
+            out_ = new InputStreamReader(process.getInputStream());
+        }
+
+        boolean isAlive() {
+            try {
+                process_.exitValue();
+                return false;
+            } catch (IllegalThreadStateException exc) {
+                return true;
+            }
+        }
+
+        void destroy() {
+            IOUtil.close(in_);
+            process_.destroy();
+        }
+
+        /** @return true if errors were reported */
+        synchronized boolean compile(List<String> files, Log log, List<OutputListener> listeners) throws IOException {
+            in_.write(StringUtils.join(files.iterator(), " "));
+            in_.write('\n');
+            in_.flush();
+            return readUntilPrompt(log, listeners);
+        }
+
+        /**
+         * Logs the output of the compiler until the prompt, and notifies the listeners.
+         *
+         * @return true if errors were reported
+         */
+        boolean readUntilPrompt(Log log, List<OutputListener> listeners) throws IOException {
+            boolean back = false;
+            StringBuilder line = new StringBuilder();
+            int c;
+            while ((c = out_.read()) != -1) {
+                if (c == '\n') {
+                    String str = line.toString().trim();
+                    if (ERROR_LINE.matcher(str).matches()) {
+                        back = true;
+                    }
+                    if (str.length() > 0) {
+                        log.warn(str);
+                    }
+                    for (OutputListener listener : listeners) {
+                        listener.lineWritten(line.toString());
+                    }
+                    line.setLength(0);
+                } else if (c != '\r') {
+                    line.append((char) c);
+                    if ((line.length() == PROMPT.length()) && PROMPT.equals(line.toString())) {
+                        return back;
+                    }
+                }
+            }
+            throw new IOException("resident compiler exited");
+        }
+    }
+}
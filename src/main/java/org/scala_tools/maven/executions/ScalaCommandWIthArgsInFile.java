@@ -1,9 +1,12 @@
 package org.scala_tools.maven.executions;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.maven.plugin.AbstractMojo;
+import org.scala_tools.maven.incremental.PathTable;
 
 /**
  * Creates an external process which executes a scala command.  The arguments to the scala command will be in a file.
@@ -17,14 +20,20 @@ public class ScalaCommandWIthArgsInFile extends AbstractForkedJavaCommand {
       super(requester, mainClassName, classpath, jvmArgs, args);    
    }
    
+   @Override
+   public void addSources(PathTable paths, List<Integer> ids) {
+      keepSources(paths, ids);
+   }
+
    @Override
    protected String[] buildCommand() throws IOException {
       ArrayList<String> back = new ArrayList<String>(3 + jvmArgs.size());
       back.add(javaExec);
       back.addAll(jvmArgs);
       back.add(mainClassName);
-      String fileName = MainHelper.createArgFile(args).getCanonicalPath();
-      back.add("@" + fileName);
+      File argFile = MainHelper.createArgFile(args, workingDirectory, sourcePaths, sources);
+      tempFiles.add(argFile);
+      back.add("@" + argFile.getCanonicalPath());
       return back.toArray(new String[back.size()]);
   }
 
@@ -0,0 +1,194 @@
+package org.scala_tools.maven.executions;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Cache, shared by every execution of the plugin during the build, of the classloaders used to run a tool
+ * (like scalac) in-process. Reusing a classloader avoids loading the compiler classes again, and keeps
+ * the compiler code warm (JIT) across executions (compile, testCompile of every module of the reactor).
+ *
+ * Entries not used for {@link #IDLE_TIMEOUT} ms, or beyond the {@link #MAX_ENTRIES} most recently used,
+ * are evicted and closed, so the heap of maven doesn't grow without bound. A classloader is acquired for each run
+ * and released after : an entry evicted while in use is closed by its last release. Idle entries are evicted by the
+ * acquires and the releases, and by a daemon timer while the cache isn't empty (a cc loop waiting for changes doesn't
+ * run any tool).
+ */
+public class ToolClassLoaderCache {
+    private static final long IDLE_TIMEOUT = 5 * 60 * 1000;
+    private static final int MAX_ENTRIES = 3;
+    private static final int MAX_ATTACHMENTS = 4;
+    /** delay (in ms) between two evictions by the timer */
+    private static final long EVICTION_PERIOD = 60 * 1000;
+
+    private static class Entry {
+        final URLClassLoader cl;
+        long lastUsed;
+        int users;
+        boolean evicted;
+        /** objects using the classloader, in access order (eldest first) */
+        final Map<String, Object> attachments = new LinkedHashMap<String, Object>(16, 0.75f, true);
+
+        Entry(URLClassLoader cl) {
+            this.cl = cl;
+        }
+    }
+
+    /** entries in access order (eldest first) */
+    private static final Map<String, Entry> entries_ = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    /** entries acquired and not released yet, by classloader */
+    private static final Map<ClassLoader, Entry> inUse_ = new IdentityHashMap<ClassLoader, Entry>();
+    /** evicts the idle entries, null while the cache is empty */
+    private static Timer timer_;
+
+    /**
+     * @param key identify the tool (eg: scala version, classpath and compiler plugins)
+     * @param classpath the classpath of the tool (entries separated by File.pathSeparator)
+     * @return the cached classloader for the key, created if needed, to {@link #release(ClassLoader)} after use
+     */
+    public static synchronized ClassLoader acquire(String key, String classpath) {
+        long now = System.currentTimeMillis();
+        evict(now);
+        Entry entry = entries_.get(key);
+        if (entry == null) {
+            entry = new Entry(newClassLoader(classpath));
+            // else seen as idle (never used) by the eviction below
+            entry.lastUsed = now;
+            entries_.put(key, entry);
+            evict(now);
+            scheduleEviction();
+        }
+        entry.lastUsed = now;
+        entry.users++;
+        inUse_.put(entry.cl, entry);
+        return entry.cl;
+    }
+
+    /** Releases a classloader acquired, closed if it was evicted meanwhile and is no longer used. */
+    public static synchronized void release(ClassLoader cl) {
+        Entry entry = inUse_.get(cl);
+        if (entry == null) {
+            return;
+        }
+        entry.lastUsed = System.currentTimeMillis();
+        if (--entry.users == 0) {
+            inUse_.remove(cl);
+            if (entry.evicted) {
+                close(entry.cl);
+            }
+        }
+        evict(entry.lastUsed);
+    }
+
+    /**
+     * @param cl an acquired classloader
+     * @return the object attached to the classloader under the key, or null (never attached, dropped, or the
+     *         classloader was evicted)
+     */
+    public static synchronized Object getAttachment(ClassLoader cl, String key) {
+        Entry entry = inUse_.get(cl);
+        return ((entry == null) || entry.evicted) ? null : entry.attachments.get(key);
+    }
+
+    /**
+     * Attaches an object using the classloader (like a compiler kept between runs), so it's dropped with the
+     * classloader, or when it's not among the {@link #MAX_ATTACHMENTS} most recently used of the classloader.
+     *
+     * @param cl an acquired classloader
+     */
+    public static synchronized void attach(ClassLoader cl, String key, Object value) {
+        Entry entry = inUse_.get(cl);
+        if ((entry == null) || entry.evicted) {
+            return;
+        }
+        entry.attachments.put(key, value);
+        Iterator<Object> it = entry.attachments.values().iterator();
+        for (int toRemove = entry.attachments.size() - MAX_ATTACHMENTS; toRemove > 0; toRemove--) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    /** Evicts every entry, closed when no longer used. */
+    public static synchronized void clear() {
+        for (Entry entry : entries_.values()) {
+            evicted(entry);
+        }
+        entries_.clear();
+    }
+
+    /** @return true if the key has an entry (not evicted) */
+    static synchronized boolean contains(String key) {
+        return entries_.containsKey(key);
+    }
+
+    /** Evicts the entries idle at the given date, or beyond the most recently used. */
+    static synchronized void evict(long now) {
+        int toRemove = entries_.size() - MAX_ENTRIES;
+        for (Iterator<Entry> it = entries_.values().iterator(); it.hasNext();) {
+            Entry entry = it.next();
+            if ((toRemove > 0) || ((entry.users == 0) && ((now - entry.lastUsed) > IDLE_TIMEOUT))) {
+                it.remove();
+                evicted(entry);
+                toRemove--;
+            }
+        }
+    }
+
+    private static void scheduleEviction() {
+        if (timer_ != null) {
+            return;
+        }
+        timer_ = new Timer("tool classloader eviction", true);
+        timer_.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                synchronized (ToolClassLoaderCache.class) {
+                    evict(System.currentTimeMillis());
+                    if (entries_.isEmpty()) {
+                        timer_.cancel();
+                        timer_ = null;
+                    }
+                }
+            }
+        }, EVICTION_PERIOD, EVICTION_PERIOD);
+    }
+
+    private static void evicted(Entry entry) {
+        entry.evicted = true;
+        entry.attachments.clear();
+        if (entry.users == 0) {
+            close(entry.cl);
+        }
+    }
+
+    public static URLClassLoader newClassLoader(String classpath) {
+        ArrayList<URL> urls = new ArrayList<URL>();
+        for (String path : classpath.split(File.pathSeparator)) {
+            try {
+                urls.add(new File(path).toURI().toURL());
+            } catch (MalformedURLException e) {
+                throw new IllegalArgumentException("invalid classpath entry : " + path, e);
+            }
+        }
+        return new URLClassLoader(urls.toArray(new URL[urls.size()]), (ClassLoader) null);
+    }
+
+    /** URLClassLoader.close() only exists since java 7, so it's called if available. */
+    private static void close(URLClassLoader cl) {
+        try {
+            cl.getClass().getMethod("close").invoke(cl);
+        } catch (Exception exc) {
+            // not available, the classloader will be garbage collected
+        }
+    }
+}
@@ -0,0 +1,387 @@
+package org.scala_tools.maven.incremental;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary file storing the analysis of a compilation (sources, classes, dependencies,...) as a table of strings
+ * and named tables of rows of numbers, designed to be opened without reading the whole file :
+ * the file is memory-mapped, strings are decoded and rows are read on demand.
+ *
+ * Layout (big endian) :
+ * <pre>
+ * header       : MAGIC, VERSION
+ * strings      : UTF-8 bytes of every string, then int[nbStrings + 1] offsets of the strings
+ * string index : int[capacity] open addressing hash table (String.hashCode, linear probing) of id + 1 (0 if empty)
+ * tables       : for each table, int[nbRows + 1] offsets of the rows, then the rows. A row is a varint (number of
+ *                values + 1, 0 for a null row) followed by the values as zigzag varints.
+ * footer       : nbStrings, offsets of the strings, capacity and offset of the index,
+ *                nbTables then for each table its name, nbRows, offset of the offsets and of the rows
+ * trailer      : long offset of the footer, MAGIC
+ * </pre>
+ */
+public class AnalysisStore {
+    private static final int MAGIC = 0x53434153;
+    public static final int VERSION = 1;
+
+    /** files smaller than this are read in memory instead of mapped */
+    private static final int MAP_THRESHOLD = 256 * 1024;
+
+    private final ByteBuffer buf_;
+    private final int nbStrings_;
+    private final int stringDataOffset_;
+    private final int stringOffsetsOffset_;
+    private final int indexCapacity_;
+    private final int indexOffset_;
+    private final String[] strings_;
+    private final Map<String, Table> tables_ = new HashMap<String, Table>();
+
+    /**
+     * Opens the store.
+     *
+     * @throws IOException if the file is not readable, or not a store of the current version
+     */
+    public static AnalysisStore open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel ch = raf.getChannel();
+            long size = ch.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("too big : " + file);
+            }
+            ByteBuffer buf;
+            // a mapped file can't be replaced on windows until the mapping is garbage collected
+            if ((size < MAP_THRESHOLD) || System.getProperty("os.name", "").startsWith("Windows")) {
+                buf = ByteBuffer.allocate((int) size);
+                while (buf.hasRemaining() && (ch.read(buf) >= 0)) {
+                    // read all
+                }
+                buf.flip();
+            } else {
+                buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+            return new AnalysisStore(buf, file);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private AnalysisStore(ByteBuffer buf, File file) throws IOException {
+        buf_ = buf;
+        int size = buf.limit();
+        if ((size < 20) || (buf.getInt(0) != MAGIC) || (buf.getInt(4) != VERSION) || (buf.getInt(size - 4) != MAGIC)) {
+            throw new IOException("unsupported format : " + file);
+        }
+        try {
+            ByteBuffer footer = buf.duplicate();
+            footer.position((int) buf.getLong(size - 12));
+            nbStrings_ = footer.getInt();
+            stringOffsetsOffset_ = footer.getInt();
+            indexCapacity_ = footer.getInt();
+            indexOffset_ = footer.getInt();
+            stringDataOffset_ = 8;
+            int nbTables = footer.getInt();
+            for (int i = 0; i < nbTables; i++) {
+                byte[] name = new byte[footer.getInt()];
+                footer.get(name);
+                Table table = new Table(footer.getInt(), footer.getInt());
+                tables_.put(new String(name, "UTF-8"), table);
+            }
+        } catch (RuntimeException exc) {
+            throw new IOException("corrupted : " + file + " (" + exc + ")");
+        }
+        strings_ = new String[nbStrings_];
+    }
+
+    public int getNbStrings() {
+        return nbStrings_;
+    }
+
+    public String getString(int id) {
+        String back = strings_[id];
+        if (back == null) {
+            back = decode(id);
+            strings_[id] = back;
+        }
+        return back;
+    }
+
+    /** @return the id of the string, or -1 if the store doesn't contain it */
+    public int findString(String s) {
+        if (indexCapacity_ == 0) {
+            return -1;
+        }
+        byte[] bytes = null;
+        int mask = indexCapacity_ - 1;
+        for (int slot = s.hashCode() & mask;; slot = (slot + 1) & mask) {
+            int id = buf_.getInt(indexOffset_ + slot * 4) - 1;
+            if (id < 0) {
+                return -1;
+            }
+            if (strings_[id] != null) {
+                if (strings_[id].equals(s)) {
+                    return id;
+                }
+                continue;
+            }
+            if (bytes == null) {
+                bytes = utf8(s);
+            }
+            if (equals(id, bytes)) {
+                return id;
+            }
+        }
+    }
+
+    /** @return the table, or null if the store doesn't contain it */
+    public Table getTable(String name) {
+        return tables_.get(name);
+    }
+
+    private String decode(int id) {
+        int start = buf_.getInt(stringOffsetsOffset_ + id * 4);
+        int end = buf_.getInt(stringOffsetsOffset_ + (id + 1) * 4);
+        byte[] bytes = new byte[end - start];
+        ByteBuffer b = buf_.duplicate();
+        b.position(stringDataOffset_ + start);
+        b.get(bytes);
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (IOException exc) {
+            throw new IllegalStateException(exc);
+        }
+    }
+
+    private boolean equals(int id, byte[] bytes) {
+        int start = buf_.getInt(stringOffsetsOffset_ + id * 4);
+        int end = buf_.getInt(stringOffsetsOffset_ + (id + 1) * 4);
+        if (end - start != bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            if (buf_.get(stringDataOffset_ + start + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] utf8(String s) {
+        try {
+            return s.getBytes("UTF-8");
+        } catch (IOException exc) {
+            throw new IllegalStateException(exc);
+        }
+    }
+
+    /** Rows of numbers, read on demand. */
+    public class Table {
+        private final int nbRows_;
+        private final int offsetsOffset_;
+        private final int dataOffset_;
+
+        Table(int nbRows, int offsetsOffset) {
+            nbRows_ = nbRows;
+            offsetsOffset_ = offsetsOffset;
+            dataOffset_ = offsetsOffset + (nbRows + 1) * 4;
+        }
+
+        public int getNbRows() {
+            return nbRows_;
+        }
+
+        /** @return true if the row exists and is not null, without decoding it */
+        public boolean hasRow(int row) {
+            return (row >= 0) && (row < nbRows_) && (buf_.get(dataOffset_ + buf_.getInt(offsetsOffset_ + row * 4)) != 0);
+        }
+
+        /** @return the values of the row, or null for a null (or missing) row */
+        public long[] getRow(int row) {
+            if ((row < 0) || (row >= nbRows_)) {
+                return null;
+            }
+            int[] pos = new int[] {dataOffset_ + buf_.getInt(offsetsOffset_ + row * 4)};
+            int size = (int) readVarint(pos) - 1;
+            if (size < 0) {
+                return null;
+            }
+            long[] back = new long[size];
+            for (int i = 0; i < size; i++) {
+                long v = readVarint(pos);
+                back[i] = (v >>> 1) ^ -(v & 1);
+            }
+            return back;
+        }
+
+        /** @return the values of the row as int, or null for a null (or missing) row */
+        public int[] getIntRow(int row) {
+            long[] values = getRow(row);
+            if (values == null) {
+                return null;
+            }
+            int[] back = new int[values.length];
+            for (int i = 0; i < values.length; i++) {
+                back[i] = (int) values[i];
+            }
+            return back;
+        }
+
+        private long readVarint(int[] pos) {
+            long back = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buf_.get(pos[0]++);
+                back |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            return back;
+        }
+    }
+
+    /** Builds a store, then writes it. */
+    public static class Writer {
+        private final Map<String, Integer> ids_ = new HashMap<String, Integer>();
+        private final List<String> strings_ = new ArrayList<String>();
+        private final Map<String, long[][]> tables_ = new LinkedHashMap<String, long[][]>();
+
+        /** @return the id of the string, added if needed */
+        public int addString(String s) {
+            Integer id = ids_.get(s);
+            if (id == null) {
+                id = strings_.size();
+                strings_.add(s);
+                ids_.put(s, id);
+            }
+            return id;
+        }
+
+        public int getNbStrings() {
+            return strings_.size();
+        }
+
+        /** @param rows the rows (a row could be null) */
+        public void addTable(String name, long[][] rows) {
+            tables_.put(name, rows);
+        }
+
+        /** @param rows the rows (a row could be null) */
+        public void addIntTable(String name, int[][] rows) {
+            long[][] values = new long[rows.length][];
+            for (int i = 0; i < rows.length; i++) {
+                if (rows[i] != null) {
+                    values[i] = new long[rows[i].length];
+                    for (int j = 0; j < rows[i].length; j++) {
+                        values[i][j] = rows[i][j];
+                    }
+                }
+            }
+            addTable(name, values);
+        }
+
+        /** Writes the store into a temporary file, then renames it to file. */
+        public void write(File file) throws IOException {
+            file.getAbsoluteFile().getParentFile().mkdirs();
+            File tmp = new File(file.getPath() + ".tmp");
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 64 * 1024));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                int n = strings_.size();
+                int[] offsets = new int[n + 1];
+                int[] hashes = new int[n];
+                for (int i = 0; i < n; i++) {
+                    String s = strings_.get(i);
+                    byte[] b = utf8(s);
+                    out.write(b);
+                    offsets[i + 1] = offsets[i] + b.length;
+                    hashes[i] = s.hashCode();
+                }
+                int stringOffsetsOffset = out.size();
+                for (int offset : offsets) {
+                    out.writeInt(offset);
+                }
+                int capacity = (n == 0) ? 0 : Integer.highestOneBit(n * 2 - 1) << 1;
+                int[] slots = new int[capacity];
+                for (int i = 0; i < n; i++) {
+                    int slot = hashes[i] & (capacity - 1);
+                    while (slots[slot] != 0) {
+                        slot = (slot + 1) & (capacity - 1);
+                    }
+                    slots[slot] = i + 1;
+                }
+                int indexOffset = out.size();
+                for (int slot : slots) {
+                    out.writeInt(slot);
+                }
+                List<Integer> tableOffsets = new ArrayList<Integer>();
+                ByteArrayOutputStream rowBytes = new ByteArrayOutputStream();
+                for (long[][] rows : tables_.values()) {
+                    tableOffsets.add(out.size());
+                    rowBytes.reset();
+                    for (long[] row : rows) {
+                        out.writeInt(rowBytes.size());
+                        writeRow(rowBytes, row);
+                    }
+                    out.writeInt(rowBytes.size());
+                    rowBytes.writeTo(out);
+                }
+                long footerOffset = out.size();
+                out.writeInt(n);
+                out.writeInt(stringOffsetsOffset);
+                out.writeInt(capacity);
+                out.writeInt(indexOffset);
+                out.writeInt(tables_.size());
+                int t = 0;
+                for (Map.Entry<String, long[][]> e : tables_.entrySet()) {
+                    byte[] name = utf8(e.getKey());
+                    out.writeInt(name.length);
+                    out.write(name);
+                    out.writeInt(e.getValue().length);
+                    out.writeInt(tableOffsets.get(t++));
+                }
+                out.writeLong(footerOffset);
+                out.writeInt(MAGIC);
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(file)) {
+                file.delete();
+                if (!tmp.renameTo(file)) {
+                    throw new IOException("can't replace " + file);
+                }
+            }
+        }
+
+        private static void writeRow(ByteArrayOutputStream out, long[] row) {
+            if (row == null) {
+                writeVarint(out, 0);
+                return;
+            }
+            writeVarint(out, row.length + 1);
+            for (long v : row) {
+                writeVarint(out, (v << 1) ^ (v >> 63));
+            }
+        }
+
+        private static void writeVarint(ByteArrayOutputStream out, long v) {
+            while ((v & ~0x7FL) != 0) {
+                out.write((int) ((v & 0x7F) | 0x80));
+                v >>>= 7;
+            }
+            out.write((int) v);
+        }
+    }
+}
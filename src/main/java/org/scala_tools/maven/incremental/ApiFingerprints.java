@@ -0,0 +1,199 @@
+package org.scala_tools.maven.incremental;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Fingerprints of the API of the classes of an output directory, published next to it (into
+ * <code>&lt;outputDir&gt;.api</code>) after each compilation, so the compilations using the directory (like the
+ * downstream modules of a reactor) could tell a change of the API of a class from a change of its implementation.
+ *
+ * The hash of a class includes the hashes of its supertypes of the same directory (a member removed from a
+ * superclass changes the API of its subclasses). Supertypes from other directories or jars are not included.
+ *
+ * Stored in the table "api" indexed by the ids of the class names : [size, lastModified, crc, hash, own hash,
+ * supertype ids...].
+ */
+public class ApiFingerprints {
+    /** hash of the classes not fingerprinted (or of a classfile not matching its fingerprint) */
+    public static final long UNKNOWN = 0;
+    /** hash of the classes that can't be referenced by other modules (anonymous, local and synthetic classes) */
+    public static final long NO_API = 1;
+
+    private static final int ACC_SYNTHETIC = 0x1000;
+
+    private final AnalysisStore store_;
+    private final AnalysisStore.Table table_;
+
+    public static File getFile(File outputDir) {
+        return new File(outputDir.getPath() + ".api");
+    }
+
+    /**
+     * @return the fingerprints published for the directory, or null if there is none (or they are unreadable)
+     */
+    public static ApiFingerprints load(File outputDir) {
+        File file = getFile(outputDir);
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            AnalysisStore store = AnalysisStore.open(file);
+            AnalysisStore.Table table = store.getTable("api");
+            return (table == null) ? null : new ApiFingerprints(store, table);
+        } catch (IOException exc) {
+            return null;
+        }
+    }
+
+    private ApiFingerprints(AnalysisStore store, AnalysisStore.Table table) {
+        store_ = store;
+        table_ = table;
+    }
+
+    /**
+     * @param className the internal name of the class
+     * @param crc the CRC32 of the classfile
+     * @return the published hash of the API of the class, or {@link #UNKNOWN} if it's not published for this classfile
+     */
+    public long getHash(String className, long crc) {
+        long[] row = getRow(className);
+        return ((row != null) && (row[2] == crc)) ? row[3] : UNKNOWN;
+    }
+
+    /**
+     * @return the hash of the API of the class, without its supertypes (never {@link #UNKNOWN})
+     */
+    public static long hash(ClassFile cf) {
+        if (((cf.access & ACC_SYNTHETIC) != 0) || isAnonymousOrLocal(cf.name)) {
+            return NO_API;
+        }
+        return normalize(cf.apiHash);
+    }
+
+    /**
+     * Fingerprints the classes of the directory (reusing the fingerprints of the classfiles whose size and date
+     * didn't change since the last publication), and publishes them if they changed.
+     */
+    public static void publish(File outputDir) throws IOException {
+        ApiFingerprints previous = load(outputDir);
+        List<File> classFiles = new ArrayList<File>();
+        DependencyGraph.findClassFiles(outputDir, 0, classFiles);
+        boolean modified = (previous == null) || (previous.countClasses() != classFiles.size());
+        // by class name : size, date, crc, own hash
+        Map<String, long[]> classes = new HashMap<String, long[]>();
+        Map<String, List<String>> supertypes = new HashMap<String, List<String>>();
+        int prefix = outputDir.getAbsolutePath().length() + 1;
+        for (File f : classFiles) {
+            String path = f.getAbsolutePath();
+            String name = path.substring(prefix, path.length() - ".class".length()).replace(File.separatorChar, '/');
+            long size = f.length();
+            long lastModified = f.lastModified();
+            long[] row = (previous == null) ? null : previous.getRow(name);
+            List<String> types = new ArrayList<String>();
+            if ((row != null) && (row[0] == size) && (row[1] == lastModified)) {
+                classes.put(name, new long[] {size, lastModified, row[2], row[4]});
+                for (int i = 5; i < row.length; i++) {
+                    types.add(previous.store_.getString((int) row[i]));
+                }
+            } else {
+                byte[] bytes = ClasspathFingerprints.readBytes(f);
+                ClassFile cf = ClassFile.read(bytes);
+                classes.put(name, new long[] {size, lastModified, ClasspathFingerprints.crc(bytes), hash(cf)});
+                if (cf.superName != null) {
+                    types.add(cf.superName);
+                }
+                types.addAll(cf.interfaces);
+                modified = true;
+            }
+            supertypes.put(name, types);
+        }
+        if (!modified) {
+            return;
+        }
+        AnalysisStore.Writer writer = new AnalysisStore.Writer();
+        for (String name : classes.keySet()) {
+            writer.addString(name);
+        }
+        for (List<String> types : supertypes.values()) {
+            for (String type : types) {
+                writer.addString(type);
+            }
+        }
+        long[][] rows = new long[writer.getNbStrings()][];
+        Map<String, Long> hashes = new HashMap<String, Long>();
+        for (Map.Entry<String, long[]> e : classes.entrySet()) {
+            long[] fingerprint = e.getValue();
+            List<String> types = supertypes.get(e.getKey());
+            long[] row = new long[5 + types.size()];
+            row[0] = fingerprint[0];
+            row[1] = fingerprint[1];
+            row[2] = fingerprint[2];
+            row[3] = effectiveHash(e.getKey(), classes, supertypes, hashes);
+            row[4] = fingerprint[3];
+            for (int i = 0; i < types.size(); i++) {
+                row[5 + i] = writer.addString(types.get(i));
+            }
+            rows[writer.addString(e.getKey())] = row;
+        }
+        writer.addTable("api", rows);
+        writer.write(getFile(outputDir));
+    }
+
+    /** @return the hash of the class combined with the hashes of its supertypes of the directory */
+    private static long effectiveHash(String name, Map<String, long[]> classes, Map<String, List<String>> supertypes, Map<String, Long> done) {
+        Long back = done.get(name);
+        if (back != null) {
+            return back;
+        }
+        // guard against cycles (in broken classfiles)
+        done.put(name, UNKNOWN);
+        long hash = classes.get(name)[3];
+        if (hash != NO_API) {
+            for (String type : supertypes.get(name)) {
+                if (classes.containsKey(type)) {
+                    hash = hash * 31 + effectiveHash(type, classes, supertypes, done);
+                }
+            }
+            hash = normalize(hash);
+        }
+        done.put(name, hash);
+        return hash;
+    }
+
+    private long[] getRow(String className) {
+        int id = store_.findString(className);
+        return (id < 0) ? null : table_.getRow(id);
+    }
+
+    private int countClasses() {
+        int back = 0;
+        for (int i = 0; i < table_.getNbRows(); i++) {
+            if (table_.hasRow(i)) {
+                back++;
+            }
+        }
+        return back;
+    }
+
+    /** @return the hash, moved out of the reserved values */
+    private static long normalize(long hash) {
+        return ((hash == UNKNOWN) || (hash == NO_API)) ? hash + 2 : hash;
+    }
+
+    /**
+     * @return true for the classes of anonymous and local classes (java: Outer$1, Outer$1Local, scala:
+     *         Outer$$anon$1, Outer$$anonfun$method$1)
+     */
+    static boolean isAnonymousOrLocal(String className) {
+        if (className.indexOf("$$anon") > -1) {
+            return true;
+        }
+        int dollar = className.lastIndexOf('$');
+        return (dollar > -1) && (dollar + 1 < className.length()) && Character.isDigit(className.charAt(dollar + 1));
+    }
+}
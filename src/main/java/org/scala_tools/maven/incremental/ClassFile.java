@@ -0,0 +1,347 @@
+package org.scala_tools.maven.incremental;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Minimal reader of a classfile: the constant pool, the name of the class and of its source file,
+ * every class referenced by the class (constant pool and descriptors), and a hash of its API.
+ *
+ * Class names are kept in their internal form (eg: java/lang/String).
+ */
+public class ClassFile {
+
+    private static final int MAGIC = 0xCAFEBABE;
+    private static final int ACC_PRIVATE = 0x0002;
+    private static final int ACC_SYNTHETIC = 0x1000;
+    /** public, final, interface, abstract, annotation, enum */
+    private static final int CLASS_API_FLAGS = 0x6611;
+    /** public, protected, static, final, abstract */
+    private static final int MEMBER_API_FLAGS = 0x041D;
+
+    public String name;
+    public String superName;
+    public String sourceFile;
+    public int access;
+    public final List<String> interfaces = new ArrayList<String>();
+    public final Set<String> referencedClasses = new HashSet<String>();
+    /**
+     * Hash of what other classes could see of the class: its header, its non-private (and non-synthetic)
+     * members with their generic signatures, constant values and exceptions, its annotations and its scala
+     * signature (ScalaSig attribute, ScalaSignature annotation). Method bodies and private members don't change it.
+     */
+    public long apiHash;
+
+    private String[] utf8_;
+    /** for each Class entry of the constant pool, the index of its name (else 0) */
+    private int[] classes_;
+    /** for each String entry of the constant pool, the index of its value (else 0) */
+    private int[] strings_;
+    /** for each Integer, Float, Long and Double entry of the constant pool, its raw bits */
+    private long[] numbers_;
+    /** the canonical form of the API elements (header, members, attributes), sorted before hashing */
+    private List<String> api_;
+
+    public static ClassFile read(File f) throws IOException {
+        InputStream in = new FileInputStream(f);
+        try {
+            return read(IOUtil.toByteArray(in));
+        } finally {
+            IOUtil.close(in);
+        }
+    }
+
+    public static ClassFile read(byte[] bytes) throws IOException {
+        ClassFile back = new ClassFile();
+        back.parse(new DataInputStream(new ByteArrayInputStream(bytes)));
+        return back;
+    }
+
+    private void parse(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("not a classfile");
+        }
+        in.readUnsignedShort(); // minor
+        in.readUnsignedShort(); // major
+        int count = in.readUnsignedShort();
+        utf8_ = new String[count];
+        classes_ = new int[count];
+        strings_ = new int[count];
+        numbers_ = new long[count];
+        api_ = new ArrayList<String>();
+        int[] descriptors = new int[count];
+        int nbDescriptors = 0;
+        for (int i = 1; i < count; i++) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case 1: // Utf8
+                    utf8_[i] = in.readUTF();
+                    break;
+                case 7: // Class
+                    classes_[i] = in.readUnsignedShort();
+                    break;
+                case 16: // MethodType
+                    descriptors[nbDescriptors++] = in.readUnsignedShort();
+                    break;
+                case 12: // NameAndType
+                    in.readUnsignedShort();
+                    descriptors[nbDescriptors++] = in.readUnsignedShort();
+                    break;
+                case 8: // String
+                    strings_[i] = in.readUnsignedShort();
+                    break;
+                case 19: // Module
+                case 20: // Package
+                    in.readUnsignedShort();
+                    break;
+                case 15: // MethodHandle
+                    in.readUnsignedByte();
+                    in.readUnsignedShort();
+                    break;
+                case 3: // Integer
+                case 4: // Float
+                    numbers_[i] = in.readInt();
+                    break;
+                case 9: // Fieldref
+                case 10: // Methodref
+                case 11: // InterfaceMethodref
+                case 17: // Dynamic
+                case 18: // InvokeDynamic
+                    in.readInt();
+                    break;
+                case 5: // Long
+                case 6: // Double
+                    numbers_[i] = in.readLong();
+                    i++;
+                    break;
+                default:
+                    throw new IOException("unknown constant pool tag " + tag + " at " + i);
+            }
+        }
+        for (int i = 1; i < count; i++) {
+            if (classes_[i] != 0) {
+                addClassName(utf8_[classes_[i]]);
+            }
+        }
+        for (int i = 0; i < nbDescriptors; i++) {
+            addDescriptor(utf8_[descriptors[i]]);
+        }
+        access = in.readUnsignedShort();
+        name = classNameAt(in.readUnsignedShort());
+        int superIndex = in.readUnsignedShort();
+        if (superIndex != 0) {
+            superName = classNameAt(superIndex);
+        }
+        int nbInterfaces = in.readUnsignedShort();
+        for (int i = 0; i < nbInterfaces; i++) {
+            interfaces.add(classNameAt(in.readUnsignedShort()));
+        }
+        readMembers(in, 'F');
+        readMembers(in, 'M');
+        MessageDigest md = newDigest();
+        int nbAttributes = in.readUnsignedShort();
+        for (int i = 0; i < nbAttributes; i++) {
+            String attrName = utf8_[in.readUnsignedShort()];
+            int length = in.readInt();
+            if ("SourceFile".equals(attrName)) {
+                sourceFile = utf8_[in.readUnsignedShort()];
+            } else if ("Signature".equals(attrName)) {
+                api_.add("S " + utf8_[in.readUnsignedShort()]);
+            } else if ("RuntimeVisibleAnnotations".equals(attrName)) {
+                StringBuilder annotations = new StringBuilder("A ");
+                appendAnnotations(in, annotations);
+                api_.add(annotations.toString());
+            } else if ("ScalaSig".equals(attrName)) {
+                // the pickled signature (scala 2.7), or only its version when the ScalaSignature annotation holds it
+                byte[] pickle = new byte[length];
+                in.readFully(pickle);
+                md.update(pickle);
+            } else {
+                in.skipBytes(length);
+            }
+        }
+        referencedClasses.remove(name);
+
+        StringBuilder header = new StringBuilder();
+        header.append(access & CLASS_API_FLAGS).append(' ').append(name).append(' ').append(superName);
+        List<String> sortedInterfaces = new ArrayList<String>(interfaces);
+        Collections.sort(sortedInterfaces);
+        for (String i : sortedInterfaces) {
+            header.append(' ').append(i);
+        }
+        api_.add("C " + header);
+        // the order of the members in the classfile doesn't matter
+        Collections.sort(api_);
+        for (String element : api_) {
+            md.update(utf8(element));
+            md.update((byte) '\n');
+        }
+        byte[] digest = md.digest();
+        for (int i = 0; i < 8; i++) {
+            apiHash = (apiHash << 8) | (digest[i] & 0xFF);
+        }
+        api_ = null;
+    }
+
+    private void readMembers(DataInputStream in, char kind) throws IOException {
+        int count = in.readUnsignedShort();
+        for (int i = 0; i < count; i++) {
+            int memberAccess = in.readUnsignedShort();
+            String memberName = utf8_[in.readUnsignedShort()];
+            String descriptor = utf8_[in.readUnsignedShort()];
+            addDescriptor(descriptor);
+            boolean visible = (memberAccess & (ACC_PRIVATE | ACC_SYNTHETIC)) == 0;
+            StringBuilder member = new StringBuilder();
+            member.append(kind).append(' ').append(memberAccess & MEMBER_API_FLAGS).append(' ').append(memberName).append(' ').append(descriptor);
+            int nbAttributes = in.readUnsignedShort();
+            for (int j = 0; j < nbAttributes; j++) {
+                String attrName = utf8_[in.readUnsignedShort()];
+                int length = in.readInt();
+                if (!visible) {
+                    in.skipBytes(length);
+                } else if ("Signature".equals(attrName)) {
+                    member.append(" S ").append(utf8_[in.readUnsignedShort()]);
+                } else if ("ConstantValue".equals(attrName)) {
+                    // constants are inlined by the compilers of the referencing classes
+                    member.append(" V ").append(constantAt(in.readUnsignedShort()));
+                } else if ("Exceptions".equals(attrName)) {
+                    List<String> exceptions = new ArrayList<String>();
+                    int nbExceptions = in.readUnsignedShort();
+                    for (int k = 0; k < nbExceptions; k++) {
+                        exceptions.add(classNameAt(in.readUnsignedShort()));
+                    }
+                    Collections.sort(exceptions);
+                    member.append(" E ").append(exceptions);
+                } else if ("RuntimeVisibleAnnotations".equals(attrName)) {
+                    member.append(" A ");
+                    appendAnnotations(in, member);
+                } else {
+                    in.skipBytes(length);
+                }
+            }
+            if (visible) {
+                api_.add(member.toString());
+            }
+        }
+    }
+
+    private void appendAnnotations(DataInputStream in, StringBuilder out) throws IOException {
+        int count = in.readUnsignedShort();
+        List<String> annotations = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            StringBuilder annotation = new StringBuilder();
+            appendAnnotation(in, annotation);
+            annotations.add(annotation.toString());
+        }
+        Collections.sort(annotations);
+        out.append(annotations);
+    }
+
+    private void appendAnnotation(DataInputStream in, StringBuilder out) throws IOException {
+        out.append('@').append(utf8_[in.readUnsignedShort()]).append('(');
+        int nbPairs = in.readUnsignedShort();
+        for (int i = 0; i < nbPairs; i++) {
+            out.append(utf8_[in.readUnsignedShort()]).append('=');
+            appendElementValue(in, out);
+        }
+        out.append(')');
+    }
+
+    private void appendElementValue(DataInputStream in, StringBuilder out) throws IOException {
+        int tag = in.readUnsignedByte();
+        out.append((char) tag);
+        switch (tag) {
+            case 'e':
+                out.append(utf8_[in.readUnsignedShort()]).append('.').append(utf8_[in.readUnsignedShort()]);
+                break;
+            case 'c':
+                out.append(utf8_[in.readUnsignedShort()]);
+                break;
+            case '@':
+                appendAnnotation(in, out);
+                break;
+            case '[':
+                int count = in.readUnsignedShort();
+                out.append(count);
+                for (int i = 0; i < count; i++) {
+                    appendElementValue(in, out);
+                }
+                break;
+            default:
+                out.append(constantAt(in.readUnsignedShort()));
+                break;
+        }
+        out.append(';');
+    }
+
+    /** @return the value of a Utf8, String or numeric entry of the constant pool, as a string */
+    private String constantAt(int index) {
+        if (utf8_[index] != null) {
+            return utf8_[index];
+        }
+        if (strings_[index] != 0) {
+            return '"' + utf8_[strings_[index]] + '"';
+        }
+        return "#" + numbers_[index];
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException exc) {
+            throw new IllegalStateException("MD5 not available", exc);
+        }
+    }
+
+    private static byte[] utf8(String s) {
+        try {
+            return s.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException exc) {
+            throw new IllegalStateException(exc);
+        }
+    }
+
+    private String classNameAt(int index) {
+        return utf8_[classes_[index]];
+    }
+
+    private void addClassName(String internalName) {
+        if (internalName.startsWith("[")) {
+            addDescriptor(internalName);
+        } else {
+            referencedClasses.add(internalName);
+        }
+    }
+
+    /** Adds every class found in a field or method descriptor. */
+    private void addDescriptor(String descriptor) {
+        if (descriptor == null) {
+            return;
+        }
+        int length = descriptor.length();
+        for (int i = 0; i < length; i++) {
+            if (descriptor.charAt(i) == 'L') {
+                int end = descriptor.indexOf(';', i);
+                if (end < 0) {
+                    return;
+                }
+                referencedClasses.add(descriptor.substring(i + 1, end));
+                i = end;
+            }
+        }
+    }
+}
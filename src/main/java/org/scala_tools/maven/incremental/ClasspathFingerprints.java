@@ -0,0 +1,368 @@
+package org.scala_tools.maven.incremental;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Persisted fingerprints of the classes of the classpath entries (directories and jars) used by a compilation,
+ * to find the classes whose API changed (added, removed or modified) since the previous compilation.
+ *
+ * A class of a directory is checksummed (CRC32) only when its size or its date changed. The classes of a jar are
+ * read from its central directory (which contains their CRC32), only when the size or the date of the jar changed.
+ * When the same class is in several entries, the first one (in classpath order) is used.
+ *
+ * The hash of the API of a modified class is read from the {@link ApiFingerprints} published next to its directory,
+ * else computed from the classfile, so a change of the implementation of a class doesn't report it. The API of the
+ * classes of a jar is only computed when the jar is modified (the classes of a new jar have an unknown API,
+ * reported as changed when their CRC changes).
+ */
+public class ClasspathFingerprints {
+    private static final long DIRECTORY = 0;
+    private static final long JAR = 1;
+
+    /** Fingerprints of the classes of a classpath entry. */
+    private static class Entry {
+        final String path;
+        final long kind;
+        final long size;
+        final long lastModified;
+        /** by internal name : size, date, crc, api hash (null until read from the store) */
+        Map<String, long[]> classes;
+        /** row in the store, or -1 */
+        int row = -1;
+
+        Entry(String path, long kind, long size, long lastModified) {
+            this.path = path;
+            this.kind = kind;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+
+    private final File file_;
+    private AnalysisStore store_;
+    private List<Entry> recorded_ = new ArrayList<Entry>();
+    private List<Entry> scanned_;
+    private boolean modified_ = false;
+
+    /**
+     * Loads the fingerprints stored in file (empty if the file doesn't exist or is unreadable).
+     */
+    public static ClasspathFingerprints load(File file) {
+        ClasspathFingerprints back = new ClasspathFingerprints(file);
+        if (file.exists()) {
+            try {
+                back.read();
+            } catch (Exception exc) {
+                back.clear();
+            }
+        }
+        return back;
+    }
+
+    public ClasspathFingerprints(File file) {
+        file_ = file;
+    }
+
+    /** Forgets the recorded fingerprints (no class will be reported as changed by the next update). */
+    public void clear() {
+        store_ = null;
+        recorded_ = new ArrayList<Entry>();
+    }
+
+    /**
+     * Scans the classpath entries and compares them to the recorded ones.
+     *
+     * @param classpathElements the classpath of the compilation
+     * @param outputDir the output of the compilation (ignored if it's in the classpath)
+     * @return the internal names of the classes whose API was added, removed or modified since the recorded
+     *         fingerprints (empty if nothing was recorded)
+     */
+    public Set<String> update(List<String> classpathElements, File outputDir) throws IOException {
+        Map<String, Entry> recordedByPath = new HashMap<String, Entry>();
+        for (Entry entry : recorded_) {
+            recordedByPath.put(entry.path, entry);
+        }
+        scanned_ = new ArrayList<Entry>();
+        modified_ = false;
+        String output = outputDir.getAbsolutePath();
+        for (String element : classpathElements) {
+            File f = new File(element);
+            String path = f.getAbsolutePath();
+            if (path.equals(output) || !f.exists()) {
+                continue;
+            }
+            Entry previous = recordedByPath.get(path);
+            Entry current;
+            if (f.isDirectory()) {
+                current = scanDirectory(f, previous);
+            } else if ((previous != null) && (previous.kind == JAR) && (previous.size == f.length()) && (previous.lastModified == f.lastModified())) {
+                current = previous;
+            } else {
+                current = scanJar(f, previous);
+                modified_ = true;
+            }
+            scanned_.add(current);
+        }
+        Set<String> back = new HashSet<String>();
+        if (!modified_ && (scanned_.size() == recorded_.size())) {
+            boolean sameOrder = true;
+            for (int i = 0; sameOrder && (i < scanned_.size()); i++) {
+                sameOrder = scanned_.get(i).path.equals(recorded_.get(i).path);
+            }
+            if (sameOrder) {
+                return back;
+            }
+        }
+        modified_ = true;
+        if (recorded_.isEmpty()) {
+            return back;
+        }
+        Map<String, long[]> before = effectiveClasses(recorded_);
+        Map<String, long[]> after = effectiveClasses(scanned_);
+        for (Map.Entry<String, long[]> e : after.entrySet()) {
+            if (apiChanged(before.remove(e.getKey()), e.getValue())) {
+                back.add(e.getKey());
+            }
+        }
+        for (Map.Entry<String, long[]> e : before.entrySet()) {
+            if (apiChanged(e.getValue(), null)) {
+                back.add(e.getKey());
+            }
+        }
+        return back;
+    }
+
+    /**
+     * @return a digest (hexadecimal MD5) of the content of the classpath scanned by the last
+     *         {@link #update(List, File)} : the names and CRC of the classes of each entry, in classpath order
+     *         (independent of the location of the entries)
+     */
+    public String getDigest() {
+        try {
+            MessageDigest md = MessageDigest.getInstance("MD5");
+            for (Entry entry : scanned_) {
+                md.update((byte) entry.kind);
+                Map<String, long[]> classes = getClasses(entry);
+                List<String> names = new ArrayList<String>(classes.keySet());
+                Collections.sort(names);
+                for (String name : names) {
+                    md.update(name.getBytes("UTF-8"));
+                    long crc = classes.get(name)[2];
+                    for (int i = 0; i < 4; i++) {
+                        md.update((byte) (crc >>> (8 * i)));
+                    }
+                }
+            }
+            return SourceIndex.toHex(md.digest());
+        } catch (NoSuchAlgorithmException exc) {
+            throw new IllegalStateException("MD5 not available", exc);
+        } catch (UnsupportedEncodingException exc) {
+            throw new IllegalStateException(exc);
+        }
+    }
+
+    /**
+     * Stores the fingerprints scanned by the last {@link #update(List, File)}, if they changed.
+     */
+    public void save() throws IOException {
+        if (scanned_ == null) {
+            return;
+        }
+        if (modified_ || !file_.exists()) {
+            AnalysisStore.Writer writer = new AnalysisStore.Writer();
+            long[][] entries = new long[scanned_.size()][];
+            long[][] fingerprints = new long[scanned_.size()][];
+            for (int i = 0; i < scanned_.size(); i++) {
+                Entry entry = scanned_.get(i);
+                entries[i] = new long[] {writer.addString(entry.path), entry.kind, entry.size, entry.lastModified};
+                Map<String, long[]> entryClasses = getClasses(entry);
+                long[] row = new long[entryClasses.size() * 5];
+                int k = 0;
+                for (Map.Entry<String, long[]> e : entryClasses.entrySet()) {
+                    row[k++] = writer.addString(e.getKey());
+                    row[k++] = e.getValue()[0];
+                    row[k++] = e.getValue()[1];
+                    row[k++] = e.getValue()[2];
+                    row[k++] = e.getValue()[3];
+                }
+                fingerprints[i] = row;
+            }
+            writer.addTable("entries", entries);
+            writer.addTable("fingerprints", fingerprints);
+            writer.write(file_);
+        }
+        store_ = null;
+        recorded_ = scanned_;
+        scanned_ = null;
+        modified_ = false;
+    }
+
+    private Entry scanDirectory(File dir, Entry previous) throws IOException {
+        Map<String, long[]> previousClasses = ((previous != null) && (previous.kind == DIRECTORY)) ? getClasses(previous) : new HashMap<String, long[]>();
+        Entry back = new Entry(dir.getAbsolutePath(), DIRECTORY, 0, 0);
+        back.classes = new HashMap<String, long[]>();
+        List<File> classFiles = new ArrayList<File>();
+        DependencyGraph.findClassFiles(dir, 0, classFiles);
+        int prefix = dir.getAbsolutePath().length() + 1;
+        ApiFingerprints published = null;
+        boolean publishedLoaded = false;
+        for (File f : classFiles) {
+            String path = f.getAbsolutePath();
+            String name = path.substring(prefix, path.length() - ".class".length()).replace(File.separatorChar, '/');
+            long size = f.length();
+            long lastModified = f.lastModified();
+            long[] fingerprint = previousClasses.get(name);
+            if ((fingerprint == null) || (fingerprint[0] != size) || (fingerprint[1] != lastModified)) {
+                if (!publishedLoaded) {
+                    published = ApiFingerprints.load(dir);
+                    publishedLoaded = true;
+                }
+                byte[] bytes = readBytes(f);
+                long crc = crc(bytes);
+                long api = (published == null) ? ApiFingerprints.UNKNOWN : published.getHash(name, crc);
+                if (api == ApiFingerprints.UNKNOWN) {
+                    api = apiHash(bytes);
+                }
+                fingerprint = new long[] {size, lastModified, crc, api};
+                modified_ = true;
+            }
+            back.classes.put(name, fingerprint);
+        }
+        if (back.classes.size() != previousClasses.size()) {
+            modified_ = true;
+        }
+        return back;
+    }
+
+    /**
+     * Reads the classes of the jar. The API of a class is computed only if the jar was recorded (it's a modified jar)
+     * and the class changed.
+     */
+    private Entry scanJar(File jar, Entry previous) throws IOException {
+        Map<String, long[]> previousClasses = ((previous != null) && (previous.kind == JAR)) ? getClasses(previous) : null;
+        Entry back = new Entry(jar.getAbsolutePath(), JAR, jar.length(), jar.lastModified());
+        back.classes = new HashMap<String, long[]>();
+        ZipFile zip = new ZipFile(jar);
+        try {
+            for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements();) {
+                ZipEntry entry = e.nextElement();
+                String name = entry.getName();
+                if (name.endsWith(".class")) {
+                    name = name.substring(0, name.length() - ".class".length());
+                    long api = ApiFingerprints.UNKNOWN;
+                    if (previousClasses != null) {
+                        long[] fingerprint = previousClasses.get(name);
+                        if ((fingerprint != null) && (fingerprint[2] == entry.getCrc())) {
+                            api = fingerprint[3];
+                        } else {
+                            InputStream in = zip.getInputStream(entry);
+                            try {
+                                api = apiHash(IOUtil.toByteArray(in));
+                            } finally {
+                                IOUtil.close(in);
+                            }
+                        }
+                    }
+                    back.classes.put(name, new long[] {entry.getSize(), 0, entry.getCrc(), api});
+                }
+            }
+        } finally {
+            zip.close();
+        }
+        return back;
+    }
+
+    /** @return true if the API of a class changed between two fingerprints (null for a missing class) */
+    private static boolean apiChanged(long[] before, long[] after) {
+        long apiBefore = (before == null) ? ApiFingerprints.NO_API : before[3];
+        long apiAfter = (after == null) ? ApiFingerprints.NO_API : after[3];
+        if ((apiBefore == ApiFingerprints.UNKNOWN) || (apiAfter == ApiFingerprints.UNKNOWN)) {
+            return (before == null) || (after == null) || (before[2] != after[2]);
+        }
+        return apiBefore != apiAfter;
+    }
+
+    /** @return the hash of the API of the classfile, or unknown if the classfile can't be read */
+    private static long apiHash(byte[] bytes) {
+        try {
+            return ApiFingerprints.hash(ClassFile.read(bytes));
+        } catch (IOException exc) {
+            return ApiFingerprints.UNKNOWN;
+        }
+    }
+
+    static byte[] readBytes(File f) throws IOException {
+        InputStream in = new FileInputStream(f);
+        try {
+            return IOUtil.toByteArray(in);
+        } finally {
+            IOUtil.close(in);
+        }
+    }
+
+    static long crc(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        return crc.getValue();
+    }
+
+    private Map<String, long[]> effectiveClasses(List<Entry> entries) {
+        Map<String, long[]> back = new HashMap<String, long[]>();
+        for (Entry entry : entries) {
+            for (Map.Entry<String, long[]> e : getClasses(entry).entrySet()) {
+                if (!back.containsKey(e.getKey())) {
+                    back.put(e.getKey(), e.getValue());
+                }
+            }
+        }
+        return back;
+    }
+
+    /** @return the classes of the entry, read from the store if needed */
+    private Map<String, long[]> getClasses(Entry entry) {
+        if (entry.classes == null) {
+            entry.classes = new HashMap<String, long[]>();
+            long[] row = store_.getTable("fingerprints").getRow(entry.row);
+            for (int k = 0; k + 4 < row.length; k += 5) {
+                entry.classes.put(store_.getString((int) row[k]), new long[] {row[k + 1], row[k + 2], row[k + 3], row[k + 4]});
+            }
+        }
+        return entry.classes;
+    }
+
+    private void read() throws IOException {
+        AnalysisStore store = AnalysisStore.open(file_);
+        AnalysisStore.Table entries = store.getTable("entries");
+        if ((entries == null) || (store.getTable("fingerprints") == null)) {
+            throw new IOException("unsupported format : " + file_);
+        }
+        List<Entry> recorded = new ArrayList<Entry>();
+        for (int i = 0; i < entries.getNbRows(); i++) {
+            long[] row = entries.getRow(i);
+            Entry entry = new Entry(store.getString((int) row[0]), row[1], row[2], row[3]);
+            entry.row = i;
+            recorded.add(entry);
+        }
+        store_ = store;
+        recorded_ = recorded;
+    }
+}
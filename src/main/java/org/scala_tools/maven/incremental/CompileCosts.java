@@ -0,0 +1,82 @@
+package org.scala_tools.maven.incremental;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Persisted compile cost (in milliseconds) of each source, measured by the previous compilations.
+ * The duration of a compilation is split between its sources proportionally to their size.
+ */
+public class CompileCosts {
+    /** default throughput used to estimate the cost of sources never compiled (bytes per millisecond) */
+    private static final long DEFAULT_BYTES_PER_MS = 50;
+
+    private final File file_;
+    private final Map<String, Long> costs_ = new HashMap<String, Long>();
+
+    public static CompileCosts load(File file) {
+        CompileCosts back = new CompileCosts(file);
+        if (file.exists()) {
+            try {
+                back.read();
+            } catch (Exception exc) {
+                back.costs_.clear();
+            }
+        }
+        return back;
+    }
+
+    public CompileCosts(File file) {
+        file_ = file;
+    }
+
+    /** @return the recorded cost of the source, or an estimation based on its size */
+    public long estimate(File source) {
+        Long back = costs_.get(source.getAbsolutePath());
+        if (back == null) {
+            return Math.max(1, source.length() / DEFAULT_BYTES_PER_MS);
+        }
+        return back;
+    }
+
+    /** Records the duration of the compilation of the sources. */
+    public void record(Collection<File> sources, long duration) {
+        long totalSize = 0;
+        for (File source : sources) {
+            totalSize += source.length();
+        }
+        for (File source : sources) {
+            long cost = (totalSize == 0) ? (duration / sources.size()) : ((duration * source.length()) / totalSize);
+            costs_.put(source.getAbsolutePath(), Math.max(1, cost));
+        }
+    }
+
+    /** Drops the costs of the sources not in the collection (removed,...). */
+    public void retainAll(Collection<String> paths) {
+        costs_.keySet().retainAll(paths);
+    }
+
+    public void save() throws IOException {
+        AnalysisStore.Writer writer = new AnalysisStore.Writer();
+        long[][] rows = new long[costs_.size()][];
+        for (Map.Entry<String, Long> e : costs_.entrySet()) {
+            rows[writer.addString(e.getKey())] = new long[] {e.getValue()};
+        }
+        writer.addTable("costs", rows);
+        writer.write(file_);
+    }
+
+    private void read() throws IOException {
+        AnalysisStore store = AnalysisStore.open(file_);
+        AnalysisStore.Table costs = store.getTable("costs");
+        if (costs == null) {
+            throw new IOException("unsupported format : " + file_);
+        }
+        for (int i = 0; i < costs.getNbRows(); i++) {
+            costs_.put(store.getString(i), costs.getRow(i)[0]);
+        }
+    }
+}
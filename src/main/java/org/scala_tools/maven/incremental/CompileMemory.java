@@ -0,0 +1,69 @@
+package org.scala_tools.maven.incremental;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Persisted memory settings of the compilation of a module, learned from the compilations that ran out of memory :
+ * the heap of the scalac processes, and the budget of sources of a shard (when the sources are compiled in shards).
+ * Removing the file forgets them.
+ */
+public class CompileMemory {
+    private final File file_;
+    private int heap_;
+    private long shardBudget_;
+
+    public static CompileMemory load(File file) {
+        CompileMemory back = new CompileMemory(file);
+        if (file.exists()) {
+            try {
+                back.read();
+            } catch (Exception exc) {
+                back.heap_ = 0;
+                back.shardBudget_ = 0;
+            }
+        }
+        return back;
+    }
+
+    public CompileMemory(File file) {
+        file_ = file;
+    }
+
+    public File getFile() {
+        return file_;
+    }
+
+    /** @return the heap (in MB) of the scalac processes, 0 if unknown */
+    public int getHeap() {
+        return heap_;
+    }
+
+    /** @return the maximum size (in bytes) of the sources of a shard, 0 to compile the sources in a single scalac */
+    public long getShardBudget() {
+        return shardBudget_;
+    }
+
+    public void set(int heap, long shardBudget) {
+        heap_ = heap;
+        shardBudget_ = shardBudget;
+    }
+
+    public void save() throws IOException {
+        AnalysisStore.Writer writer = new AnalysisStore.Writer();
+        writer.addTable("memory", new long[][] { { heap_, shardBudget_ } });
+        file_.getParentFile().mkdirs();
+        writer.write(file_);
+    }
+
+    private void read() throws IOException {
+        AnalysisStore store = AnalysisStore.open(file_);
+        AnalysisStore.Table memory = store.getTable("memory");
+        if ((memory == null) || !memory.hasRow(0)) {
+            throw new IOException("unsupported format : " + file_);
+        }
+        long[] row = memory.getRow(0);
+        heap_ = (int) row[0];
+        shardBudget_ = row[1];
+    }
+}
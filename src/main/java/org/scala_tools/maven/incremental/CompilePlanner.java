@@ -0,0 +1,345 @@
+package org.scala_tools.maven.incremental;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Splits a set of sources into partitions that could be compiled concurrently, or into shards compiled one after the
+ * other.
+ *
+ * Sources are grouped by strongly connected components of their dependency graph (a cycle can't be split),
+ * components are leveled (a component is after every component it depends on), and contiguous levels are grouped
+ * into stages run one after the other. Inside a stage, independent groups of components are balanced between the
+ * workers according to their cost. The number of stages is chosen to minimize the estimated duration, as every
+ * partition pays the startup of a compiler.
+ */
+public class CompilePlanner {
+    /** estimated cost (in ms) to start a compiler process */
+    public static final long STARTUP_COST = 3000;
+
+    private static final int MAX_STAGES = 4;
+
+    private final int[][] deps_;
+    private final long[] costs_;
+    private int[] componentOf_;
+    private int nbComponents_;
+
+    /**
+     * @param deps for each source (by index), the indexes of the sources it depends on
+     * @param costs the estimated cost of each source
+     */
+    public CompilePlanner(int[][] deps, long[] costs) {
+        deps_ = deps;
+        costs_ = costs;
+    }
+
+    /** @return for each source, the id of its strongly connected component (dependencies have lower ids) */
+    public int[] getComponents() {
+        if (componentOf_ == null) {
+            computeComponents();
+        }
+        return componentOf_;
+    }
+
+    public int getNbComponents() {
+        getComponents();
+        return nbComponents_;
+    }
+
+    /**
+     * @return the stages (to run one after the other) of partitions (to run concurrently) of source indexes
+     */
+    public List<List<int[]>> plan(int nbWorkers) {
+        int[] components = getComponents();
+        int n = nbComponents_;
+        int[][] componentDeps = componentDependencies();
+        long[] componentCosts = new long[n];
+        for (int i = 0; i < components.length; i++) {
+            componentCosts[components[i]] += costs_[i];
+        }
+        // components are numbered in topological order (dependencies first)
+        int[] levels = new int[n];
+        int maxLevel = 0;
+        for (int c = 0; c < n; c++) {
+            for (int d : componentDeps[c]) {
+                levels[c] = Math.max(levels[c], levels[d] + 1);
+            }
+            maxLevel = Math.max(maxLevel, levels[c]);
+        }
+        long[] levelCosts = new long[maxLevel + 1];
+        long total = 0;
+        for (int c = 0; c < n; c++) {
+            levelCosts[levels[c]] += componentCosts[c];
+            total += componentCosts[c];
+        }
+
+        List<List<int[]>> best = null;
+        long bestDuration = Long.MAX_VALUE;
+        for (int nbStages = 1; nbStages <= Math.min(MAX_STAGES, maxLevel + 1); nbStages++) {
+            // stage of each level, splitting the cost evenly
+            int[] stageOfLevel = new int[maxLevel + 1];
+            long cumulated = 0;
+            for (int l = 0; l <= maxLevel; l++) {
+                stageOfLevel[l] = (int) Math.min(nbStages - 1, (cumulated * nbStages) / Math.max(1, total));
+                cumulated += levelCosts[l];
+            }
+            List<List<int[]>> stages = new ArrayList<List<int[]>>();
+            long duration = 0;
+            for (int s = 0; s < nbStages; s++) {
+                long[] loads = new long[nbWorkers];
+                List<int[]> partitions = partition(s, stageOfLevel, levels, componentDeps, componentCosts, nbWorkers, loads);
+                if (partitions.isEmpty()) {
+                    continue;
+                }
+                long max = 0;
+                for (long load : loads) {
+                    max = Math.max(max, load);
+                }
+                duration += max + STARTUP_COST;
+                stages.add(partitions);
+            }
+            if (duration < bestDuration) {
+                bestDuration = duration;
+                best = stages;
+            }
+        }
+        return (best == null) ? new ArrayList<List<int[]>>() : best;
+    }
+
+    /**
+     * Splits the sources into shards to compile one after the other : a shard only depends on itself and on the
+     * previous shards. Components are packed in topological order while the cost of the shard stays below the
+     * budget (a component bigger than the budget is a shard, as a cycle can't be split).
+     *
+     * @return the shards of source indexes
+     */
+    public List<int[]> shard(long budget) {
+        int[] components = getComponents();
+        int n = nbComponents_;
+        long[] componentCosts = new long[n];
+        int[] componentSizes = new int[n];
+        for (int i = 0; i < components.length; i++) {
+            componentCosts[components[i]] += costs_[i];
+            componentSizes[components[i]]++;
+        }
+        // components are numbered in topological order (dependencies first)
+        int[] shardOf = new int[n];
+        List<Integer> shardSizes = new ArrayList<Integer>();
+        long cost = 0;
+        for (int c = 0; c < n; c++) {
+            if (shardSizes.isEmpty() || ((cost > 0) && ((cost + componentCosts[c]) > budget))) {
+                shardSizes.add(0);
+                cost = 0;
+            }
+            int s = shardSizes.size() - 1;
+            shardOf[c] = s;
+            shardSizes.set(s, shardSizes.get(s) + componentSizes[c]);
+            cost += componentCosts[c];
+        }
+        List<int[]> back = new ArrayList<int[]>(shardSizes.size());
+        for (int size : shardSizes) {
+            back.add(new int[size]);
+        }
+        int[] filled = new int[shardSizes.size()];
+        for (int i = 0; i < components.length; i++) {
+            int s = shardOf[components[i]];
+            back.get(s)[filled[s]++] = i;
+        }
+        return back;
+    }
+
+    /**
+     * Groups the components of the stage into independent groups (weakly connected inside the stage), then
+     * assigns the groups to the workers, biggest first, to the least loaded worker.
+     * Fewer workers are used if the stage is too small to be worth several compilers.
+     */
+    private List<int[]> partition(int stage, int[] stageOfLevel, int[] levels, int[][] componentDeps, long[] componentCosts, int nbWorkers, long[] loads) {
+        int n = componentDeps.length;
+        int[] parent = new int[n];
+        for (int c = 0; c < n; c++) {
+            parent[c] = c;
+        }
+        for (int c = 0; c < n; c++) {
+            if (stageOfLevel[levels[c]] != stage) {
+                continue;
+            }
+            for (int d : componentDeps[c]) {
+                if (stageOfLevel[levels[d]] == stage) {
+                    parent[find(parent, c)] = find(parent, d);
+                }
+            }
+        }
+        final long[] groupCosts = new long[n];
+        List<Integer> groups = new ArrayList<Integer>();
+        for (int c = 0; c < n; c++) {
+            if (stageOfLevel[levels[c]] == stage) {
+                int root = find(parent, c);
+                if (groupCosts[root] == 0) {
+                    groups.add(root);
+                }
+                groupCosts[root] += Math.max(1, componentCosts[c]);
+            }
+        }
+        Collections.sort(groups, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                long diff = groupCosts[b] - groupCosts[a];
+                return (diff > 0) ? 1 : ((diff < 0) ? -1 : 0);
+            }
+        });
+        // a part should at least be worth the startup of a compiler
+        long stageCost = 0;
+        for (int root : groups) {
+            stageCost += groupCosts[root];
+        }
+        nbWorkers = (int) Math.max(1, Math.min(nbWorkers, stageCost / STARTUP_COST));
+        int[] workerOfGroup = new int[n];
+        for (int root : groups) {
+            int worker = 0;
+            for (int w = 1; w < nbWorkers; w++) {
+                if (loads[w] < loads[worker]) {
+                    worker = w;
+                }
+            }
+            workerOfGroup[root] = worker;
+            loads[worker] += groupCosts[root];
+        }
+        int[] sizes = new int[nbWorkers];
+        int[] components = getComponents();
+        for (int i = 0; i < components.length; i++) {
+            int c = components[i];
+            if (stageOfLevel[levels[c]] == stage) {
+                sizes[workerOfGroup[find(parent, c)]]++;
+            }
+        }
+        List<int[]> back = new ArrayList<int[]>();
+        int[][] partitions = new int[nbWorkers][];
+        for (int w = 0; w < nbWorkers; w++) {
+            partitions[w] = new int[sizes[w]];
+            if (sizes[w] > 0) {
+                back.add(partitions[w]);
+            }
+        }
+        Arrays.fill(sizes, 0);
+        for (int i = 0; i < components.length; i++) {
+            int c = components[i];
+            if (stageOfLevel[levels[c]] == stage) {
+                int w = workerOfGroup[find(parent, c)];
+                partitions[w][sizes[w]++] = i;
+            }
+        }
+        return back;
+    }
+
+    private static int find(int[] parent, int c) {
+        while (parent[c] != c) {
+            parent[c] = parent[parent[c]];
+            c = parent[c];
+        }
+        return c;
+    }
+
+    private int[][] componentDependencies() {
+        int[] components = getComponents();
+        int n = nbComponents_;
+        List<List<Integer>> tmp = new ArrayList<List<Integer>>(n);
+        for (int c = 0; c < n; c++) {
+            tmp.add(new ArrayList<Integer>());
+        }
+        boolean[] seen = new boolean[n];
+        for (int i = 0; i < deps_.length; i++) {
+            int c = components[i];
+            for (int j : deps_[i]) {
+                int d = components[j];
+                if (d != c) {
+                    tmp.get(c).add(d);
+                }
+            }
+        }
+        int[][] back = new int[n][];
+        for (int c = 0; c < n; c++) {
+            List<Integer> l = tmp.get(c);
+            int[] values = new int[l.size()];
+            int k = 0;
+            for (int d : l) {
+                if (!seen[d]) {
+                    seen[d] = true;
+                    values[k++] = d;
+                }
+            }
+            for (int d : l) {
+                seen[d] = false;
+            }
+            if (k < values.length) {
+                int[] trimmed = new int[k];
+                System.arraycopy(values, 0, trimmed, 0, k);
+                values = trimmed;
+            }
+            back[c] = values;
+        }
+        return back;
+    }
+
+    /** Tarjan's algorithm (iterative, to not overflow the stack on long chains). */
+    private void computeComponents() {
+        int n = deps_.length;
+        int[] index = new int[n];
+        int[] lowlink = new int[n];
+        boolean[] onStack = new boolean[n];
+        Arrays.fill(index, -1);
+        int[] stack = new int[n];
+        int sp = 0;
+        int[] callStack = new int[n];
+        int[] edgeStack = new int[n];
+        int csp = 0;
+        int counter = 0;
+        componentOf_ = new int[n];
+        nbComponents_ = 0;
+        for (int root = 0; root < n; root++) {
+            if (index[root] != -1) {
+                continue;
+            }
+            callStack[csp] = root;
+            edgeStack[csp] = 0;
+            csp++;
+            index[root] = lowlink[root] = counter++;
+            stack[sp++] = root;
+            onStack[root] = true;
+            while (csp > 0) {
+                int v = callStack[csp - 1];
+                int e = edgeStack[csp - 1];
+                if (e < deps_[v].length) {
+                    edgeStack[csp - 1]++;
+                    int w = deps_[v][e];
+                    if (index[w] == -1) {
+                        index[w] = lowlink[w] = counter++;
+                        stack[sp++] = w;
+                        onStack[w] = true;
+                        callStack[csp] = w;
+                        edgeStack[csp] = 0;
+                        csp++;
+                    } else if (onStack[w]) {
+                        lowlink[v] = Math.min(lowlink[v], index[w]);
+                    }
+                } else {
+                    csp--;
+                    if (lowlink[v] == index[v]) {
+                        int w;
+                        do {
+                            w = stack[--sp];
+                            onStack[w] = false;
+                            componentOf_[w] = nbComponents_;
+                        } while (w != v);
+                        nbComponents_++;
+                    }
+                    if (csp > 0) {
+                        int u = callStack[csp - 1];
+                        lowlink[u] = Math.min(lowlink[u], lowlink[v]);
+                    }
+                }
+            }
+        }
+    }
+}
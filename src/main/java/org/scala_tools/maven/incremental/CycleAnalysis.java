@@ -0,0 +1,235 @@
+package org.scala_tools.maven.incremental;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Analysis of the cycles (strongly connected components of more than one source) of the dependency graph of the
+ * sources : a cycle is always compiled as a whole, by a single compiler, and a change of one of its sources
+ * invalidates every source of the cycle. Finds the dependencies (edges) whose removal splits a cycle the most, and
+ * estimates what the incremental and the parallel compilations would gain without them.
+ */
+public class CycleAnalysis {
+    /** maximum number of edges of a cycle evaluated, the ones the most likely to split it */
+    private static final int MAX_EVALUATED_EDGES = 2000;
+
+    /** A dependency of a cycle, and the size of the biggest cycle left without it. */
+    public static class Split {
+        public final int from;
+        public final int to;
+        public final int biggestLeft;
+
+        public Split(int from, int to, int biggestLeft) {
+            this.from = from;
+            this.to = to;
+            this.biggestLeft = biggestLeft;
+        }
+    }
+
+    private final int[][] deps_;
+
+    /**
+     * @param deps for each source (by index), the indexes of the sources it depends on
+     */
+    public CycleAnalysis(int[][] deps) {
+        deps_ = deps;
+    }
+
+    /** @return the cycles, biggest first, as arrays of source indexes */
+    public List<int[]> getCycles() {
+        CompilePlanner planner = new CompilePlanner(deps_, new long[deps_.length]);
+        int[] components = planner.getComponents();
+        int[] sizes = new int[planner.getNbComponents()];
+        for (int c : components) {
+            sizes[c]++;
+        }
+        int[][] members = new int[sizes.length][];
+        for (int c = 0; c < sizes.length; c++) {
+            members[c] = new int[sizes[c]];
+        }
+        int[] filled = new int[sizes.length];
+        for (int i = 0; i < components.length; i++) {
+            members[components[i]][filled[components[i]]++] = i;
+        }
+        List<int[]> back = new ArrayList<int[]>();
+        for (int[] m : members) {
+            if (m.length > 1) {
+                back.add(m);
+            }
+        }
+        Collections.sort(back, new Comparator<int[]>() {
+            public int compare(int[] a, int[] b) {
+                return b.length - a.length;
+            }
+        });
+        return back;
+    }
+
+    /**
+     * @return the dependencies inside the cycle whose removal leaves the smallest biggest cycle, best first
+     */
+    public List<Split> getSplits(int[] cycle, int max) {
+        int n = cycle.length;
+        int[] local = new int[deps_.length];
+        Arrays.fill(local, -1);
+        for (int i = 0; i < n; i++) {
+            local[cycle[i]] = i;
+        }
+        int[][] localDeps = new int[n][];
+        int[] inDegrees = new int[n];
+        List<int[]> edges = new ArrayList<int[]>();
+        for (int i = 0; i < n; i++) {
+            int k = 0;
+            int[] tmp = new int[deps_[cycle[i]].length];
+            for (int d : deps_[cycle[i]]) {
+                if (local[d] > -1) {
+                    tmp[k++] = local[d];
+                    inDegrees[local[d]]++;
+                    edges.add(new int[] { i, local[d] });
+                }
+            }
+            localDeps[i] = new int[k];
+            System.arraycopy(tmp, 0, localDeps[i], 0, k);
+        }
+        // an edge leaving a source with few dependencies, or reaching a source with few dependents, is more likely
+        // to be the only path between two parts of the cycle
+        final int[][] ld = localDeps;
+        final int[] in = inDegrees;
+        Collections.sort(edges, new Comparator<int[]>() {
+            public int compare(int[] a, int[] b) {
+                return Math.min(ld[a[0]].length, in[a[1]]) - Math.min(ld[b[0]].length, in[b[1]]);
+            }
+        });
+        List<Split> back = new ArrayList<Split>();
+        for (int[] e : edges.subList(0, Math.min(edges.size(), MAX_EVALUATED_EDGES))) {
+            int[][] without = localDeps.clone();
+            without[e[0]] = remove(localDeps[e[0]], e[1]);
+            back.add(new Split(cycle[e[0]], cycle[e[1]], biggestComponent(without)));
+        }
+        Collections.sort(back, new Comparator<Split>() {
+            public int compare(Split a, Split b) {
+                return a.biggestLeft - b.biggestLeft;
+            }
+        });
+        return back.subList(0, Math.min(max, back.size()));
+    }
+
+    /**
+     * @return the mean number of other sources invalidated (to recompile) by a change of a source : its dependents,
+     *         direct or transitive
+     */
+    public static double getMeanInvalidation(int[][] deps) {
+        int n = deps.length;
+        if (n == 0) {
+            return 0;
+        }
+        CompilePlanner planner = new CompilePlanner(deps, new long[n]);
+        int[] components = planner.getComponents();
+        int nbComponents = planner.getNbComponents();
+        int[] sizes = new int[nbComponents];
+        List<List<Integer>> dependents = new ArrayList<List<Integer>>(nbComponents);
+        for (int c = 0; c < nbComponents; c++) {
+            dependents.add(new ArrayList<Integer>());
+        }
+        for (int i = 0; i < n; i++) {
+            sizes[components[i]]++;
+            for (int d : deps[i]) {
+                if (components[d] != components[i]) {
+                    dependents.get(components[d]).add(components[i]);
+                }
+            }
+        }
+        // components are numbered in topological order (dependencies first), so dependents have higher numbers
+        BitSet[] reached = new BitSet[nbComponents];
+        double total = 0;
+        for (int c = nbComponents - 1; c >= 0; c--) {
+            reached[c] = new BitSet(nbComponents);
+            reached[c].set(c);
+            for (int d : dependents.get(c)) {
+                reached[c].or(reached[d]);
+            }
+            long invalidated = 0;
+            for (int r = reached[c].nextSetBit(0); r >= 0; r = reached[c].nextSetBit(r + 1)) {
+                invalidated += sizes[r];
+            }
+            total += (double) sizes[c] * (invalidated - 1);
+        }
+        return total / n;
+    }
+
+    /**
+     * @return the total cost of the sources divided by the cost of the longest chain of dependent components : the
+     *         maximum speedup of a parallel compilation
+     */
+    public static double getMaxSpeedup(int[][] deps, long[] costs) {
+        int n = deps.length;
+        CompilePlanner planner = new CompilePlanner(deps, costs);
+        int[] components = planner.getComponents();
+        int nbComponents = planner.getNbComponents();
+        long[] componentCosts = new long[nbComponents];
+        long total = 0;
+        for (int i = 0; i < n; i++) {
+            componentCosts[components[i]] += costs[i];
+            total += costs[i];
+        }
+        // components are numbered in topological order (dependencies first)
+        long[] chains = new long[nbComponents];
+        List<List<Integer>> componentDeps = new ArrayList<List<Integer>>(nbComponents);
+        for (int c = 0; c < nbComponents; c++) {
+            componentDeps.add(new ArrayList<Integer>());
+        }
+        for (int i = 0; i < n; i++) {
+            for (int d : deps[i]) {
+                if (components[d] != components[i]) {
+                    componentDeps.get(components[i]).add(components[d]);
+                }
+            }
+        }
+        long longest = 0;
+        for (int c = 0; c < nbComponents; c++) {
+            long before = 0;
+            for (int d : componentDeps.get(c)) {
+                before = Math.max(before, chains[d]);
+            }
+            chains[c] = before + componentCosts[c];
+            longest = Math.max(longest, chains[c]);
+        }
+        return (longest == 0) ? 1 : ((double) total / longest);
+    }
+
+    /** @return the dependencies without the given edges */
+    public static int[][] without(int[][] deps, List<Split> edges) {
+        int[][] back = deps.clone();
+        for (Split e : edges) {
+            back[e.from] = remove(back[e.from], e.to);
+        }
+        return back;
+    }
+
+    private static int[] remove(int[] values, int value) {
+        int[] back = new int[values.length];
+        int k = 0;
+        for (int v : values) {
+            if (v != value) {
+                back[k++] = v;
+            }
+        }
+        int[] trimmed = new int[k];
+        System.arraycopy(back, 0, trimmed, 0, k);
+        return trimmed;
+    }
+
+    private static int biggestComponent(int[][] deps) {
+        CompilePlanner planner = new CompilePlanner(deps, new long[deps.length]);
+        int[] sizes = new int[planner.getNbComponents()];
+        int back = 0;
+        for (int c : planner.getComponents()) {
+            back = Math.max(back, ++sizes[c]);
+        }
+        return back;
+    }
+}
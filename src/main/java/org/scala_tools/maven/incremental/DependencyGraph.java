@@ -0,0 +1,630 @@
+package org.scala_tools.maven.incremental;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Persisted graph source -&gt; produced classes -&gt; referenced classes, built from the classfiles
+ * of the output directory after each compilation.
+ *
+ * Sources are the ids of their path in a {@link PathTable}, classes are interned in a {@link NameTable}, and the edges
+ * are stored as int arrays (the reverse edges are computed on demand). The graph is stored into an
+ * {@link AnalysisStore}, and the sources and the edges of a loaded graph are only read when used, so checking a few
+ * sources doesn't read the whole graph. Names only used by removed sources are dropped when the graph is saved.
+ */
+public class DependencyGraph {
+    /** marks a row not read yet from the store */
+    private static final int[] UNLOADED = new int[0];
+
+    private final File file_;
+    private final PathTable paths_;
+    /** the names of the classes (and the strings of the store, for a loaded graph) */
+    private NameTable names_ = new NameTable();
+    /** by path id, the ids of the produced classes (null if the path is not a source) */
+    private int[][] products_ = new int[0][];
+    /** by class id, the ids of the referenced classes (null if the id is not a compiled class) */
+    private int[][] dependencies_ = new int[0][];
+    private int nbSources_;
+    private AnalysisStore.Table productsTable_;
+    private AnalysisStore.Table dependenciesTable_;
+    /** false while some sources of the store could be missing from products_ */
+    private boolean sourcesLoaded_ = true;
+
+    // reverse edges (class -> classes referencing it, class -> path id of its source), computed on demand
+    private int[] dependentsOffsets_;
+    private int[] dependents_;
+    private int[] owners_;
+
+    public static DependencyGraph load(File file, PathTable paths) {
+        DependencyGraph back = new DependencyGraph(file, paths);
+        if (file.exists()) {
+            try {
+                back.read();
+            } catch (Exception exc) {
+                back.clear();
+            }
+        }
+        return back;
+    }
+
+    /**
+     * @param file the file the graph is saved into, null for a graph never saved
+     * @param paths the table of the paths of the sources
+     */
+    public DependencyGraph(File file, PathTable paths) {
+        file_ = file;
+        paths_ = paths;
+    }
+
+    public void clear() {
+        names_ = new NameTable();
+        products_ = new int[0][];
+        dependencies_ = new int[0][];
+        nbSources_ = 0;
+        productsTable_ = null;
+        dependenciesTable_ = null;
+        sourcesLoaded_ = true;
+        resetReverse();
+    }
+
+    /** @return the path ids of every source recorded in the graph */
+    public Set<Integer> getSources() {
+        loadSources();
+        Set<Integer> back = new HashSet<Integer>();
+        for (int i = 0; i < products_.length; i++) {
+            if (products_[i] != null) {
+                back.add(i);
+            }
+        }
+        return back;
+    }
+
+    /**
+     * @return the path ids of the sources recorded in the graph, but not in the given sources
+     */
+    public Set<Integer> getRemovedSources(Collection<Integer> sources) {
+        int nbFound = 0;
+        for (int source : sources) {
+            if (isSource(source)) {
+                nbFound++;
+            }
+        }
+        if (nbFound == nbSources_) {
+            // no need to read every source
+            return new HashSet<Integer>();
+        }
+        Set<Integer> back = getSources();
+        back.removeAll(sources);
+        return back;
+    }
+
+    /** @return the internal names of the classes produced by the source (empty if unknown) */
+    public List<String> getProducts(int source) {
+        List<String> back = new ArrayList<String>();
+        int[] products = products(source);
+        if (products != null) {
+            for (int p : products) {
+                back.add(names_.get(p));
+            }
+        }
+        return back;
+    }
+
+    /**
+     * @return the classfiles (in outputDir) produced by the sources
+     */
+    public List<File> getProductFiles(Collection<Integer> sources, File outputDir) {
+        List<File> back = new ArrayList<File>();
+        for (int source : sources) {
+            for (String className : getProducts(source)) {
+                back.add(new File(outputDir, className.replace('/', File.separatorChar) + ".class"));
+            }
+        }
+        return back;
+    }
+
+    /**
+     * @return true if every source is recorded in the graph
+     */
+    public boolean containsAll(Collection<Integer> sources) {
+        for (int source : sources) {
+            if (!isSource(source)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return for each source of the list (by index), the indexes of the sources of the list it depends on
+     */
+    public int[][] getSourceDependencies(List<Integer> sources) {
+        computeReverse();
+        int[] indexOf = new int[products_.length];
+        Arrays.fill(indexOf, -1);
+        for (int i = 0; i < sources.size(); i++) {
+            int id = sources.get(i);
+            if ((id > -1) && (id < indexOf.length)) {
+                indexOf[id] = i;
+            }
+        }
+        int[][] back = new int[sources.size()][];
+        boolean[] seen = new boolean[sources.size()];
+        int[] tmp = new int[sources.size()];
+        for (int i = 0; i < sources.size(); i++) {
+            int k = 0;
+            int[] products = products(sources.get(i));
+            if (products != null) {
+                for (int p : products) {
+                    int[] dependencies = dependencies(p);
+                    if (dependencies == null) {
+                        continue;
+                    }
+                    for (int d : dependencies) {
+                        int owner = owners_[d];
+                        int j = (owner < 0) ? -1 : indexOf[owner];
+                        if ((j > -1) && (j != i) && !seen[j]) {
+                            seen[j] = true;
+                            tmp[k++] = j;
+                        }
+                    }
+                }
+            }
+            back[i] = new int[k];
+            System.arraycopy(tmp, 0, back[i], 0, k);
+            for (int j : back[i]) {
+                seen[j] = false;
+            }
+        }
+        return back;
+    }
+
+    /**
+     * @return the path ids of the sources that depend, directly or transitively, on the classes produced by the
+     *         changed sources (the changed sources are not included).
+     */
+    public Set<Integer> getInvalidatedSources(Collection<Integer> changedSources) {
+        computeReverse();
+        boolean[] visitedClasses = new boolean[names_.size()];
+        boolean[] visitedSources = new boolean[products_.length];
+        int[] queue = new int[names_.size()];
+        int head = 0;
+        int tail = 0;
+        for (int id : changedSources) {
+            int[] products = products(id);
+            if (products != null) {
+                visitedSources[id] = true;
+                for (int p : products) {
+                    if (!visitedClasses[p]) {
+                        visitedClasses[p] = true;
+                        queue[tail++] = p;
+                    }
+                }
+            }
+        }
+        Set<Integer> back = new HashSet<Integer>();
+        while (head < tail) {
+            int c = queue[head++];
+            for (int i = dependentsOffsets_[c]; i < dependentsOffsets_[c + 1]; i++) {
+                int owner = owners_[dependents_[i]];
+                if ((owner < 0) || visitedSources[owner]) {
+                    continue;
+                }
+                visitedSources[owner] = true;
+                back.add(owner);
+                for (int p : products(owner)) {
+                    if (!visitedClasses[p]) {
+                        visitedClasses[p] = true;
+                        queue[tail++] = p;
+                    }
+                }
+            }
+        }
+        return back;
+    }
+
+    /**
+     * @return the path ids of the sources whose classes reference one of the classes (by internal name)
+     */
+    public Set<Integer> getSourcesReferencing(Collection<String> classNames) {
+        computeReverse();
+        Set<Integer> back = new HashSet<Integer>();
+        for (String className : classNames) {
+            int id = names_.find(className);
+            if ((id < 0) || (id >= dependentsOffsets_.length - 1)) {
+                continue;
+            }
+            for (int i = dependentsOffsets_[id]; i < dependentsOffsets_[id + 1]; i++) {
+                int owner = owners_[dependents_[i]];
+                if (owner > -1) {
+                    back.add(owner);
+                }
+            }
+        }
+        return back;
+    }
+
+    /**
+     * Updates the graph after a compilation: forget removed sources and previous products of the compiled sources,
+     * then read the classfiles written in outputDir since the given date, and attach them to the compiled sources.
+     *
+     * @param compiledSources the path ids of the compiled sources
+     * @param removedSources the path ids of the removed sources
+     */
+    public void recordCompilation(Collection<Integer> compiledSources, Collection<Integer> removedSources, File outputDir, long since) throws IOException {
+        ensureClasses(names_.size());
+        for (int source : removedSources) {
+            forgetSource(source);
+        }
+        for (int source : compiledSources) {
+            forgetSource(source);
+        }
+        Map<Integer, List<Integer>> newProducts = new HashMap<Integer, List<Integer>>();
+        List<File> classFiles = new ArrayList<File>();
+        if (!compiledSources.isEmpty()) {
+            findClassFiles(outputDir, since, classFiles);
+        }
+        Map<String, List<Integer>> sourcesByName = getSourcesByName(paths_, compiledSources);
+        for (File f : classFiles) {
+            ClassFile cf = ClassFile.read(f);
+            int sourceId = findSource(paths_, cf, sourcesByName);
+            if (sourceId < 0) {
+                continue;
+            }
+            int classId = names_.intern(cf.name);
+            int[] deps = new int[cf.referencedClasses.size()];
+            int i = 0;
+            for (String ref : cf.referencedClasses) {
+                deps[i++] = names_.intern(ref);
+            }
+            ensureClasses(names_.size());
+            dependencies_[classId] = deps;
+            List<Integer> l = newProducts.get(sourceId);
+            if (l == null) {
+                l = new ArrayList<Integer>();
+                newProducts.put(sourceId, l);
+            }
+            l.add(classId);
+        }
+        for (int source : compiledSources) {
+            List<Integer> l = newProducts.get(source);
+            int[] products = new int[(l == null) ? 0 : l.size()];
+            for (int i = 0; i < products.length; i++) {
+                products[i] = l.get(i);
+            }
+            setProducts(source, products);
+        }
+        resetReverse();
+    }
+
+    private void forgetSource(int id) {
+        int[] products = products(id);
+        if (products == null) {
+            return;
+        }
+        for (int p : products) {
+            dependencies_[p] = null;
+        }
+        setProducts(id, null);
+    }
+
+    private void setProducts(int id, int[] products) {
+        boolean wasSource = (products(id) != null);
+        ensureSources(id + 1);
+        products_[id] = products;
+        if (wasSource && (products == null)) {
+            nbSources_--;
+        } else if (!wasSource && (products != null)) {
+            nbSources_++;
+        }
+    }
+
+    /**
+     * @return the source (among the candidates) of each classfile, the classfiles whose source is unknown are not in
+     *         the map
+     */
+    public static Map<File, Integer> findSources(PathTable paths, Collection<Integer> candidates, List<File> classFiles) throws IOException {
+        Map<String, List<Integer>> sourcesByName = getSourcesByName(paths, candidates);
+        Map<File, Integer> back = new HashMap<File, Integer>();
+        for (File f : classFiles) {
+            int source = findSource(paths, ClassFile.read(f), sourcesByName);
+            if (source > -1) {
+                back.put(f, source);
+            }
+        }
+        return back;
+    }
+
+    /**
+     * @return the sources (among the candidates) of the classfiles written in outputDir since the given date
+     */
+    public static Set<Integer> findCompiledSources(PathTable paths, Collection<Integer> candidates, File outputDir, long since) throws IOException {
+        List<File> classFiles = new ArrayList<File>();
+        findClassFiles(outputDir, since, classFiles);
+        return new HashSet<Integer>(findSources(paths, candidates, classFiles).values());
+    }
+
+    private static Map<String, List<Integer>> getSourcesByName(PathTable paths, Collection<Integer> sources) {
+        Map<String, List<Integer>> back = new HashMap<String, List<Integer>>();
+        for (int source : sources) {
+            String name = paths.getName(source);
+            List<Integer> l = back.get(name);
+            if (l == null) {
+                l = new ArrayList<Integer>();
+                back.put(name, l);
+            }
+            l.add(source);
+        }
+        return back;
+    }
+
+    /**
+     * The SourceFile attribute only contains the name of the file, so if several compiled sources have the same
+     * name, prefer the one stored under the directory matching the package of the class.
+     *
+     * @return the path id of the source, -1 if unknown
+     */
+    private static int findSource(PathTable paths, ClassFile cf, Map<String, List<Integer>> sourcesByName) {
+        if (cf.sourceFile == null) {
+            return -1;
+        }
+        List<Integer> candidates = sourcesByName.get(cf.sourceFile);
+        if ((candidates == null) || candidates.isEmpty()) {
+            return -1;
+        }
+        if (candidates.size() > 1) {
+            int sep = cf.name.lastIndexOf('/');
+            if (sep > 0) {
+                String[] packageDirs = cf.name.substring(0, sep).split("/");
+                for (int candidate : candidates) {
+                    if (isInDirs(paths, candidate, packageDirs)) {
+                        return candidate;
+                    }
+                }
+            }
+        }
+        return candidates.get(0);
+    }
+
+    /** @return true if the path ends with the directories then the name of the file */
+    private static boolean isInDirs(PathTable paths, int id, String[] dirs) {
+        int dir = paths.getParent(id);
+        for (int i = dirs.length - 1; i >= 0; i--) {
+            if ((dir == -1) || !paths.getName(dir).equals(dirs[i])) {
+                return false;
+            }
+            dir = paths.getParent(dir);
+        }
+        return true;
+    }
+
+    public static void findClassFiles(File dir, long since, List<File> back) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                findClassFiles(child, since, back);
+            } else if (child.getName().endsWith(".class") && (child.lastModified() >= since)) {
+                back.add(child);
+            }
+        }
+    }
+
+    private void ensureSources(int size) {
+        if (products_.length < size) {
+            int[][] tmp = new int[Math.max(size, products_.length * 2)][];
+            System.arraycopy(products_, 0, tmp, 0, products_.length);
+            if (!sourcesLoaded_) {
+                Arrays.fill(tmp, products_.length, tmp.length, UNLOADED);
+            }
+            products_ = tmp;
+        }
+    }
+
+    private void ensureClasses(int size) {
+        if (dependencies_.length < size) {
+            int[][] tmp = new int[Math.max(size, dependencies_.length * 2)][];
+            System.arraycopy(dependencies_, 0, tmp, 0, dependencies_.length);
+            dependencies_ = tmp;
+        }
+    }
+
+    /** Reads the path of every source of the store, to iterate the sources by path id. */
+    private void loadSources() {
+        if (sourcesLoaded_) {
+            return;
+        }
+        for (int row = 0; row < productsTable_.getNbRows(); row++) {
+            if (productsTable_.hasRow(row)) {
+                int id = paths_.intern(-1, names_.get(row));
+                ensureSources(id + 1);
+                if (products_[id] == UNLOADED) {
+                    products_[id] = productsTable_.getIntRow(row);
+                }
+            }
+        }
+        for (int i = 0; i < products_.length; i++) {
+            if (products_[i] == UNLOADED) {
+                products_[i] = null;
+            }
+        }
+        sourcesLoaded_ = true;
+    }
+
+    private void resetReverse() {
+        dependentsOffsets_ = null;
+        dependents_ = null;
+        owners_ = null;
+    }
+
+    private void computeReverse() {
+        if (dependentsOffsets_ != null) {
+            return;
+        }
+        loadSources();
+        int n = names_.size();
+        ensureClasses(n);
+        owners_ = new int[n];
+        Arrays.fill(owners_, -1);
+        for (int s = 0; s < products_.length; s++) {
+            if (products_[s] != null) {
+                for (int p : products_[s]) {
+                    owners_[p] = s;
+                }
+            }
+        }
+        int[] offsets = new int[n + 1];
+        for (int c = 0; c < n; c++) {
+            int[] dependencies = dependencies(c);
+            if (dependencies != null) {
+                for (int d : dependencies) {
+                    offsets[d + 1]++;
+                }
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            offsets[i + 1] += offsets[i];
+        }
+        int[] edges = new int[offsets[n]];
+        int[] fill = new int[n];
+        System.arraycopy(offsets, 0, fill, 0, n);
+        for (int c = 0; c < n; c++) {
+            int[] dependencies = dependencies(c);
+            if (dependencies != null) {
+                for (int d : dependencies) {
+                    edges[fill[d]++] = c;
+                }
+            }
+        }
+        dependentsOffsets_ = offsets;
+        dependents_ = edges;
+    }
+
+    /** @return the ids of the classes produced by the source, or null if the path is not a source */
+    private int[] products(int id) {
+        if ((id < 0) || ((id >= products_.length) && sourcesLoaded_)) {
+            return null;
+        }
+        ensureSources(id + 1);
+        int[] back = products_[id];
+        if (back == UNLOADED) {
+            int row = names_.find(paths_.getPath(id));
+            back = productsTable_.hasRow(row) ? productsTable_.getIntRow(row) : null;
+            products_[id] = back;
+        }
+        return back;
+    }
+
+    /** @return the ids of the classes referenced by the class, or null if the id is not a compiled class */
+    private int[] dependencies(int id) {
+        if ((id < 0) || (id >= dependencies_.length)) {
+            return null;
+        }
+        int[] back = dependencies_[id];
+        if (back == UNLOADED) {
+            back = dependenciesTable_.getIntRow(id);
+            dependencies_[id] = back;
+        }
+        return back;
+    }
+
+    private boolean isSource(int id) {
+        return products(id) != null;
+    }
+
+    /**
+     * Writes the graph, keeping only the names used by the recorded sources (their path, their classes and the
+     * classes referenced by them), so names of removed sources and classes don't accumulate.
+     */
+    public void save() throws IOException {
+        loadSources();
+        int n = names_.size();
+        ensureClasses(n);
+        AnalysisStore.Writer writer = new AnalysisStore.Writer();
+        int[] newSourceIds = new int[products_.length];
+        int[] newIds = new int[n];
+        Arrays.fill(newIds, -1);
+        for (int s = 0; s < products_.length; s++) {
+            int[] products = products_[s];
+            if (products == null) {
+                continue;
+            }
+            newSourceIds[s] = writer.addString(paths_.getPath(s));
+            for (int p : products) {
+                if (newIds[p] < 0) {
+                    newIds[p] = writer.addString(names_.get(p));
+                }
+                int[] dependencies = dependencies(p);
+                if (dependencies != null) {
+                    for (int d : dependencies) {
+                        if (newIds[d] < 0) {
+                            newIds[d] = writer.addString(names_.get(d));
+                        }
+                    }
+                }
+            }
+        }
+        int[][] products = new int[writer.getNbStrings()][];
+        int[][] dependencies = new int[writer.getNbStrings()][];
+        for (int s = 0; s < products_.length; s++) {
+            int[] sourceProducts = products_[s];
+            if (sourceProducts == null) {
+                continue;
+            }
+            products[newSourceIds[s]] = remap(sourceProducts, newIds);
+            for (int p : sourceProducts) {
+                dependencies[newIds[p]] = remap(dependencies(p), newIds);
+            }
+        }
+        writer.addIntTable("products", products);
+        writer.addIntTable("dependencies", dependencies);
+        writer.write(file_);
+    }
+
+    private static int[] remap(int[] ids, int[] newIds) {
+        if (ids == null) {
+            return null;
+        }
+        int[] back = new int[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            back[i] = newIds[ids[i]];
+        }
+        return back;
+    }
+
+    private void read() throws IOException {
+        AnalysisStore store = AnalysisStore.open(file_);
+        AnalysisStore.Table products = store.getTable("products");
+        AnalysisStore.Table dependencies = store.getTable("dependencies");
+        if ((products == null) || (dependencies == null)) {
+            throw new IOException("unsupported format : " + file_);
+        }
+        int n = store.getNbStrings();
+        names_ = new NameTable(store);
+        productsTable_ = products;
+        dependenciesTable_ = dependencies;
+        // the path ids of the sources are looked up on demand
+        sourcesLoaded_ = false;
+        products_ = new int[paths_.size()][];
+        Arrays.fill(products_, UNLOADED);
+        nbSources_ = 0;
+        for (int row = 0; row < products.getNbRows(); row++) {
+            if (products.hasRow(row)) {
+                nbSources_++;
+            }
+        }
+        dependencies_ = new int[n][];
+        Arrays.fill(dependencies_, 0, Math.min(n, dependencies.getNbRows()), UNLOADED);
+        resetReverse();
+    }
+}
@@ -0,0 +1,195 @@
+package org.scala_tools.maven.incremental;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.scala_tools.maven.executions.OutputListener;
+
+/**
+ * Persisted messages (warnings) reported by the compiler for each source, so the messages of the sources not
+ * compiled again could be displayed by the next compilations.
+ */
+public class Diagnostics {
+    /** first line of a message of scalac : <code>path:line: warning: text</code> */
+    private static final Pattern HEADER = Pattern.compile("(.+\\.(?:scala|java)):\\d+: (?:warning|error): .*");
+    /** last line of a message : the caret under the position in the source line */
+    private static final Pattern CARET = Pattern.compile("\\s*\\^\\s*");
+    /** maximum number of lines of a message, in case the caret line is missing */
+    private static final int MAX_LINES = 30;
+
+    private final File file_;
+    private final Map<String, List<String>> messages_ = new TreeMap<String, List<String>>();
+
+    public static Diagnostics load(File file) {
+        Diagnostics back = new Diagnostics(file);
+        if (file.exists()) {
+            try {
+                back.read();
+            } catch (Exception exc) {
+                back.messages_.clear();
+            }
+        }
+        return back;
+    }
+
+    public Diagnostics(File file) {
+        file_ = file;
+    }
+
+    /** @return the lines of the messages reported for the source by its last compilation */
+    public List<String> getMessages(String source) {
+        List<String> back = messages_.get(source);
+        return (back == null) ? Collections.<String>emptyList() : back;
+    }
+
+    /** @return the number of messages in the lines */
+    public static int count(List<String> lines) {
+        int back = 0;
+        for (String line : lines) {
+            if (HEADER.matcher(line).matches()) {
+                back++;
+            }
+        }
+        return back;
+    }
+
+    /** Replaces the messages of the compiled sources by the ones collected during their compilation. */
+    public void record(Collection<File> compiledSources, Collector collector) {
+        for (File source : compiledSources) {
+            String path = source.getAbsolutePath();
+            List<String> lines = (collector == null) ? null : collector.get(path);
+            if (lines == null) {
+                messages_.remove(path);
+            } else {
+                messages_.put(path, lines);
+            }
+        }
+    }
+
+    /** Drops the messages of the sources not in the collection (removed,...). */
+    public void retainAll(Collection<String> paths) {
+        messages_.keySet().retainAll(paths);
+    }
+
+    public void save() throws IOException {
+        AnalysisStore.Writer writer = new AnalysisStore.Writer();
+        List<int[]> rows = new ArrayList<int[]>();
+        for (Map.Entry<String, List<String>> e : messages_.entrySet()) {
+            int[] row = new int[e.getValue().size() + 1];
+            row[0] = writer.addString(e.getKey());
+            for (int i = 1; i < row.length; i++) {
+                row[i] = writer.addString(e.getValue().get(i - 1));
+            }
+            rows.add(row);
+        }
+        writer.addIntTable("messages", rows.toArray(new int[rows.size()][]));
+        writer.write(file_);
+    }
+
+    private void read() throws IOException {
+        AnalysisStore store = AnalysisStore.open(file_);
+        AnalysisStore.Table messages = store.getTable("messages");
+        if (messages == null) {
+            throw new IOException("unsupported format : " + file_);
+        }
+        for (int i = 0; i < messages.getNbRows(); i++) {
+            int[] row = messages.getIntRow(i);
+            List<String> lines = new ArrayList<String>(row.length - 1);
+            for (int j = 1; j < row.length; j++) {
+                lines.add(store.getString(row[j]));
+            }
+            messages_.put(store.getString(row[0]), lines);
+        }
+    }
+
+    /**
+     * Collects the messages written by compilers, by source. The lines of each output stream (so of each process,
+     * when several compilers run in parallel) are read by their own thread, so the message in progress is kept by
+     * thread.
+     */
+    public static class Collector implements OutputListener {
+        /** the directory the relative paths of the messages are resolved against, null for the current directory */
+        private final File baseDir_;
+        private final Map<String, List<String>> messages_ = new HashMap<String, List<String>>();
+        /** the lines of the source of the message in progress, and the number of lines of the message */
+        private final ThreadLocal<List<String>> current_ = new ThreadLocal<List<String>>();
+        private final ThreadLocal<Integer> nbLines_ = new ThreadLocal<Integer>();
+
+        public Collector() {
+            this(null);
+        }
+
+        /** @param baseDir the directory the compilers run in (the sources may be passed relative to it) */
+        public Collector(File baseDir) {
+            baseDir_ = baseDir;
+        }
+
+        public void lineWritten(String line) {
+            Matcher m = HEADER.matcher(line);
+            if (m.matches()) {
+                File source = new File(m.group(1));
+                if ((baseDir_ != null) && !source.isAbsolute()) {
+                    source = new File(baseDir_, m.group(1));
+                }
+                String path = source.getAbsolutePath();
+                synchronized (messages_) {
+                    List<String> l = messages_.get(path);
+                    if (l == null) {
+                        l = new ArrayList<String>();
+                        messages_.put(path, l);
+                    }
+                    l.add(line);
+                    current_.set(l);
+                    nbLines_.set(1);
+                }
+                return;
+            }
+            List<String> current = current_.get();
+            if (current == null) {
+                return;
+            }
+            int nbLines = nbLines_.get() + 1;
+            synchronized (messages_) {
+                current.add(line);
+            }
+            nbLines_.set(nbLines);
+            if (CARET.matcher(line).matches() || (nbLines >= MAX_LINES)) {
+                current_.set(null);
+            }
+        }
+
+        public void exited(int exitValue) {
+        }
+
+        /** Forgets the messages collected (by a compilation failed and run again). */
+        public void clear() {
+            synchronized (messages_) {
+                messages_.clear();
+            }
+        }
+
+        /** Forgets the messages collected for the sources (compiled again). */
+        public void clear(Collection<File> sources) {
+            synchronized (messages_) {
+                for (File source : sources) {
+                    messages_.remove(source.getAbsolutePath());
+                }
+            }
+        }
+
+        List<String> get(String path) {
+            synchronized (messages_) {
+                return messages_.get(path);
+            }
+        }
+    }
+}
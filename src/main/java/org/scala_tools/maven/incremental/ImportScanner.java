@@ -0,0 +1,136 @@
+package org.scala_tools.maven.incremental;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Estimates the dependencies between sources without recorded dependencies (never compiled) from their package
+ * clauses and their imports : a source depends on the sources of its packages (they reference each other without
+ * import), and on the sources of the packages it imports from. The references by fully qualified name (without
+ * import) are missed : the estimation orders the sources, it doesn't find the sources to recompile.
+ */
+public class ImportScanner {
+    private static final Pattern PACKAGE = Pattern.compile("^\\s*package\\s+([\\w.]+)\\s*(?:[;{]|//|/\\*|$)");
+    private static final Pattern IMPORT = Pattern.compile("^\\s*import\\s+(?:static\\s+)?([\\w.]+)");
+
+    /**
+     * @return for each source (by index), the indexes of the sources it depends on
+     */
+    public static int[][] estimateDependencies(List<File> sources) throws IOException {
+        int n = sources.size();
+        List<List<String>> packages = new ArrayList<List<String>>(n);
+        List<List<String>> imports = new ArrayList<List<String>>(n);
+        Map<String, List<Integer>> members = new HashMap<String, List<Integer>>();
+        int[] positions = new int[n];
+        for (int i = 0; i < n; i++) {
+            List<String> p = new ArrayList<String>();
+            List<String> imp = new ArrayList<String>();
+            scan(sources.get(i), p, imp);
+            packages.add(p);
+            imports.add(imp);
+            String own = p.isEmpty() ? "" : p.get(p.size() - 1);
+            List<Integer> m = members.get(own);
+            if (m == null) {
+                m = new ArrayList<Integer>();
+                members.put(own, m);
+            }
+            positions[i] = m.size();
+            m.add(i);
+        }
+        int[][] back = new int[n][];
+        for (int i = 0; i < n; i++) {
+            List<String> p = packages.get(i);
+            List<Integer> same = members.get(p.isEmpty() ? "" : p.get(p.size() - 1));
+            Set<Integer> deps = new HashSet<Integer>();
+            // the sources of a package are a cycle (a component), so depending on one of them is depending on all
+            deps.add(same.get((positions[i] + 1) % same.size()));
+            for (String enclosing : p) {
+                List<Integer> m = members.get(enclosing);
+                if (m != null) {
+                    deps.add(m.get(0));
+                }
+            }
+            for (String path : imports.get(i)) {
+                String target = resolve(path, p, members);
+                if (target != null) {
+                    deps.add(members.get(target).get(0));
+                }
+            }
+            deps.remove(i);
+            back[i] = new int[deps.size()];
+            int k = 0;
+            for (int d : deps) {
+                back[i][k++] = d;
+            }
+        }
+        return back;
+    }
+
+    /**
+     * @return the longest package of the sources prefixing the imported path, absolute or relative to an enclosing
+     *         package (innermost first), or null if the path is outside the sources (jdk, libraries)
+     */
+    private static String resolve(String path, List<String> enclosing, Map<String, List<Integer>> members) {
+        for (String prefix = path; prefix.length() > 0; prefix = parent(prefix)) {
+            for (int i = enclosing.size() - 1; i >= 0; i--) {
+                String candidate = enclosing.get(i) + "." + prefix;
+                if (members.containsKey(candidate)) {
+                    return candidate;
+                }
+            }
+            if (members.containsKey(prefix)) {
+                return prefix;
+            }
+        }
+        return null;
+    }
+
+    private static String parent(String path) {
+        int i = path.lastIndexOf('.');
+        return (i < 0) ? "" : path.substring(0, i);
+    }
+
+    /**
+     * Reads the package clauses (chained clauses of scala add nested packages, the last one is the package of the
+     * source) and the imported paths (without the selectors or the wildcard) of the source.
+     */
+    private static void scan(File source, List<String> packages, List<String> imports) throws IOException {
+        BufferedReader in = new BufferedReader(new FileReader(source));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                Matcher m = PACKAGE.matcher(line);
+                if (m.find()) {
+                    String name = m.group(1);
+                    packages.add(packages.isEmpty() ? name : packages.get(packages.size() - 1) + "." + name);
+                    continue;
+                }
+                m = IMPORT.matcher(line);
+                if (m.find()) {
+                    String path = m.group(1);
+                    if (path.endsWith("._")) {
+                        path = path.substring(0, path.length() - 2);
+                    }
+                    while (path.endsWith(".")) {
+                        path = path.substring(0, path.length() - 1);
+                    }
+                    imports.add(path);
+                }
+            }
+        } finally {
+            IOUtil.close(in);
+        }
+    }
+}
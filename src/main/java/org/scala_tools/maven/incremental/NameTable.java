@@ -0,0 +1,58 @@
+package org.scala_tools.maven.incremental;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Interns strings (source paths, class names) into dense int ids, so graphs can be stored as int arrays.
+ *
+ * The table could extend the strings of an {@link AnalysisStore} (same ids), looked up and decoded on demand.
+ */
+public class NameTable {
+    private final AnalysisStore base_;
+    private final int baseSize_;
+    private final Map<String, Integer> ids_ = new HashMap<String, Integer>();
+    private final List<String> names_ = new ArrayList<String>();
+
+    public NameTable() {
+        this(null);
+    }
+
+    public NameTable(AnalysisStore base) {
+        base_ = base;
+        baseSize_ = (base == null) ? 0 : base.getNbStrings();
+    }
+
+    /** @return the id of the name, created if needed */
+    public int intern(String name) {
+        int id = find(name);
+        if (id < 0) {
+            id = baseSize_ + names_.size();
+            names_.add(name);
+            ids_.put(name, id);
+        }
+        return id;
+    }
+
+    /** @return the id of the name, or -1 if the name is unknown */
+    public int find(String name) {
+        if (base_ != null) {
+            int id = base_.findString(name);
+            if (id > -1) {
+                return id;
+            }
+        }
+        Integer id = ids_.get(name);
+        return (id == null) ? -1 : id;
+    }
+
+    public String get(int id) {
+        return (id < baseSize_) ? base_.getString(id) : names_.get(id - baseSize_);
+    }
+
+    public int size() {
+        return baseSize_ + names_.size();
+    }
+}
@@ -0,0 +1,192 @@
+package org.scala_tools.maven.incremental;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Operations on lots of (small) files, split across several threads because they mostly wait on the filesystem.
+ */
+public class ParallelFileOperations {
+    /** below this number of files per thread, it's not worth starting threads */
+    private static final int MIN_FILES_PER_THREAD = 64;
+
+    /** An operation on the i-th file. */
+    private interface Operation {
+        /** @return true if the operation was done */
+        boolean apply(int i) throws Exception;
+    }
+
+    /**
+     * Deletes the files (missing files are ignored).
+     *
+     * @return the number of files deleted
+     */
+    public static int delete(final List<File> files) throws Exception {
+        return run(files.size(), new Operation() {
+            public boolean apply(int i) {
+                return files.get(i).delete();
+            }
+        });
+    }
+
+    /**
+     * Copies each file of from to the file of the same index in to (the parent directories should exist).
+     *
+     * @return the number of files copied
+     */
+    public static int copy(final List<File> from, final List<File> to) throws Exception {
+        return run(from.size(), new Operation() {
+            public boolean apply(int i) throws IOException {
+                copy(from.get(i), to.get(i));
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Moves (renames) each file of from to the file of the same index in to, replacing it (the parent directories
+     * should exist).
+     *
+     * @return the number of files moved
+     */
+    public static int move(final List<File> from, final List<File> to) throws Exception {
+        return run(from.size(), new Operation() {
+            public boolean apply(int i) throws IOException {
+                move(from.get(i), to.get(i));
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Moves each new file to its target, except when the previous version of the target (moved aside before the new
+     * file was written) has the same content : then the previous version is moved back, so the date of the target
+     * doesn't change.
+     *
+     * @param previous the previous version of each target (could be missing)
+     * @return the number of targets unchanged
+     */
+    public static int replaceIfChanged(final List<File> files, final List<File> targets, final List<File> previous) throws Exception {
+        return run(files.size(), new Operation() {
+            public boolean apply(int i) throws IOException {
+                File f = files.get(i);
+                File old = previous.get(i);
+                if (old.isFile() && sameContent(f, old)) {
+                    move(old, targets.get(i));
+                    f.delete();
+                    return true;
+                }
+                move(f, targets.get(i));
+                return false;
+            }
+        });
+    }
+
+    private static void move(File from, File to) throws IOException {
+        // renameTo doesn't replace an existing file on windows
+        if (!from.renameTo(to) && !(to.delete() && from.renameTo(to))) {
+            throw new IOException("can't move " + from + " to " + to);
+        }
+    }
+
+    private static boolean sameContent(File a, File b) throws IOException {
+        if (a.length() != b.length()) {
+            return false;
+        }
+        FileInputStream inA = new FileInputStream(a);
+        FileInputStream inB = null;
+        try {
+            inB = new FileInputStream(b);
+            byte[] bufA = new byte[8192];
+            byte[] bufB = new byte[8192];
+            int n;
+            while ((n = inA.read(bufA)) > 0) {
+                int read = 0;
+                while (read < n) {
+                    int m = inB.read(bufB, read, n - read);
+                    if (m < 0) {
+                        return false;
+                    }
+                    read += m;
+                }
+                for (int i = 0; i < n; i++) {
+                    if (bufA[i] != bufB[i]) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        } finally {
+            IOUtil.close(inA);
+            IOUtil.close(inB);
+        }
+    }
+
+    /** Copies a file, with the channels of the files (the copy could be done by the OS). */
+    public static void copy(File from, File to) throws IOException {
+        FileInputStream in = new FileInputStream(from);
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(to);
+            FileChannel src = in.getChannel();
+            FileChannel dest = out.getChannel();
+            long size = src.size();
+            long position = 0;
+            while (position < size) {
+                position += src.transferTo(position, size - position, dest);
+            }
+        } finally {
+            IOUtil.close(in);
+            IOUtil.close(out);
+        }
+    }
+
+    private static int run(int nbFiles, final Operation operation) throws Exception {
+        int nbThreads = Math.min(Runtime.getRuntime().availableProcessors(), (nbFiles / MIN_FILES_PER_THREAD) + 1);
+        if (nbThreads < 2) {
+            return run(operation, 0, nbFiles);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(nbThreads);
+        try {
+            List<Future<Integer>> results = new ArrayList<Future<Integer>>(nbThreads);
+            int chunk = (nbFiles + nbThreads - 1) / nbThreads;
+            for (int i = 0; i < nbFiles; i += chunk) {
+                final int from = i;
+                final int to = Math.min(nbFiles, i + chunk);
+                results.add(executor.submit(new Callable<Integer>() {
+                    public Integer call() throws Exception {
+                        return run(operation, from, to);
+                    }
+                }));
+            }
+            int back = 0;
+            for (Future<Integer> result : results) {
+                back += result.get();
+            }
+            return back;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static int run(Operation operation, int from, int to) throws Exception {
+        int back = 0;
+        for (int i = from; i < to; i++) {
+            if (operation.apply(i)) {
+                back++;
+            }
+        }
+        return back;
+    }
+}
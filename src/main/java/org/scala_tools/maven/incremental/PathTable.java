@@ -0,0 +1,181 @@
+package org.scala_tools.maven.incremental;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Interns paths into dense int ids, as a prefix trie of their segments : a path is stored as the id of its parent
+ * directory and its name, so the directories are stored once whatever the number of files under them, and the names
+ * (like <code>scala</code>, <code>org</code>) are shared between the directories.
+ *
+ * The paths added under a directory are not canonicalized : the directory should be (once), the relative paths found
+ * by scanning it are appended to it.
+ */
+public class PathTable {
+    private int[] parents_ = new int[1024];
+    private String[] names_ = new String[1024];
+    private int size_;
+    /** open addressing hash table (by parent and name, linear probing) of id + 1 (0 if empty) */
+    private int[] slots_ = new int[2048];
+    private final Map<String, String> segments_ = new HashMap<String, String>();
+
+    /** @return the id of the absolute path of the file (not canonicalized), created if needed */
+    public synchronized int intern(File file) {
+        return intern(-1, file.getAbsolutePath());
+    }
+
+    /**
+     * @param parent the id of the directory of the relative path, -1 for an absolute path
+     * @return the id of the path, created if needed
+     */
+    public synchronized int intern(int parent, String path) {
+        int back = parent;
+        int start = 0;
+        for (int i = 0; i <= path.length(); i++) {
+            if ((i == path.length()) || (path.charAt(i) == '/') || (path.charAt(i) == File.separatorChar)) {
+                // keep the empty first segment of an absolute path (the root), skip the other empty ones
+                if ((i > start) || (back == -1)) {
+                    back = child(back, path.substring(start, i));
+                }
+                start = i + 1;
+            }
+        }
+        return back;
+    }
+
+    /** @return the id of the path, or -1 if it was never interned */
+    public synchronized int find(String absolutePath) {
+        int back = -1;
+        int start = 0;
+        for (int i = 0; i <= absolutePath.length(); i++) {
+            if ((i == absolutePath.length()) || (absolutePath.charAt(i) == '/') || (absolutePath.charAt(i) == File.separatorChar)) {
+                if ((i > start) || (back == -1)) {
+                    back = find(back, absolutePath.substring(start, i));
+                    if (back == -1) {
+                        return -1;
+                    }
+                }
+                start = i + 1;
+            }
+        }
+        return back;
+    }
+
+    public synchronized int size() {
+        return size_;
+    }
+
+    /** @return the id of the directory of the path, -1 for a root */
+    public synchronized int getParent(int id) {
+        return parents_[id];
+    }
+
+    public synchronized String getName(int id) {
+        return names_[id];
+    }
+
+    public File getFile(int id) {
+        return new File(getPath(id));
+    }
+
+    public synchronized String getPath(int id) {
+        StringBuilder back = new StringBuilder();
+        appendPath(id, -1, back);
+        if (back.length() == 0) {
+            back.append(File.separatorChar);
+        }
+        return back.toString();
+    }
+
+    /**
+     * Appends the path relative to the base directory if the path is under it, else the absolute path.
+     *
+     * @param base the id of the base directory, -1 for the absolute path
+     * @return true if the relative path was appended
+     */
+    public synchronized boolean appendPath(int id, int base, StringBuilder out) {
+        int depth = 0;
+        boolean under = false;
+        for (int p = id; p != -1; p = parents_[p]) {
+            if (p == base) {
+                under = true;
+                break;
+            }
+            depth++;
+        }
+        if (!under) {
+            base = -1;
+        }
+        int[] segments = new int[depth];
+        int p = id;
+        for (int i = depth - 1; i >= 0; i--) {
+            segments[i] = p;
+            p = parents_[p];
+        }
+        for (int i = 0; i < depth; i++) {
+            if (i > 0) {
+                out.append(File.separatorChar);
+            }
+            out.append(names_[segments[i]]);
+        }
+        return under;
+    }
+
+    private int child(int parent, String name) {
+        int back = find(parent, name);
+        if (back > -1) {
+            return back;
+        }
+        if (size_ == parents_.length) {
+            int[] parents = new int[size_ * 2];
+            System.arraycopy(parents_, 0, parents, 0, size_);
+            parents_ = parents;
+            String[] names = new String[size_ * 2];
+            System.arraycopy(names_, 0, names, 0, size_);
+            names_ = names;
+        }
+        String shared = segments_.get(name);
+        if (shared == null) {
+            shared = name;
+            segments_.put(shared, shared);
+        }
+        back = size_++;
+        parents_[back] = parent;
+        names_[back] = shared;
+        if ((size_ * 2) > slots_.length) {
+            slots_ = new int[slots_.length * 2];
+            for (int id = 0; id < size_; id++) {
+                insert(id);
+            }
+        } else {
+            insert(back);
+        }
+        return back;
+    }
+
+    private int find(int parent, String name) {
+        int mask = slots_.length - 1;
+        for (int slot = hash(parent, name) & mask; slots_[slot] != 0; slot = (slot + 1) & mask) {
+            int id = slots_[slot] - 1;
+            if ((parents_[id] == parent) && names_[id].equals(name)) {
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    private void insert(int id) {
+        int mask = slots_.length - 1;
+        int slot = hash(parents_[id], names_[id]) & mask;
+        while (slots_[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slots_[slot] = id + 1;
+    }
+
+    private static int hash(int parent, String name) {
+        int h = (parent * 31) ^ name.hashCode();
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,162 @@
+package org.scala_tools.maven.incremental;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collection;
+import java.util.List;
+
+import org.scala_tools.maven.executions.MainHelper;
+import org.scala_tools.maven.executions.ToolClassLoaderCache;
+
+/**
+ * Drives, by reflection, the build manager of scalac 2.8+ (scala.tools.nsc.interactive.RefinedBuildManager) :
+ * it tracks the dependencies between symbols, and recompiles only the sources affected by a change.
+ *
+ * A manager is kept for the build (and the cc loop) per classloader of the compiler and compiler arguments, attached to
+ * the classloader in {@link ToolClassLoaderCache} : it's dropped with the classloader, or when it's not among the most
+ * recently used of the classloader. Its state is saved into a file after each successful update, and loaded by the
+ * first update of a new manager.
+ */
+public class ScalaBuildManager {
+    private final ClassLoader cl_;
+    private final File stateFile_;
+    private final Object manager_;
+    private boolean initialized_ = false;
+
+    /**
+     * @param cl the classloader of the compiler (2.8+), acquired from {@link ToolClassLoaderCache}
+     * @param args the arguments of the compiler (options only, output directory included)
+     * @param stateFile the file where the dependencies are saved between builds
+     */
+    public static synchronized ScalaBuildManager get(ClassLoader cl, List<String> args, File stateFile) throws Exception {
+        String key = ScalaBuildManager.class.getName() + "\n" + stateFile.getAbsolutePath() + "\n" + args;
+        ScalaBuildManager back = (ScalaBuildManager) ToolClassLoaderCache.getAttachment(cl, key);
+        if (back == null) {
+            back = new ScalaBuildManager(cl, args, stateFile);
+            ToolClassLoaderCache.attach(cl, key, back);
+        }
+        return back;
+    }
+
+    private ScalaBuildManager(ClassLoader cl, List<String> args, File stateFile) throws Exception {
+        cl_ = cl;
+        stateFile_ = stateFile;
+        Class<?> settingsClass = cl.loadClass("scala.tools.nsc.Settings");
+        Object settings = settingsClass.newInstance();
+        StringBuilder argString = new StringBuilder();
+        for (String arg : args) {
+            argString.append(MainHelper.escapeArgumentForScalacArgumentFile(arg)).append(' ');
+        }
+        settingsClass.getMethod("processArgumentString", String.class).invoke(settings, argString.toString());
+        manager_ = cl.loadClass("scala.tools.nsc.interactive.RefinedBuildManager").getConstructor(settingsClass).newInstance(settings);
+    }
+
+    /**
+     * Compiles the changed sources, and the sources depending on them.
+     * The first update without saved state compiles all the sources.
+     *
+     * @param changed the added or modified sources
+     * @param removed the removed sources
+     * @param all every source
+     * @return false if the compiler reported errors
+     */
+    public synchronized boolean update(Collection<File> changed, Collection<File> removed, Collection<File> all) throws Exception {
+        Thread current = Thread.currentThread();
+        ClassLoader previous = current.getContextClassLoader();
+        current.setContextClassLoader(cl_);
+        try {
+            Object reporter = invoke(invoke(manager_, "compiler"), "reporter");
+            invoke(reporter, "reset");
+            if (!initialized_) {
+                initialized_ = true;
+                if (!load()) {
+                    invoke(manager_, "addSourceFiles", toAbstractFiles(all));
+                    return checkAndSave(reporter);
+                }
+            }
+            invoke(manager_, "update", toAbstractFiles(changed), toAbstractFiles(removed));
+            return checkAndSave(reporter);
+        } finally {
+            current.setContextClassLoader(previous);
+        }
+    }
+
+    private boolean checkAndSave(Object reporter) throws Exception {
+        if ((Boolean) invoke(reporter, "hasErrors")) {
+            // the next build should start from a full compilation
+            stateFile_.delete();
+            return false;
+        }
+        invoke(manager_, "saveTo", toAbstractFile(stateFile_), newFunction(new Function() {
+            public Object apply(Object abstractFile) throws Exception {
+                return invoke(abstractFile, "path");
+            }
+        }));
+        return true;
+    }
+
+    private boolean load() throws Exception {
+        if (!stateFile_.exists()) {
+            return false;
+        }
+        return (Boolean) invoke(manager_, "loadFrom", toAbstractFile(stateFile_), newFunction(new Function() {
+            public Object apply(Object path) throws Exception {
+                return toAbstractFile(new File((String) path));
+            }
+        }));
+    }
+
+    private Object toAbstractFile(File f) throws Exception {
+        Class<?> moduleClass = cl_.loadClass("scala.tools.nsc.io.AbstractFile$");
+        Object module = moduleClass.getField("MODULE$").get(null);
+        return moduleClass.getMethod("getFile", File.class).invoke(module, f);
+    }
+
+    /** @return an immutable scala Set of the AbstractFile of the files */
+    private Object toAbstractFiles(Collection<File> files) throws Exception {
+        Class<?> moduleClass = cl_.loadClass("scala.collection.immutable.Set$");
+        Object back = moduleClass.getMethod("empty").invoke(moduleClass.getField("MODULE$").get(null));
+        for (File f : files) {
+            back = invoke(back, "$plus", toAbstractFile(f));
+        }
+        return back;
+    }
+
+    private interface Function {
+        Object apply(Object arg) throws Exception;
+    }
+
+    /** @return a scala.Function1 calling the function */
+    private Object newFunction(final Function f) throws Exception {
+        Class<?> function1 = cl_.loadClass("scala.Function1");
+        return Proxy.newProxyInstance(cl_, new Class<?>[] {function1}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if ("apply".equals(method.getName()) && (args != null) && (args.length == 1)) {
+                    return f.apply(args[0]);
+                }
+                if ("toString".equals(method.getName())) {
+                    return "<function1>";
+                }
+                if ("hashCode".equals(method.getName())) {
+                    return System.identityHashCode(proxy);
+                }
+                if ("equals".equals(method.getName())) {
+                    return proxy == args[0];
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    /** Calls the public method with the given name and number of arguments. */
+    private static Object invoke(Object target, String name, Object... args) throws Exception {
+        for (Method m : target.getClass().getMethods()) {
+            if (m.getName().equals(name) && (m.getParameterTypes().length == args.length)) {
+                return m.invoke(target, args);
+            }
+        }
+        throw new NoSuchMethodException(target.getClass().getName() + "." + name);
+    }
+}
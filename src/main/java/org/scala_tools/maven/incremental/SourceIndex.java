@@ -0,0 +1,222 @@
+package org.scala_tools.maven.incremental;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Persisted index of the sources of a compilation (path, size, last modification, content hash).
+ *
+ * The content of a source is only hashed when its size or its last modification date differ from
+ * the recorded one, so a touch, a checkout or a clock skew doesn't make a source stale,
+ * and a source restored with an older date is not skipped.
+ *
+ * The index is stored into an {@link AnalysisStore} (table "sources" : size, last modification and id of the hash,
+ * by id of the path), and the recorded entries are read on demand. In memory, the sources are the ids of their path in
+ * a {@link PathTable}.
+ */
+public class SourceIndex {
+
+    /** State of a source at the time it was indexed. */
+    public static class Entry {
+        public final long size;
+        public final long lastModified;
+        public final String hash;
+
+        public Entry(long size, long lastModified, String hash) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+    }
+
+    private final File file_;
+    private final PathTable paths_;
+    private AnalysisStore store_;
+    private AnalysisStore.Table entries_;
+    private Map<Integer, Entry> recorded_ = new HashMap<Integer, Entry>();
+    private int nbRecorded_ = 0;
+    private Map<Integer, Entry> scanned_ = new HashMap<Integer, Entry>();
+    private boolean modified_ = false;
+
+    /**
+     * Loads the index stored in file (an empty index is returned if the file doesn't exist or is unreadable).
+     */
+    public static SourceIndex load(File file, PathTable paths) {
+        SourceIndex back = new SourceIndex(file, paths);
+        if (file.exists()) {
+            try {
+                back.read();
+            } catch (Exception exc) {
+                back.clear();
+                back.modified_ = false;
+            }
+        }
+        return back;
+    }
+
+    /**
+     * @param file the file the index is saved into, null for an index never saved
+     * @param paths the table of the paths of the sources
+     */
+    public SourceIndex(File file, PathTable paths) {
+        file_ = file;
+        paths_ = paths;
+    }
+
+    public File getFile() {
+        return file_;
+    }
+
+    /** Forgets every recorded entry, so every source will be stale. */
+    public void clear() {
+        store_ = null;
+        entries_ = null;
+        recorded_.clear();
+        nbRecorded_ = 0;
+        modified_ = true;
+    }
+
+    /**
+     * Checks the source against the recorded entry and remembers its current state (for {@link #save()}).
+     *
+     * @param id the id of the path of the source
+     * @return true if the content of the source changed since the last {@link #save()} (or if the source is new)
+     */
+    public boolean isStale(int id) throws IOException {
+        File source = paths_.getFile(id);
+        long size = source.length();
+        long lastModified = source.lastModified();
+        Entry previous = getRecorded(id);
+        Entry current;
+        if ((previous != null) && (previous.size == size) && (previous.lastModified == lastModified)) {
+            current = previous;
+        } else {
+            current = new Entry(size, lastModified, hash(source));
+            modified_ = true;
+        }
+        scanned_.put(id, current);
+        return (previous == null) || !previous.hash.equals(current.hash);
+    }
+
+    public boolean isStale(File source) throws IOException {
+        return isStale(paths_.intern(source));
+    }
+
+    /**
+     * @return the ids of the paths of the sources checked since the load (or the last save)
+     */
+    public Set<Integer> getScanned() {
+        return scanned_.keySet();
+    }
+
+    /**
+     * @return true if some sources recorded by the last save were not checked since (removed, excluded,...)
+     */
+    public boolean hasRemovedSources() {
+        int n = 0;
+        for (int id : scanned_.keySet()) {
+            if (getRecorded(id) != null) {
+                n++;
+            }
+        }
+        return n < nbRecorded_;
+    }
+
+    /**
+     * @return the recorded entry (from the last save) of the source, or null
+     */
+    public Entry getRecorded(int id) {
+        Entry back = recorded_.get(id);
+        if ((back == null) && (store_ != null)) {
+            long[] row = entries_.getRow(store_.findString(paths_.getPath(id)));
+            if (row != null) {
+                back = new Entry(row[0], row[1], store_.getString((int) row[2]));
+                recorded_.put(id, back);
+            }
+        }
+        return back;
+    }
+
+    /**
+     * Stores the state of every source checked by {@link #isStale(File)} since the load.
+     * Entries of sources not checked (deleted, excluded,...) are dropped.
+     * Nothing is written if no source was added, removed or modified.
+     */
+    public void save() throws IOException {
+        if (modified_ || (scanned_.size() != nbRecorded_) || !file_.exists()) {
+            write();
+        }
+        store_ = null;
+        entries_ = null;
+        recorded_ = scanned_;
+        nbRecorded_ = scanned_.size();
+        scanned_ = new HashMap<Integer, Entry>();
+        modified_ = false;
+    }
+
+    private void write() throws IOException {
+        AnalysisStore.Writer writer = new AnalysisStore.Writer();
+        // paths first, so the ids of the paths are the indexes of the rows
+        int[] rowIds = new int[scanned_.size()];
+        int i = 0;
+        for (int id : scanned_.keySet()) {
+            rowIds[i++] = writer.addString(paths_.getPath(id));
+        }
+        long[][] rows = new long[scanned_.size()][];
+        i = 0;
+        for (Entry v : scanned_.values()) {
+            rows[rowIds[i++]] = new long[] {v.size, v.lastModified, writer.addString(v.hash)};
+        }
+        writer.addTable("sources", rows);
+        writer.write(file_);
+    }
+
+    private void read() throws IOException {
+        AnalysisStore store = AnalysisStore.open(file_);
+        AnalysisStore.Table entries = store.getTable("sources");
+        if (entries == null) {
+            throw new IOException("unsupported format : " + file_);
+        }
+        store_ = store;
+        entries_ = entries;
+        nbRecorded_ = entries.getNbRows();
+    }
+
+    /**
+     * @return the hexadecimal representation of the MD5 digest of the content of the file
+     */
+    public static String hash(File f) throws IOException {
+        InputStream in = new FileInputStream(f);
+        try {
+            MessageDigest md = MessageDigest.getInstance("MD5");
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                md.update(buffer, 0, n);
+            }
+            return toHex(md.digest());
+        } catch (NoSuchAlgorithmException exc) {
+            throw new IllegalStateException("MD5 not available", exc);
+        } finally {
+            IOUtil.close(in);
+        }
+    }
+
+    public static String toHex(byte[] bytes) {
+        StringBuilder back = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            back.append(Character.forDigit((b >> 4) & 0xF, 16));
+            back.append(Character.forDigit(b & 0xF, 16));
+        }
+        return back.toString();
+    }
+}
@@ -0,0 +1,162 @@
+package org.scala_tools.maven.incremental;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * Output directory updated atomically by a compilation.
+ *
+ * The compiler writes into a staging directory (<code>&lt;outputDir&gt;.staging</code>), and the previous classfiles
+ * of the recompiled sources are moved aside (into <code>&lt;outputDir&gt;.stale</code>), so while compiling the output
+ * directory only contains the classes of the other sources, like after a clean build. When the compilation succeeds,
+ * the staged files are moved into the output directory, except the ones identical to their previous version : the
+ * previous version is moved back, with its date (so the jar plugin, surefire or the IDEs don't see a change). When it
+ * fails, the previous classfiles are moved back.
+ *
+ * All the moves are renames in the same filesystem, but a commit is a sequence of renames : a marker file
+ * (<code>&lt;outputDir&gt;.commit</code>) is created before the first one, and removed after the last one. An
+ * interrupted compilation is rolled back by the next one, unless the marker exists : then the interrupted commit is
+ * completed (rolled forward).
+ */
+public class StagedOutput {
+    private final File outputDir_;
+    private final File stagingDir_;
+    private final File staleDir_;
+    private final File commitMarker_;
+
+    public StagedOutput(File outputDir) {
+        outputDir_ = outputDir;
+        stagingDir_ = new File(outputDir + ".staging");
+        staleDir_ = new File(outputDir + ".stale");
+        commitMarker_ = new File(outputDir + ".commit");
+    }
+
+    /** @return the directory the compiler should write into */
+    public File getStagingDir() {
+        return stagingDir_;
+    }
+
+    /**
+     * Rolls back a compilation interrupted (maven killed) before its commit or rollback, or completes its commit if it
+     * was interrupted during the commit.
+     *
+     * @return true if there was such a compilation
+     */
+    public boolean recover() throws Exception {
+        if (commitMarker_.exists()) {
+            completeCommit();
+            return true;
+        }
+        if (!staleDir_.exists() && !stagingDir_.exists()) {
+            return false;
+        }
+        rollback();
+        return true;
+    }
+
+    /**
+     * Moves the previous products of the sources to compile aside, and creates an empty staging directory.
+     */
+    public void begin(List<File> previousProducts) throws Exception {
+        FileUtils.deleteDirectory(stagingDir_);
+        FileUtils.deleteDirectory(staleDir_);
+        stagingDir_.mkdirs();
+        setAside(previousProducts);
+    }
+
+    /**
+     * Removes the files written into the staging directory (by a compilation to run again).
+     */
+    public void clearStagingDir() throws IOException {
+        FileUtils.deleteDirectory(stagingDir_);
+        stagingDir_.mkdirs();
+    }
+
+    /**
+     * Moves other files of the output directory aside, replaced or removed by the commit (the products of sources the
+     * compiler chose to recompile, known once it wrote them into the staging directory).
+     */
+    public void setAside(List<File> previousProducts) throws Exception {
+        List<File> existing = new ArrayList<File>(previousProducts.size());
+        for (File f : previousProducts) {
+            if (f.isFile()) {
+                existing.add(f);
+            }
+        }
+        ParallelFileOperations.move(existing, relocate(existing, outputDir_, staleDir_));
+    }
+
+    /**
+     * Moves the staged files into the output directory, and removes the previous products.
+     *
+     * @return the number of staged files identical to their previous version (so left untouched)
+     */
+    public int commit() throws Exception {
+        if (!commitMarker_.createNewFile() && !commitMarker_.isFile()) {
+            throw new IOException("can't create " + commitMarker_);
+        }
+        return completeCommit();
+    }
+
+    /**
+     * Moves the staged files left (all of them, or the ones not moved by an interrupted commit) into the output
+     * directory, then removes the marker of the commit.
+     */
+    private int completeCommit() throws Exception {
+        List<File> staged = new ArrayList<File>();
+        findFiles(stagingDir_, staged);
+        int back = ParallelFileOperations.replaceIfChanged(staged, relocate(staged, stagingDir_, outputDir_), relocate(staged, stagingDir_, staleDir_));
+        FileUtils.deleteDirectory(staleDir_);
+        FileUtils.deleteDirectory(stagingDir_);
+        commitMarker_.delete();
+        return back;
+    }
+
+    /**
+     * Moves the previous products back into the output directory, and removes the staged files.
+     */
+    public void rollback() throws Exception {
+        List<File> stale = new ArrayList<File>();
+        findFiles(staleDir_, stale);
+        ParallelFileOperations.move(stale, relocate(stale, staleDir_, outputDir_));
+        FileUtils.deleteDirectory(staleDir_);
+        FileUtils.deleteDirectory(stagingDir_);
+    }
+
+    /**
+     * @return the files at the same relative path in the directory to, whose parent directories are created
+     */
+    private static List<File> relocate(List<File> files, File from, File to) {
+        List<File> back = new ArrayList<File>(files.size());
+        Set<File> dirs = new HashSet<File>();
+        int prefix = from.getAbsolutePath().length() + 1;
+        for (File f : files) {
+            File target = new File(to, f.getAbsolutePath().substring(prefix));
+            if (dirs.add(target.getParentFile())) {
+                target.getParentFile().mkdirs();
+            }
+            back.add(target);
+        }
+        return back;
+    }
+
+    private static void findFiles(File dir, List<File> back) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                findFiles(child, back);
+            } else {
+                back.add(child);
+            }
+        }
+    }
+}
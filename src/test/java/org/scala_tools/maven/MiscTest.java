@@ -26,4 +26,12 @@ public class MiscTest extends TestCase {
         assertEquals(2, StringUtils.split("hel|lo", "|").length);
         assertEquals(2, StringUtils.split("hel||lo", "|").length);
     }
+
+    public void testParseMemory() throws Exception {
+        assertEquals(512, ScalaCompilerSupport.parseMemory("512m", 0));
+        assertEquals(2048, ScalaCompilerSupport.parseMemory("2G", 0));
+        assertEquals(1, ScalaCompilerSupport.parseMemory("1024k", 0));
+        assertEquals(3, ScalaCompilerSupport.parseMemory("3145728", 0));
+        assertEquals(-1, ScalaCompilerSupport.parseMemory("lots", -1));
+    }
 }
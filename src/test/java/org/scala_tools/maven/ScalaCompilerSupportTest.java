@@ -0,0 +1,95 @@
+package org.scala_tools.maven;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.maven.plugin.MojoFailureException;
+import org.scala_tools.maven.executions.InProcessJavac;
+import org.scala_tools.maven.incremental.DependencyGraph;
+import org.scala_tools.maven.incremental.SourceIndex;
+
+/**
+ * Tests the compilation of the java files with javac only (without scalac).
+ */
+public class ScalaCompilerSupportTest extends TempDirTestSupport {
+    private static final Set<Integer> NONE = Collections.emptySet();
+    private static final List<String> CLASSPATH = Collections.emptyList();
+
+    private ScalaCompileMojo mojo;
+    private File output;
+    private SourceIndex index;
+    private DependencyGraph graph;
+    private int a;
+    private int b;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mojo = new ScalaCompileMojo();
+        mojo.compileJava = true;
+        mojo.javacArgs = new String[]{"-nowarn"};
+        output = new File(dir, "classes");
+        output.mkdirs();
+        index = new SourceIndex(null, ScalaCompilerSupport.SOURCE_PATHS);
+        graph = new DependencyGraph(null, ScalaCompilerSupport.SOURCE_PATHS);
+        a = ScalaCompilerSupport.SOURCE_PATHS.intern(write(dir, "src/p/A.java", "package p; public class A { public int f() { return 1; } }"));
+        b = ScalaCompilerSupport.SOURCE_PATHS.intern(write(dir, "src/p/B.java", "package p; class B { int g() { return new A().f(); } }"));
+        index.isStale(a);
+        index.isStale(b);
+    }
+
+    public void testIsJavaOnly() throws Exception {
+        if (!InProcessJavac.isAvailable()) {
+            return;
+        }
+        List<Integer> files = Arrays.asList(a);
+        // the previous classes of A are unknown
+        assertFalse(mojo.isJavaOnly(files, NONE, graph));
+        mojo.compileJavaOnly(Arrays.asList(a, b), NONE, index, graph, output, CLASSPATH, false);
+        assertTrue(mojo.isJavaOnly(files, NONE, graph));
+        int scala = ScalaCompilerSupport.SOURCE_PATHS.intern(new File(dir, "src/p/S.scala"));
+        assertFalse(mojo.isJavaOnly(new ArrayList<Integer>(), NONE, graph));
+        assertFalse(mojo.isJavaOnly(Arrays.asList(a, scala), NONE, graph));
+        assertFalse(mojo.isJavaOnly(files, Collections.singleton(scala), graph));
+        mojo.compileJava = false;
+        assertFalse(mojo.isJavaOnly(files, NONE, graph));
+    }
+
+    public void testDependentsOfApiChanges() throws Exception {
+        if (!InProcessJavac.isAvailable()) {
+            return;
+        }
+        assertTrue(mojo.compileJavaOnly(Arrays.asList(a, b), NONE, index, graph, output, CLASSPATH, false).isEmpty());
+        assertTrue(new File(output, "p/B.class").exists());
+
+        // same API: B doesn't need to be compiled again
+        write(dir, "src/p/A.java", "package p; public class A { public int f() { return 2; } }");
+        assertTrue(mojo.compileJavaOnly(Arrays.asList(a), NONE, index, graph, output, CLASSPATH, false).isEmpty());
+
+        write(dir, "src/p/A.java", "package p; public class A { public int f() { return 2; } public int h() { return 3; } }");
+        List<Integer> dependents = mojo.compileJavaOnly(Arrays.asList(a), NONE, index, graph, output, CLASSPATH, false);
+        assertEquals(Arrays.asList(b), dependents);
+        assertEquals(Arrays.asList("p/A"), graph.getProducts(a));
+    }
+
+    public void testErrors() throws Exception {
+        if (!InProcessJavac.isAvailable()) {
+            return;
+        }
+        mojo.compileJavaOnly(Arrays.asList(a, b), NONE, index, graph, output, CLASSPATH, false);
+        write(dir, "src/p/A.java", "package p; public class A { Missing m; }");
+        // in the loop, the errors are reported and the compilation goes on
+        assertTrue(mojo.compileJavaOnly(Arrays.asList(a), NONE, index, graph, output, CLASSPATH, true).isEmpty());
+        assertFalse(new File(output, "p/A.class").exists());
+        try {
+            mojo.compileJavaOnly(Arrays.asList(a), NONE, index, graph, output, CLASSPATH, false);
+            fail("javac errors should fail the build");
+        } catch (MojoFailureException exc) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package org.scala_tools.maven;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * Test case working in a temporary directory, created before each test and deleted after.
+ */
+public abstract class TempDirTestSupport extends TestCase {
+    /** the temporary directory of the test */
+    protected File dir;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = File.createTempFile(getClass().getSimpleName(), "");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    /** Writes the content into the file at the path relative to the root, creating its directories. */
+    protected static File write(File root, String path, String content) throws Exception {
+        File f = new File(root, path);
+        f.getParentFile().mkdirs();
+        FileUtils.fileWrite(f.getAbsolutePath(), content);
+        return f;
+    }
+}
@@ -0,0 +1,61 @@
+package org.scala_tools.maven.cache;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+
+import org.scala_tools.maven.TempDirTestSupport;
+
+public class BuildCacheServerTest extends TempDirTestSupport {
+    private static final String KEY = "0123456789abcdef0123456789abcdef";
+
+    private BuildCacheServer server;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        server = new BuildCacheServer(0, new File(dir, "server"));
+        server.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        server.stop();
+        super.tearDown();
+    }
+
+    public void testPutAndGet() throws Exception {
+        assertEquals("HTTP/1.1 404 Not Found", request("GET /scala/" + KEY + ".zip HTTP/1.1\r\n\r\n"));
+        assertEquals("HTTP/1.1 201 Created", request("PUT /scala/" + KEY + ".zip HTTP/1.1\r\nContent-Length: 3\r\n\r\nabc"));
+        assertEquals("HTTP/1.1 200 OK", request("GET /scala/" + KEY + ".zip HTTP/1.1\r\n\r\n"));
+    }
+
+    public void testMalformedRequests() throws Exception {
+        assertEquals("HTTP/1.1 400 Bad Request", request("\r\n\r\n"));
+        assertEquals("HTTP/1.1 400 Bad Request", request("GET\r\n\r\n"));
+        assertEquals("HTTP/1.1 400 Bad Request", request("GET /scala/" + KEY + ".zip\r\n\r\n"));
+        assertEquals("HTTP/1.1 404 Not Found", request("GET /scala/../../etc/passwd HTTP/1.1\r\n\r\n"));
+        assertEquals("HTTP/1.1 404 Not Found", request("GET /scala/notakey.zip HTTP/1.1\r\n\r\n"));
+        assertEquals("HTTP/1.1 405 Method Not Allowed", request("DELETE /scala/" + KEY + ".zip HTTP/1.1\r\n\r\n"));
+        assertEquals("HTTP/1.1 411 Length Required", request("PUT /scala/" + KEY + ".zip HTTP/1.1\r\n\r\n"));
+        assertEquals("HTTP/1.1 400 Bad Request", request("PUT /scala/" + KEY + ".zip HTTP/1.1\r\nContent-Length: x\r\n\r\n"));
+        assertEquals("HTTP/1.1 400 Bad Request", request("PUT /scala/" + KEY + ".zip HTTP/1.1\r\nContent-Length: -1\r\n\r\n"));
+        // nothing stored by the malformed requests
+        assertEquals(0, new File(dir, "server").list().length);
+    }
+
+    /** @return the status line of the response */
+    private String request(String request) throws Exception {
+        Socket socket = new Socket("localhost", server.getPort());
+        try {
+            OutputStream out = socket.getOutputStream();
+            out.write(request.getBytes("US-ASCII"));
+            out.flush();
+            return new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII")).readLine();
+        } finally {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package org.scala_tools.maven.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.codehaus.plexus.util.FileUtils;
+import org.scala_tools.maven.TempDirTestSupport;
+
+public class HttpBuildCacheTest extends TempDirTestSupport {
+    private BuildCacheServer server;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        server = new BuildCacheServer(0, new File(dir, "server"));
+        server.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        server.stop();
+        super.tearDown();
+    }
+
+    public void testStoreAndRestore() throws Exception {
+        File output = new File(dir, "classes");
+        List<File> classFiles = Arrays.asList(write(output, "p/A.class", "A"), write(output, "p/q/B.class", "BB"));
+        HttpBuildCache cache = new HttpBuildCache("http://localhost:" + server.getPort() + "/scala", 5000, true, new SystemStreamLog());
+        String key = new BuildCacheKey().add("k", "1").toString();
+        assertNull(cache.restore(key, output));
+        cache.store(key, output, classFiles);
+        assertTrue(HttpBuildCache.awaitUploads(10000, new SystemStreamLog()));
+
+        File restoredDir = new File(dir, "restored");
+        List<File> restored = cache.restore(key, restoredDir);
+        assertEquals(2, restored.size());
+        assertEquals("BB", FileUtils.fileRead(new File(restoredDir, "p/q/B.class").getAbsolutePath()));
+    }
+
+    public void testUnreachableServerFails() throws Exception {
+        ServerSocket socket = new ServerSocket(0);
+        int port = socket.getLocalPort();
+        socket.close();
+        HttpBuildCache cache = new HttpBuildCache("http://localhost:" + port, 1000, true, new SystemStreamLog());
+        try {
+            cache.restore(new BuildCacheKey().add("k", "1").toString(), new File(dir, "restored"));
+            fail("no server");
+        } catch (IOException exc) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package org.scala_tools.maven.cache;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.scala_tools.maven.TempDirTestSupport;
+
+public class LocalBuildCacheTest extends TempDirTestSupport {
+
+    public void testStoreAndRestore() throws Exception {
+        File output = new File(dir, "classes");
+        List<File> classFiles = Arrays.asList(write(output, "p/A.class", "A"), write(output, "p/B.class", "BB"));
+        write(output, "p/Other.class", "not stored");
+        LocalBuildCache cache = new LocalBuildCache(new File(dir, "cache"), 1024);
+        String key = new BuildCacheKey().add("k", "1").toString();
+        assertNull(cache.restore(key, output));
+        cache.store(key, output, classFiles);
+
+        File restoredDir = new File(dir, "restored");
+        List<File> restored = cache.restore(key, restoredDir);
+        assertEquals(2, restored.size());
+        assertEquals("BB", FileUtils.fileRead(new File(restoredDir, "p/B.class").getAbsolutePath()));
+        assertFalse(new File(restoredDir, "p/Other.class").exists());
+    }
+
+    public void testLeastRecentlyUsedEntriesAreEvicted() throws Exception {
+        File output = new File(dir, "classes");
+        List<File> classFiles = new ArrayList<File>();
+        classFiles.add(write(output, "A.class", "0123456789"));
+        LocalBuildCache cache = new LocalBuildCache(new File(dir, "cache"), 25);
+        String[] keys = new String[3];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = new BuildCacheKey().add("k", String.valueOf(i)).toString();
+        }
+        cache.store(keys[0], output, classFiles);
+        cache.store(keys[1], output, classFiles);
+        // keys[0] becomes the most recently used
+        new File(new File(new File(dir, "cache"), keys[1].substring(0, 2)), keys[1]).setLastModified(System.currentTimeMillis() - 60000);
+        assertNotNull(cache.restore(keys[0], new File(dir, "restored")));
+        cache.store(keys[2], output, classFiles);
+
+        assertNotNull(cache.restore(keys[0], new File(dir, "restored")));
+        assertNull(cache.restore(keys[1], new File(dir, "restored")));
+        assertNotNull(cache.restore(keys[2], new File(dir, "restored")));
+    }
+
+    public void testKeyIgnoresLineEndings() throws Exception {
+        File unix = write(dir, "unix/A.scala", "class A {\n}\n");
+        File windows = write(dir, "windows/A.scala", "class A {\r\n}\r\n");
+        assertEquals(new BuildCacheKey().addSource("A.scala", unix).toString(), new BuildCacheKey().addSource("A.scala", windows).toString());
+        assertFalse(new BuildCacheKey().addSource("A.scala", unix).toString().equals(new BuildCacheKey().addSource("B.scala", unix).toString()));
+    }
+}
@@ -0,0 +1,57 @@
+package org.scala_tools.maven.executions;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.scala_tools.maven.TempDirTestSupport;
+
+public class InProcessJavacTest extends TempDirTestSupport {
+    private File output;
+    private InProcessJavac javac;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        output = new File(dir, "classes");
+        output.mkdirs();
+        AbstractMojo requester = new AbstractMojo() {
+            public void execute() {
+            }
+        };
+        javac = new InProcessJavac(requester, new String[]{"-nowarn"});
+    }
+
+    public void testCompile() throws Exception {
+        if (!InProcessJavac.isAvailable()) {
+            return;
+        }
+        File a = write(dir, "src/p/A.java", "package p; public class A { public int f() { return 1; } }");
+        File b = write(dir, "src/p/B.java", "package p; class B { int g() { return new A().f(); } }");
+        assertTrue(javac.compile(Arrays.asList(a, b), Collections.<String>emptyList(), output, true));
+        assertTrue(new File(output, "p/A.class").exists());
+        assertTrue(new File(output, "p/B.class").exists());
+    }
+
+    public void testOutputDirIsOnClasspath() throws Exception {
+        if (!InProcessJavac.isAvailable()) {
+            return;
+        }
+        File a = write(dir, "src/p/A.java", "package p; public class A { public int f() { return 1; } }");
+        File b = write(dir, "src/p/B.java", "package p; class B { int g() { return new A().f(); } }");
+        assertTrue(javac.compile(Arrays.asList(a), Collections.<String>emptyList(), output, true));
+        // the file manager of the classpath is reused, it must see the classes written by the first compilation
+        assertTrue(javac.compile(Arrays.asList(b), Collections.<String>emptyList(), output, true));
+        assertTrue(new File(output, "p/B.class").exists());
+    }
+
+    public void testErrors() throws Exception {
+        if (!InProcessJavac.isAvailable()) {
+            return;
+        }
+        File c = write(dir, "src/p/C.java", "package p; class C { Missing m; }");
+        assertFalse(javac.compile(Arrays.asList(c), Collections.<String>emptyList(), output, true));
+        assertFalse(new File(output, "p/C.class").exists());
+    }
+}
@@ -0,0 +1,46 @@
+package org.scala_tools.maven.executions;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.scala_tools.maven.incremental.PathTable;
+
+public class MainHelperTest extends TestCase {
+
+    public void testArgFileWithSources() throws Exception {
+        File base = new File("/work/project").getAbsoluteFile();
+        PathTable paths = new PathTable();
+        int dirId = paths.intern(new File(base, "src/main/scala"));
+        int source = paths.intern(dirId, "org/example/A b.scala");
+        int outside = paths.intern(new File("/other/B.scala").getAbsoluteFile());
+        String srcDir = new File(base, "src/main/scala").getAbsolutePath();
+        File argFile = MainHelper.createArgFile(Arrays.asList("-sourcepath", srcDir, "-d", base.getAbsolutePath()), base, paths, Arrays.asList(source, outside));
+        try {
+            List<String> args = MainHelper.readArgFile(argFile);
+            assertEquals(6, args.size());
+            // the options are written as is, even the paths of the table
+            assertEquals("-sourcepath", args.get(0));
+            assertEquals(srcDir, args.get(1));
+            assertEquals("-d", args.get(2));
+            assertEquals(base.getAbsolutePath(), args.get(3));
+            assertEquals(new File("src/main/scala/org/example/A b.scala").getPath(), args.get(4));
+            assertEquals(paths.getPath(outside), args.get(5));
+        } finally {
+            argFile.delete();
+        }
+    }
+
+    public void testArgFileWithoutBaseDir() throws Exception {
+        PathTable paths = new PathTable();
+        int source = paths.intern(new File("/work/project/A.scala").getAbsoluteFile());
+        File argFile = MainHelper.createArgFile(Arrays.asList("-nowarn"), null, paths, Arrays.asList(source));
+        try {
+            assertEquals(Arrays.asList("-nowarn", paths.getPath(source)), MainHelper.readArgFile(argFile));
+        } finally {
+            argFile.delete();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package org.scala_tools.maven.executions;
+
+import junit.framework.TestCase;
+
+public class ToolClassLoaderCacheTest extends TestCase {
+    private static final String CLASSPATH = System.getProperty("java.io.tmpdir");
+    /** after the idle timeout of the entries */
+    private static final long LATER = 10 * 60 * 1000;
+
+    @Override
+    protected void setUp() throws Exception {
+        ToolClassLoaderCache.clear();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        ToolClassLoaderCache.clear();
+    }
+
+    public void testSharedUntilLastRelease() throws Exception {
+        ClassLoader first = ToolClassLoaderCache.acquire("a", CLASSPATH);
+        ClassLoader second = ToolClassLoaderCache.acquire("a", CLASSPATH);
+        assertSame(first, second);
+        ToolClassLoaderCache.attach(first, "compiler", "instance");
+        ToolClassLoaderCache.release(first);
+        assertEquals("still acquired once", "instance", ToolClassLoaderCache.getAttachment(second, "compiler"));
+
+        // an evicted classloader stays usable by its users, but is no longer shared
+        ToolClassLoaderCache.clear();
+        assertNull(ToolClassLoaderCache.getAttachment(second, "compiler"));
+        ClassLoader third = ToolClassLoaderCache.acquire("a", CLASSPATH);
+        assertFalse(second == third);
+        ToolClassLoaderCache.release(second);
+        ToolClassLoaderCache.release(third);
+        // released too often
+        ToolClassLoaderCache.release(third);
+        assertTrue(ToolClassLoaderCache.contains("a"));
+    }
+
+    public void testIdleEntriesEvicted() throws Exception {
+        ClassLoader idle = ToolClassLoaderCache.acquire("idle", CLASSPATH);
+        ToolClassLoaderCache.release(idle);
+        ClassLoader used = ToolClassLoaderCache.acquire("used", CLASSPATH);
+        ToolClassLoaderCache.evict(System.currentTimeMillis() + LATER);
+        assertFalse(ToolClassLoaderCache.contains("idle"));
+        assertTrue("in use", ToolClassLoaderCache.contains("used"));
+        ToolClassLoaderCache.release(used);
+        ToolClassLoaderCache.evict(System.currentTimeMillis() + LATER);
+        assertFalse(ToolClassLoaderCache.contains("used"));
+        assertFalse(idle == ToolClassLoaderCache.acquire("idle", CLASSPATH));
+    }
+
+    public void testLeastRecentlyUsedEvicted() throws Exception {
+        for (String key : new String[] {"a", "b", "c"}) {
+            ToolClassLoaderCache.release(ToolClassLoaderCache.acquire(key, CLASSPATH));
+        }
+        ToolClassLoaderCache.release(ToolClassLoaderCache.acquire("a", CLASSPATH));
+        ToolClassLoaderCache.release(ToolClassLoaderCache.acquire("d", CLASSPATH));
+        assertFalse(ToolClassLoaderCache.contains("b"));
+        assertTrue(ToolClassLoaderCache.contains("a"));
+        assertTrue(ToolClassLoaderCache.contains("c"));
+        assertTrue(ToolClassLoaderCache.contains("d"));
+    }
+}
@@ -0,0 +1,159 @@
+package org.scala_tools.maven.incremental;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the load time of a synthetic analysis stored with {@link AnalysisStore} against the same data stored
+ * as serialized java collections. Not a unit test, run it with :
+ * <pre>
+ * java -cp target/classes:target/test-classes org.scala_tools.maven.incremental.AnalysisStoreBenchmark [nbSources]
+ * </pre>
+ */
+public class AnalysisStoreBenchmark {
+    private static final int CLASSES_PER_SOURCE = 4;
+    private static final int REFERENCES_PER_CLASS = 15;
+    private static final int WARMUP = 5;
+    private static final int RUNS = 20;
+
+    public static void main(String[] args) throws Exception {
+        int nbSources = (args.length > 0) ? Integer.parseInt(args[0]) : 10000;
+        File storeFile = File.createTempFile("bench", ".store");
+        File serFile = File.createTempFile("bench", ".ser");
+        try {
+            write(nbSources, storeFile, serFile);
+            System.out.println(String.format("%d sources : store %d KB, serialized %d KB", nbSources, storeFile.length() / 1024, serFile.length() / 1024));
+            final String probe = sourceName(nbSources / 2);
+            report("serialized, load all", serFile, new Task() {
+                public int run(File f) throws Exception {
+                    ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(f), 64 * 1024));
+                    try {
+                        HashMap<?, ?> products = (HashMap<?, ?>) in.readObject();
+                        in.readObject();
+                        return ((List<?>) products.get(probe)).size();
+                    } finally {
+                        in.close();
+                    }
+                }
+            });
+            report("store, lookup one source", storeFile, new Task() {
+                public int run(File f) throws Exception {
+                    AnalysisStore store = AnalysisStore.open(f);
+                    return store.getTable("products").getIntRow(store.findString(probe)).length;
+                }
+            });
+            report("store, read all rows", storeFile, new Task() {
+                public int run(File f) throws Exception {
+                    AnalysisStore store = AnalysisStore.open(f);
+                    AnalysisStore.Table deps = store.getTable("dependencies");
+                    int back = 0;
+                    for (int i = 0; i < deps.getNbRows(); i++) {
+                        int[] row = deps.getIntRow(i);
+                        back += (row == null) ? 0 : row.length;
+                    }
+                    return back;
+                }
+            });
+            report("store, read all rows and strings", storeFile, new Task() {
+                public int run(File f) throws Exception {
+                    AnalysisStore store = AnalysisStore.open(f);
+                    AnalysisStore.Table deps = store.getTable("dependencies");
+                    int back = 0;
+                    for (int i = 0; i < deps.getNbRows(); i++) {
+                        int[] row = deps.getIntRow(i);
+                        back += (row == null) ? 0 : row.length;
+                        back += store.getString(i).length();
+                    }
+                    return back;
+                }
+            });
+        } finally {
+            storeFile.delete();
+            serFile.delete();
+        }
+    }
+
+    private interface Task {
+        int run(File f) throws Exception;
+    }
+
+    private static void report(String name, File f, Task task) throws Exception {
+        int check = 0;
+        for (int i = 0; i < WARMUP; i++) {
+            check += task.run(f);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < RUNS; i++) {
+            check += task.run(f);
+        }
+        long avg = (System.nanoTime() - start) / RUNS;
+        System.out.println(String.format("%-35s %8.2f ms (%d)", name, avg / 1e6, check));
+    }
+
+    private static String sourceName(int i) {
+        return "/home/user/project/src/main/scala/org/example/p" + (i % 50) + "/Source" + i + ".scala";
+    }
+
+    private static String className(int i) {
+        return "org/example/p" + ((i / CLASSES_PER_SOURCE) % 50) + "/Class" + i;
+    }
+
+    private static void write(int nbSources, File storeFile, File serFile) throws Exception {
+        Random random = new Random(42);
+        int nbClasses = nbSources * CLASSES_PER_SOURCE;
+        AnalysisStore.Writer writer = new AnalysisStore.Writer();
+        HashMap<String, List<String>> products = new HashMap<String, List<String>>();
+        HashMap<String, List<String>> dependencies = new HashMap<String, List<String>>();
+        int[] sourceIds = new int[nbSources];
+        for (int s = 0; s < nbSources; s++) {
+            sourceIds[s] = writer.addString(sourceName(s));
+        }
+        int[] classIds = new int[nbClasses];
+        for (int c = 0; c < nbClasses; c++) {
+            classIds[c] = writer.addString(className(c));
+        }
+        int[][] productRows = new int[writer.getNbStrings()][];
+        int[][] dependencyRows = new int[writer.getNbStrings()][];
+        for (int s = 0; s < nbSources; s++) {
+            List<String> names = new ArrayList<String>();
+            int[] row = new int[CLASSES_PER_SOURCE];
+            for (int k = 0; k < CLASSES_PER_SOURCE; k++) {
+                int c = s * CLASSES_PER_SOURCE + k;
+                row[k] = classIds[c];
+                names.add(className(c));
+            }
+            productRows[sourceIds[s]] = row;
+            products.put(sourceName(s), names);
+        }
+        for (int c = 0; c < nbClasses; c++) {
+            List<String> names = new ArrayList<String>();
+            int[] row = new int[REFERENCES_PER_CLASS];
+            for (int k = 0; k < REFERENCES_PER_CLASS; k++) {
+                int d = random.nextInt(nbClasses);
+                row[k] = classIds[d];
+                names.add(className(d));
+            }
+            dependencyRows[classIds[c]] = row;
+            dependencies.put(className(c), names);
+        }
+        writer.addIntTable("products", productRows);
+        writer.addIntTable("dependencies", dependencyRows);
+        writer.write(storeFile);
+        ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(serFile), 64 * 1024));
+        try {
+            out.writeObject(products);
+            out.writeObject(dependencies);
+        } finally {
+            out.close();
+        }
+    }
+}
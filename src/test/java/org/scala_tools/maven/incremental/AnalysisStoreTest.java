@@ -0,0 +1,72 @@
+package org.scala_tools.maven.incremental;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.scala_tools.maven.TempDirTestSupport;
+
+public class AnalysisStoreTest extends TempDirTestSupport {
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        file = new File(dir, "analysis-store.bin");
+    }
+
+    public void testRoundTrip() throws Exception {
+        AnalysisStore.Writer writer = new AnalysisStore.Writer();
+        assertEquals(0, writer.addString("a/B"));
+        assertEquals(1, writer.addString("/src/\u00e9t\u00e9.scala"));
+        assertEquals(0, writer.addString("a/B"));
+        long[][] rows = new long[][] { {0, -1, Long.MAX_VALUE, Long.MIN_VALUE, 300}, null, {} };
+        writer.addTable("rows", rows);
+        writer.addIntTable("ints", new int[][] { {1, 0} });
+        writer.write(file);
+
+        AnalysisStore store = AnalysisStore.open(file);
+        assertEquals(2, store.getNbStrings());
+        assertEquals(1, store.findString("/src/\u00e9t\u00e9.scala"));
+        assertEquals(0, store.findString("a/B"));
+        assertEquals(-1, store.findString("a/C"));
+        assertEquals("/src/\u00e9t\u00e9.scala", store.getString(1));
+
+        AnalysisStore.Table table = store.getTable("rows");
+        assertEquals(3, table.getNbRows());
+        long[] row = table.getRow(0);
+        assertEquals(5, row.length);
+        for (int i = 0; i < row.length; i++) {
+            assertEquals(rows[0][i], row[i]);
+        }
+        assertFalse(table.hasRow(1));
+        assertNull(table.getRow(1));
+        assertTrue(table.hasRow(2));
+        assertEquals(0, table.getRow(2).length);
+        assertNull(table.getRow(3));
+        assertEquals(1, store.getTable("ints").getIntRow(0)[0]);
+        assertNull(store.getTable("missing"));
+    }
+
+    public void testManyStrings() throws Exception {
+        AnalysisStore.Writer writer = new AnalysisStore.Writer();
+        for (int i = 0; i < 10000; i++) {
+            writer.addString("p" + (i % 100) + "/C" + i);
+        }
+        writer.write(file);
+        AnalysisStore store = AnalysisStore.open(file);
+        for (int i = 0; i < 10000; i += 7) {
+            assertEquals(i, store.findString("p" + (i % 100) + "/C" + i));
+        }
+    }
+
+    public void testRejectOtherFormat() throws Exception {
+        FileUtils.fileWrite(file.getAbsolutePath(), "#scala-source-index 1\n");
+        try {
+            AnalysisStore.open(file);
+            fail("should reject");
+        } catch (IOException exc) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package org.scala_tools.maven.incremental;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.scala_tools.maven.TempDirTestSupport;
+
+public class ApiFingerprintsTest extends TempDirTestSupport {
+    private File classesDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        classesDir = new File(dir, "classes");
+        classesDir.mkdirs();
+    }
+
+    public void testImplementationChangesKeepTheHash() throws Exception {
+        if (!compile("public class A { private int x; public int f() { return 1; } }")) {
+            return;
+        }
+        long initial = hash("A");
+        compile("public class A { private String y; public int f() { return 2 + new Object().hashCode(); } private void g() {} }");
+        assertEquals(initial, hash("A"));
+        compile("public class A { private int x; public int f() { return 1; } public void g() {} }");
+        assertFalse(initial == hash("A"));
+        compile("public class A { public static final int X = 1; }");
+        long constant = hash("A");
+        compile("public class A { public static final int X = 2; }");
+        assertFalse("constants are inlined", constant == hash("A"));
+    }
+
+    public void testPublishedHashesAreUsedDownstream() throws Exception {
+        if (!compile("public class A { public int f() { return 1; } }", "public class B extends A { }")) {
+            return;
+        }
+        ApiFingerprints.publish(classesDir);
+        File classFile = new File(classesDir, "A.class");
+        long crc = ClasspathFingerprints.crc(ClasspathFingerprints.readBytes(classFile));
+        assertEquals(hash("A"), ApiFingerprints.load(classesDir).getHash("A", crc));
+        assertEquals(ApiFingerprints.UNKNOWN, ApiFingerprints.load(classesDir).getHash("A", crc + 1));
+
+        List<String> classpath = Arrays.asList(classesDir.getAbsolutePath());
+        File output = new File(dir, "downstream");
+        ClasspathFingerprints fingerprints = ClasspathFingerprints.load(new File(dir, "downstream.classpath"));
+        assertTrue(fingerprints.update(classpath, output).isEmpty());
+        fingerprints.save();
+
+        compile("public class A { public int f() { return 2; } }", "public class B extends A { }");
+        ApiFingerprints.publish(classesDir);
+        fingerprints = ClasspathFingerprints.load(new File(dir, "downstream.classpath"));
+        assertTrue("only the implementation changed", fingerprints.update(classpath, output).isEmpty());
+        fingerprints.save();
+
+        compile("public class A { public int f() { return 2; } public int g() { return 3; } }", "public class B extends A { }");
+        ApiFingerprints.publish(classesDir);
+        fingerprints = ClasspathFingerprints.load(new File(dir, "downstream.classpath"));
+        assertEquals("the API of B includes its superclass", new HashSet<String>(Arrays.asList("A", "B")), fingerprints.update(classpath, output));
+    }
+
+    public void testAnonymousClasses() {
+        assertTrue(ApiFingerprints.isAnonymousOrLocal("p/A$1"));
+        assertTrue(ApiFingerprints.isAnonymousOrLocal("p/A$1Local"));
+        assertTrue(ApiFingerprints.isAnonymousOrLocal("p/A$$anonfun$f$1"));
+        assertFalse(ApiFingerprints.isAnonymousOrLocal("p/A$"));
+        assertFalse(ApiFingerprints.isAnonymousOrLocal("p/A$Inner"));
+    }
+
+    private long hash(String className) throws Exception {
+        return ApiFingerprints.hash(ClassFile.read(new File(classesDir, className + ".class")));
+    }
+
+    /**
+     * Compiles the sources into classesDir (the date of the classfiles is moved forward, as the date of the previous
+     * ones could be the same).
+     *
+     * @return false if no java compiler is available
+     */
+    private boolean compile(String... sources) throws Exception {
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        if (javac == null) {
+            return false;
+        }
+        String[] args = new String[sources.length + 2];
+        args[0] = "-d";
+        args[1] = classesDir.getAbsolutePath();
+        for (int i = 0; i < sources.length; i++) {
+            String name = sources[i].replaceFirst("^public class (\\w+).*$", "$1");
+            File src = new File(dir, name + ".java");
+            FileUtils.fileWrite(src.getAbsolutePath(), sources[i]);
+            args[i + 2] = src.getAbsolutePath();
+        }
+        assertEquals(0, javac.run(null, null, null, args));
+        for (File f : classesDir.listFiles()) {
+            f.setLastModified(System.currentTimeMillis() + 10000 * sources.length + f.length());
+        }
+        return true;
+    }
+}
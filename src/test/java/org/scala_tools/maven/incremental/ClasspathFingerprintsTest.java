@@ -0,0 +1,117 @@
+package org.scala_tools.maven.incremental;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+import org.scala_tools.maven.TempDirTestSupport;
+
+public class ClasspathFingerprintsTest extends TempDirTestSupport {
+    private File jar;
+    private File fingerprintsFile;
+    private File output;
+    private List<String> classpath;
+    private int nbJars = 0;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        jar = new File(dir, "lib.jar");
+        fingerprintsFile = new File(dir, "classes.classpath");
+        output = new File(dir, "classes");
+        classpath = Arrays.asList(jar.getAbsolutePath());
+    }
+
+    public void testChangedClassesOfAJar() throws Exception {
+        if (!jar("public class A { public int f() { return 1; } }", "public class B { }")) {
+            return;
+        }
+        assertTrue("nothing recorded yet", update().isEmpty());
+        assertTrue("same jar", update().isEmpty());
+
+        // the API of the classes of a new jar is unknown : a change is reported
+        jar("public class A { public int f() { return 2; } }", "public class B { }");
+        assertEquals(Collections.singleton("A"), update());
+
+        jar("public class A { public int f() { return 3; } }", "public class B { }");
+        assertTrue("only the implementation changed", update().isEmpty());
+
+        jar("public class A { public int f() { return 3; } public int g() { return 4; } }", "public class B { }");
+        assertEquals(Collections.singleton("A"), update());
+
+        jar("public class A { public int f() { return 3; } public int g() { return 4; } }");
+        assertEquals(Collections.singleton("B"), update());
+    }
+
+    public void testDigestIgnoresTheLocationOfTheJar() throws Exception {
+        if (!jar("public class A { }")) {
+            return;
+        }
+        ClasspathFingerprints fingerprints = new ClasspathFingerprints(fingerprintsFile);
+        fingerprints.update(classpath, output);
+        String digest = fingerprints.getDigest();
+        File moved = new File(dir, "moved.jar");
+        FileUtils.copyFile(jar, moved);
+        fingerprints.update(Arrays.asList(moved.getAbsolutePath()), output);
+        assertEquals(digest, fingerprints.getDigest());
+        jar("public class A { public int f() { return 1; } }");
+        fingerprints.update(classpath, output);
+        assertFalse(digest.equals(fingerprints.getDigest()));
+    }
+
+    /** @return the classes reported by an update of the saved fingerprints, saved again */
+    private Set<String> update() throws Exception {
+        ClasspathFingerprints fingerprints = ClasspathFingerprints.load(fingerprintsFile);
+        Set<String> back = fingerprints.update(classpath, output);
+        fingerprints.save();
+        return back;
+    }
+
+    /**
+     * Compiles the sources, and replaces the jar by a jar of their classes (with a later date, as the date of the
+     * previous jar could be the same).
+     *
+     * @return false if no java compiler is available
+     */
+    private boolean jar(String... sources) throws Exception {
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        if (javac == null) {
+            return false;
+        }
+        nbJars++;
+        File classes = new File(dir, "jar" + nbJars);
+        classes.mkdirs();
+        String[] args = new String[sources.length + 2];
+        args[0] = "-d";
+        args[1] = classes.getAbsolutePath();
+        for (int i = 0; i < sources.length; i++) {
+            String name = sources[i].replaceFirst("^public class (\\w+).*$", "$1");
+            args[i + 2] = write(classes, name + ".java", sources[i]).getAbsolutePath();
+        }
+        assertEquals(0, javac.run(null, null, null, args));
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+        try {
+            for (File f : classes.listFiles()) {
+                if (f.getName().endsWith(".class")) {
+                    out.putNextEntry(new ZipEntry(f.getName()));
+                    out.write(ClasspathFingerprints.readBytes(f));
+                    out.closeEntry();
+                }
+            }
+        } finally {
+            IOUtil.close(out);
+        }
+        jar.setLastModified(System.currentTimeMillis() + 10000 * nbJars);
+        return true;
+    }
+}
@@ -0,0 +1,28 @@
+package org.scala_tools.maven.incremental;
+
+import java.io.File;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.scala_tools.maven.TempDirTestSupport;
+
+public class CompileMemoryTest extends TempDirTestSupport {
+
+    public void testLearnedSettingsArePersisted() throws Exception {
+        File file = new File(dir, "org.example.module.classes");
+        CompileMemory memory = CompileMemory.load(file);
+        assertEquals(0, memory.getHeap());
+        assertEquals(0, memory.getShardBudget());
+        memory.set(2048, 5000000);
+        memory.save();
+
+        memory = CompileMemory.load(file);
+        assertEquals(2048, memory.getHeap());
+        assertEquals(5000000, memory.getShardBudget());
+    }
+
+    public void testInvalidFileIsIgnored() throws Exception {
+        File file = new File(dir, "broken");
+        FileUtils.fileWrite(file.getAbsolutePath(), "not a store");
+        assertEquals(0, CompileMemory.load(file).getHeap());
+    }
+}
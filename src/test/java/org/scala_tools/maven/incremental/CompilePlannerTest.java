@@ -0,0 +1,61 @@
+package org.scala_tools.maven.incremental;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class CompilePlannerTest extends TestCase {
+
+    public void testCyclesAreInTheSameComponent() throws Exception {
+        // 0 -> 1 -> 2 -> 0, 3 -> 0
+        int[][] deps = new int[][] { {1}, {2}, {0}, {0} };
+        CompilePlanner planner = new CompilePlanner(deps, new long[] {1, 1, 1, 1});
+        int[] components = planner.getComponents();
+        assertEquals(2, planner.getNbComponents());
+        assertEquals(components[0], components[1]);
+        assertEquals(components[0], components[2]);
+        assertTrue("dependencies first", components[0] < components[3]);
+    }
+
+    public void testIndependentSourcesAreSplit() throws Exception {
+        // two independent chains of the same cost
+        int[][] deps = new int[][] { {}, {0}, {}, {2} };
+        long big = 100 * CompilePlanner.STARTUP_COST;
+        List<List<int[]>> stages = new CompilePlanner(deps, new long[] {big, big, big, big}).plan(2);
+        assertEquals(1, stages.size());
+        assertEquals(2, stages.get(0).size());
+        for (int[] partition : stages.get(0)) {
+            assertEquals(2, partition.length);
+            assertEquals(partition[0] / 2, partition[1] / 2);
+        }
+    }
+
+    public void testSmallSetIsNotSplit() throws Exception {
+        int[][] deps = new int[][] { {}, {}, {} };
+        List<List<int[]>> stages = new CompilePlanner(deps, new long[] {1, 1, 1}).plan(4);
+        assertEquals(1, stages.size());
+    }
+
+    public void testShardsAreDependencyOrderedAndBounded() throws Exception {
+        // 0 <- 1 <- 2, 3 <-> 4 (cycle), 5 independent
+        int[][] deps = new int[][] { {}, {0}, {1}, {4}, {3}, {} };
+        CompilePlanner planner = new CompilePlanner(deps, new long[] {10, 10, 10, 15, 15, 10});
+        List<int[]> shards = planner.shard(20);
+        int[] shardOf = new int[deps.length];
+        for (int s = 0; s < shards.size(); s++) {
+            long cost = 0;
+            for (int i : shards.get(s)) {
+                shardOf[i] = s;
+                cost += (i == 3 || i == 4) ? 15 : 10;
+            }
+            assertTrue("cycle is the only shard over the budget", (cost <= 20) || (shards.get(s).length == 2 && shardOf[3] == s));
+        }
+        assertEquals(shardOf[3], shardOf[4]);
+        for (int i = 0; i < deps.length; i++) {
+            for (int d : deps[i]) {
+                assertTrue(shardOf[d] <= shardOf[i]);
+            }
+        }
+        assertEquals(1, planner.shard(1000).size());
+    }
+}
@@ -0,0 +1,33 @@
+package org.scala_tools.maven.incremental;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class CycleAnalysisTest extends TestCase {
+
+    public void testSplitCycle() throws Exception {
+        // 0 -> 1 -> 2 -> 0 and 2 -> 3 -> 4 -> 2 : two triangles sharing 2, 5 depends on 0
+        int[][] deps = { { 1 }, { 2 }, { 0, 3 }, { 4 }, { 2 }, { 0 } };
+        CycleAnalysis analysis = new CycleAnalysis(deps);
+        List<int[]> cycles = analysis.getCycles();
+        assertEquals(1, cycles.size());
+        assertEquals(5, cycles.get(0).length);
+
+        List<CycleAnalysis.Split> splits = analysis.getSplits(cycles.get(0), 2);
+        assertEquals(2, splits.size());
+        // removing any edge breaks one triangle, the other one is left
+        assertEquals(3, splits.get(0).biggestLeft);
+
+        // a change of any source of the cycle invalidates the 4 others and 5
+        assertEquals((5 * 5 + 0) / 6.0, CycleAnalysis.getMeanInvalidation(deps), 0.001);
+        int[][] split = CycleAnalysis.without(deps, splits.subList(0, 1));
+        assertTrue(CycleAnalysis.getMeanInvalidation(split) < CycleAnalysis.getMeanInvalidation(deps));
+    }
+
+    public void testMaxSpeedup() throws Exception {
+        // 1 and 2 depend on 0 : the longest chain costs 2 of 3
+        int[][] deps = { {}, { 0 }, { 0 } };
+        assertEquals(1.5, CycleAnalysis.getMaxSpeedup(deps, new long[] { 1, 1, 1 }), 0.001);
+    }
+}
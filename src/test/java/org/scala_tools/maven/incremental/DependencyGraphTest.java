@@ -0,0 +1,100 @@
+package org.scala_tools.maven.incremental;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.scala_tools.maven.TempDirTestSupport;
+
+public class DependencyGraphTest extends TempDirTestSupport {
+    private final PathTable paths = new PathTable();
+    private File classesDir;
+    private int a;
+    private int b;
+    private int c;
+    private int d;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        classesDir = new File(dir, "classes");
+        classesDir.mkdirs();
+        a = paths.intern(write(dir, "src/p/A.java", "package p; public class A { }"));
+        b = paths.intern(write(dir, "src/p/B.java", "package p; public class B extends A { }"));
+        c = paths.intern(write(dir, "src/p/C.java", "package p; public class C { B b; }"));
+        d = paths.intern(write(dir, "src/p/D.java", "package p; public class D { }"));
+    }
+
+    public void testInvalidatedSources() throws Exception {
+        DependencyGraph graph = compile();
+        if (graph == null) {
+            return;
+        }
+        assertEquals(new HashSet<Integer>(Arrays.asList(b, c)), graph.getInvalidatedSources(Arrays.asList(a)));
+        assertEquals(Collections.singleton(c), graph.getInvalidatedSources(Arrays.asList(b)));
+        assertTrue(graph.getInvalidatedSources(Arrays.asList(d)).isEmpty());
+    }
+
+    public void testRemovedSources() throws Exception {
+        DependencyGraph graph = compile();
+        if (graph == null) {
+            return;
+        }
+        assertTrue(graph.getRemovedSources(Arrays.asList(a, b, c, d)).isEmpty());
+        assertEquals(Collections.singleton(d), graph.getRemovedSources(Arrays.asList(a, b, c)));
+
+        graph.recordCompilation(Collections.<Integer>emptyList(), Arrays.asList(d), classesDir, 0);
+        assertEquals(new HashSet<Integer>(Arrays.asList(a, b, c)), graph.getSources());
+        assertTrue(graph.getProducts(d).isEmpty());
+    }
+
+    public void testSourcesReferencing() throws Exception {
+        DependencyGraph graph = compile();
+        if (graph == null) {
+            return;
+        }
+        assertEquals(Collections.singleton(b), graph.getSourcesReferencing(Arrays.asList("p/A")));
+        assertEquals(Collections.singleton(c), graph.getSourcesReferencing(Arrays.asList("p/B", "p/Unknown")));
+    }
+
+    public void testSaveAndLoad() throws Exception {
+        DependencyGraph graph = compile();
+        if (graph == null) {
+            return;
+        }
+        File file = new File(dir, "classes.deps");
+        graph.save();
+
+        // the sources are read with the paths of another table
+        PathTable otherPaths = new PathTable();
+        int otherD = otherPaths.intern(new File(dir, "src/p/D.java"));
+        int otherA = otherPaths.intern(new File(dir, "src/p/A.java"));
+        DependencyGraph loaded = DependencyGraph.load(file, otherPaths);
+        assertEquals(Arrays.asList("p/A"), loaded.getProducts(otherA));
+        assertEquals(Arrays.asList(new File(classesDir, "p" + File.separator + "D.class")), loaded.getProductFiles(Arrays.asList(otherD), classesDir));
+        assertTrue(loaded.containsAll(Arrays.asList(otherA, otherD)));
+        assertEquals(4, loaded.getSources().size());
+        assertEquals(2, loaded.getInvalidatedSources(Arrays.asList(otherA)).size());
+        assertEquals(Collections.singleton(otherPaths.intern(new File(dir, "src/p/C.java"))), loaded.getSourcesReferencing(Arrays.asList("p/B")));
+    }
+
+    /**
+     * Compiles the sources with javac into classesDir, and records them into a graph saved into classes.deps.
+     *
+     * @return the graph, or null if no java compiler is available
+     */
+    private DependencyGraph compile() throws Exception {
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        if (javac == null) {
+            return null;
+        }
+        assertEquals(0, javac.run(null, null, null, "-d", classesDir.getAbsolutePath(), paths.getPath(a), paths.getPath(b), paths.getPath(c), paths.getPath(d)));
+        DependencyGraph back = new DependencyGraph(new File(dir, "classes.deps"), paths);
+        back.recordCompilation(Arrays.asList(a, b, c, d), Collections.<Integer>emptyList(), classesDir, 0);
+        return back;
+    }
+}
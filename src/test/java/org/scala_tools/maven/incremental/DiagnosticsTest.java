@@ -0,0 +1,52 @@
+package org.scala_tools.maven.incremental;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.scala_tools.maven.TempDirTestSupport;
+
+public class DiagnosticsTest extends TempDirTestSupport {
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        file = new File(dir, "classes.diagnostics");
+    }
+
+    public void testRecordAndReload() throws Exception {
+        File a = new File("/src/p/A.scala");
+        File b = new File("/src/p/B.scala");
+        Diagnostics.Collector collector = new Diagnostics.Collector();
+        collector.lineWritten("/src/p/A.scala:3: warning: non variable type-argument String in type pattern is unchecked");
+        collector.lineWritten("    case l: List[String] => l");
+        collector.lineWritten("            ^");
+        collector.lineWritten("one warning found");
+        collector.exited(0);
+
+        Diagnostics diagnostics = new Diagnostics(file);
+        diagnostics.record(Arrays.asList(a, b), collector);
+        diagnostics.save();
+
+        diagnostics = Diagnostics.load(file);
+        assertEquals(3, diagnostics.getMessages(a.getAbsolutePath()).size());
+        assertEquals(1, Diagnostics.count(diagnostics.getMessages(a.getAbsolutePath())));
+        assertTrue(diagnostics.getMessages(b.getAbsolutePath()).isEmpty());
+
+        // compiled again without warning
+        diagnostics.record(Arrays.asList(a), new Diagnostics.Collector());
+        assertTrue(diagnostics.getMessages(a.getAbsolutePath()).isEmpty());
+    }
+
+    public void testRelativePaths() throws Exception {
+        File base = new File("/project");
+        Diagnostics.Collector collector = new Diagnostics.Collector(base);
+        collector.lineWritten("src/main/scala/A.scala:3: warning: match is not exhaustive!");
+        collector.lineWritten("            ^");
+
+        Diagnostics diagnostics = new Diagnostics(file);
+        File a = new File(base, "src/main/scala/A.scala");
+        diagnostics.record(Arrays.asList(a), collector);
+        assertEquals(2, diagnostics.getMessages(a.getAbsolutePath()).size());
+    }
+}
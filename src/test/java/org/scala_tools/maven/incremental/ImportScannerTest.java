@@ -0,0 +1,40 @@
+package org.scala_tools.maven.incremental;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import org.scala_tools.maven.TempDirTestSupport;
+
+public class ImportScannerTest extends TempDirTestSupport {
+
+    public void testPackagesAndImports() throws Exception {
+        List<File> sources = Arrays.asList(
+            write(dir, "a/A1.scala", "package a\n\nclass A1 extends A2\n"),
+            write(dir, "a/A2.scala", "package a\nclass A2\n"),
+            write(dir, "b/B.scala", "package b\n\nimport a.{A1, A2}\nimport scala.collection.mutable._\n\nclass B(x: A1)\n"),
+            write(dir, "b/c/C.scala", "package b\npackage c\n\nclass C extends B(null)\n"),
+            write(dir, "d/D.java", "package d;\n\nimport static b.c.C.m;\n\npublic class D {}\n"));
+        int[][] deps = ImportScanner.estimateDependencies(sources);
+        assertEquals(Arrays.asList(1), toList(deps[0]));
+        assertEquals(Arrays.asList(0), toList(deps[1]));
+        assertEquals(Arrays.asList(0), toList(deps[2]));
+        // the chained package clauses make b visible from b.c
+        assertEquals(Arrays.asList(2), toList(deps[3]));
+        assertEquals(Arrays.asList(3), toList(deps[4]));
+
+        List<int[]> shards = new CompilePlanner(deps, new long[] {1, 1, 1, 1, 1}).shard(2);
+        assertEquals(3, shards.size());
+        assertEquals(Arrays.asList(0, 1), toList(shards.get(0)));
+        assertEquals(Arrays.asList(2, 3), toList(shards.get(1)));
+    }
+
+    private static List<Integer> toList(int[] values) {
+        Integer[] back = new Integer[values.length];
+        for (int i = 0; i < values.length; i++) {
+            back[i] = values[i];
+        }
+        Arrays.sort(back);
+        return Arrays.asList(back);
+    }
+}
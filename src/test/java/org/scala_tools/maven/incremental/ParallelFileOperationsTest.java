@@ -0,0 +1,67 @@
+package org.scala_tools.maven.incremental;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.scala_tools.maven.TempDirTestSupport;
+
+public class ParallelFileOperationsTest extends TempDirTestSupport {
+
+    public void testCopyMoveAndDeleteOnSeveralThreads() throws Exception {
+        // enough files to be split across threads
+        List<File> sources = new ArrayList<File>();
+        List<File> copies = new ArrayList<File>();
+        List<File> moved = new ArrayList<File>();
+        new File(dir, "copies").mkdirs();
+        new File(dir, "moved").mkdirs();
+        for (int i = 0; i < 300; i++) {
+            sources.add(write(dir, "sources/F" + i + ".class", "content " + i));
+            copies.add(new File(dir, "copies/F" + i + ".class"));
+            moved.add(new File(dir, "moved/F" + i + ".class"));
+        }
+        assertEquals(300, ParallelFileOperations.copy(sources, copies));
+        assertEquals(300, ParallelFileOperations.move(copies, moved));
+        for (int i = 0; i < 300; i++) {
+            assertTrue(sources.get(i).exists());
+            assertFalse(copies.get(i).exists());
+            assertEquals("content " + i, FileUtils.fileRead(moved.get(i).getAbsolutePath()));
+        }
+        moved.add(new File(dir, "moved/Missing.class"));
+        assertEquals(300, ParallelFileOperations.delete(moved));
+        assertEquals(0, new File(dir, "moved").list().length);
+    }
+
+    public void testReplaceIfChanged() throws Exception {
+        long past = System.currentTimeMillis() - 60000;
+        past -= past % 1000;
+        File same = write(dir, "out/Same.class", "same");
+        File changed = write(dir, "out/Changed.class", "v1");
+        File longer = write(dir, "out/Longer.class", "v1");
+        List<File> previous = new ArrayList<File>();
+        List<File> targets = new ArrayList<File>();
+        for (File f : new File[] {same, changed, longer}) {
+            f.setLastModified(past);
+            File aside = new File(dir, "previous/" + f.getName());
+            aside.getParentFile().mkdirs();
+            assertTrue(f.renameTo(aside));
+            previous.add(aside);
+            targets.add(f);
+        }
+        targets.add(new File(dir, "out/New.class"));
+        previous.add(new File(dir, "previous/New.class"));
+        List<File> files = new ArrayList<File>();
+        files.add(write(dir, "new/Same.class", "same"));
+        files.add(write(dir, "new/Changed.class", "v2"));
+        files.add(write(dir, "new/Longer.class", "v1 and more"));
+        files.add(write(dir, "new/New.class", "new"));
+
+        assertEquals(1, ParallelFileOperations.replaceIfChanged(files, targets, previous));
+        assertEquals(past, same.lastModified());
+        assertEquals("v2", FileUtils.fileRead(changed.getAbsolutePath()));
+        assertEquals("v1 and more", FileUtils.fileRead(longer.getAbsolutePath()));
+        assertEquals("new", FileUtils.fileRead(new File(dir, "out/New.class").getAbsolutePath()));
+        assertEquals(0, new File(dir, "new").list().length);
+    }
+}
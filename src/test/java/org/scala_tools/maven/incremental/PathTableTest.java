@@ -0,0 +1,39 @@
+package org.scala_tools.maven.incremental;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+public class PathTableTest extends TestCase {
+
+    public void testInternAndRebuild() throws Exception {
+        PathTable table = new PathTable();
+        File dir = new File("/work/project/src/main/scala").getAbsoluteFile();
+        int dirId = table.intern(dir);
+        int a = table.intern(dirId, "org/example/A.scala");
+        int b = table.intern(dirId, "org/example/B.scala");
+        assertEquals(new File(dir, "org/example/A.scala").getAbsolutePath(), table.getPath(a));
+        assertEquals(table.getParent(a), table.getParent(b));
+        assertEquals(a, table.intern(new File(dir, "org/example/A.scala")));
+        assertEquals(b, table.find(new File(dir, "org/example/B.scala").getAbsolutePath()));
+        assertEquals(-1, table.find(new File(dir, "org/example/C.scala").getAbsolutePath()));
+
+        StringBuilder relative = new StringBuilder();
+        assertTrue(table.appendPath(a, dirId, relative));
+        assertEquals("org" + File.separator + "example" + File.separator + "A.scala", relative.toString());
+        StringBuilder absolute = new StringBuilder();
+        assertFalse(table.appendPath(a, table.intern(new File("/other").getAbsoluteFile()), absolute));
+        assertEquals(table.getPath(a), absolute.toString());
+    }
+
+    public void testGrow() throws Exception {
+        PathTable table = new PathTable();
+        int dirId = table.intern(new File("/d").getAbsoluteFile());
+        for (int i = 0; i < 5000; i++) {
+            table.intern(dirId, "p" + (i % 10) + "/F" + i + ".scala");
+        }
+        int id = table.find(new File("/d/p3/F4713.scala").getAbsolutePath());
+        assertTrue(id > -1);
+        assertEquals("F4713.scala", table.getName(id));
+    }
+}
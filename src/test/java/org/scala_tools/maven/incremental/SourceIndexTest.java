@@ -0,0 +1,75 @@
+package org.scala_tools.maven.incremental;
+
+import java.io.File;
+import java.util.Collections;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.scala_tools.maven.TempDirTestSupport;
+
+public class SourceIndexTest extends TempDirTestSupport {
+    private final PathTable paths = new PathTable();
+
+    public void testStaleOnlyWhenContentChanged() throws Exception {
+        File src = new File(dir, "A.scala");
+        FileUtils.fileWrite(src.getAbsolutePath(), "class A");
+        File indexFile = new File(dir, "classes.index");
+
+        SourceIndex index = SourceIndex.load(indexFile, paths);
+        assertTrue(index.isStale(src));
+        index.save();
+
+        index = SourceIndex.load(indexFile, paths);
+        src.setLastModified(src.lastModified() + 10000);
+        assertFalse("touch should not make the source stale", index.isStale(src));
+        index.save();
+
+        index = SourceIndex.load(indexFile, paths);
+        long lastModified = src.lastModified();
+        FileUtils.fileWrite(src.getAbsolutePath(), "class B { }");
+        src.setLastModified(lastModified - 60000);
+        assertTrue("source restored with an older date should be stale", index.isStale(src));
+    }
+
+    public void testClearAndDroppedEntries() throws Exception {
+        File a = new File(dir, "A.scala");
+        File b = new File(dir, "B.scala");
+        FileUtils.fileWrite(a.getAbsolutePath(), "class A");
+        FileUtils.fileWrite(b.getAbsolutePath(), "class B");
+        File indexFile = new File(dir, "classes.index");
+
+        SourceIndex index = SourceIndex.load(indexFile, paths);
+        index.isStale(a);
+        index.isStale(b);
+        index.save();
+
+        index = SourceIndex.load(indexFile, paths);
+        index.isStale(a);
+        assertTrue(index.hasRemovedSources());
+        index.save();
+        assertNull(SourceIndex.load(indexFile, paths).getRecorded(paths.intern(b)));
+
+        index = SourceIndex.load(indexFile, paths);
+        index.isStale(a);
+        assertFalse(index.hasRemovedSources());
+        assertEquals(Collections.singleton(paths.intern(a)), index.getScanned());
+
+        index = SourceIndex.load(indexFile, paths);
+        index.clear();
+        assertTrue(index.isStale(a));
+    }
+
+    public void testPathsOfAnotherTable() throws Exception {
+        File a = write(dir, "p/A.scala", "class A");
+        File indexFile = new File(dir, "classes.index");
+        SourceIndex index = SourceIndex.load(indexFile, paths);
+        index.isStale(a);
+        index.save();
+
+        // the ids of the paths are only valid in a build, the index stores the paths
+        PathTable other = new PathTable();
+        other.intern(new File(dir, "B.scala"));
+        index = SourceIndex.load(indexFile, other);
+        assertFalse(index.isStale(other.intern(other.intern(dir), "p/A.scala")));
+        assertFalse(index.hasRemovedSources());
+    }
+}
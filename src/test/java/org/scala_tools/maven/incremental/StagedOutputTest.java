@@ -0,0 +1,103 @@
+package org.scala_tools.maven.incremental;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.scala_tools.maven.TempDirTestSupport;
+
+public class StagedOutputTest extends TempDirTestSupport {
+    private File output;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        output = new File(dir, "classes");
+        output.mkdirs();
+    }
+
+    public void testCommitKeepsUnchangedClassFiles() throws Exception {
+        File same = write(output, "p/Same.class", "same");
+        File changed = write(output, "p/Changed.class", "v1");
+        File removed = write(output, "p/Removed.class", "removed");
+        File other = write(output, "Other.class", "other");
+        long past = System.currentTimeMillis() - 60000;
+        past -= past % 1000;
+        same.setLastModified(past);
+        changed.setLastModified(past);
+
+        StagedOutput staged = new StagedOutput(output);
+        staged.begin(Arrays.asList(same, changed, removed, new File(output, "p/Missing.class")));
+        assertFalse(same.exists());
+        assertTrue(other.exists());
+        write(staged.getStagingDir(), "p/Same.class", "same");
+        write(staged.getStagingDir(), "p/Changed.class", "v2");
+        write(staged.getStagingDir(), "p/q/New.class", "new");
+        assertEquals(1, staged.commit());
+
+        assertEquals(past, same.lastModified());
+        assertEquals("v2", FileUtils.fileRead(changed.getAbsolutePath()));
+        assertTrue(changed.lastModified() > past);
+        assertTrue(new File(output, "p/q/New.class").exists());
+        assertFalse(removed.exists());
+        assertTrue(other.exists());
+        assertFalse(staged.getStagingDir().exists());
+        assertFalse(staged.recover());
+    }
+
+    public void testRollbackRestoresPreviousClassFiles() throws Exception {
+        File changed = write(output, "p/Changed.class", "v1");
+        StagedOutput staged = new StagedOutput(output);
+        staged.begin(Arrays.asList(changed));
+        write(staged.getStagingDir(), "p/Changed.class", "v2");
+
+        // as if maven was killed during the compilation
+        assertTrue(new StagedOutput(output).recover());
+        assertEquals("v1", FileUtils.fileRead(changed.getAbsolutePath()));
+        assertFalse(staged.getStagingDir().exists());
+    }
+
+    public void testRecoverCompletesInterruptedCommit() throws Exception {
+        File moved = write(output, "p/Moved.class", "v1");
+        File left = write(output, "p/Left.class", "v1");
+        StagedOutput staged = new StagedOutput(output);
+        staged.begin(Arrays.asList(moved, left));
+        write(staged.getStagingDir(), "p/Left.class", "v2");
+        // as if maven was killed during the commit, after the move of the first staged file
+        write(output, "p/Moved.class", "v2");
+        assertTrue(new File(output + ".commit").createNewFile());
+
+        assertTrue(new StagedOutput(output).recover());
+        assertEquals("v2", FileUtils.fileRead(moved.getAbsolutePath()));
+        assertEquals("v2", FileUtils.fileRead(left.getAbsolutePath()));
+        assertFalse(staged.getStagingDir().exists());
+        assertFalse(new File(output + ".stale").exists());
+        assertFalse(new File(output + ".commit").exists());
+        assertFalse(staged.recover());
+    }
+
+    public void testSetAsideReplacedByCommit() throws Exception {
+        File dependent = write(output, "p/Dependent.class", "v1");
+        StagedOutput staged = new StagedOutput(output);
+        staged.begin(Arrays.asList(new File(output, "p/Changed.class")));
+        write(staged.getStagingDir(), "p/Dependent.class", "v1");
+        staged.setAside(Arrays.asList(dependent));
+        assertFalse(dependent.exists());
+        assertEquals(1, staged.commit());
+        assertEquals("v1", FileUtils.fileRead(dependent.getAbsolutePath()));
+    }
+
+    public void testClearStagingDirKeepsPreviousClassFiles() throws Exception {
+        File changed = write(output, "p/Changed.class", "v1");
+        StagedOutput staged = new StagedOutput(output);
+        staged.begin(Arrays.asList(changed));
+        write(staged.getStagingDir(), "p/Partial.class", "partial");
+        staged.clearStagingDir();
+        assertTrue(staged.getStagingDir().isDirectory());
+        assertEquals(0, staged.getStagingDir().list().length);
+        write(staged.getStagingDir(), "p/Changed.class", "v2");
+        assertEquals(0, staged.commit());
+        assertEquals("v2", FileUtils.fileRead(changed.getAbsolutePath()));
+        assertFalse(new File(output, "p/Partial.class").exists());
+    }
+}